@@ -0,0 +1,131 @@
+package com.chengtao.pianoview.entity;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.ScaleDrawable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+import android.view.Gravity;
+import com.chengtao.pianoview.R;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * 钢琴的构造和第一次绘制的耗时,与原来每个钢琴键创建一个ScaleDrawable的实现对比,
+ * 需要在设备上运行,只输出结果,不做断言
+ */
+@RunWith(AndroidJUnit4.class)
+public class PianoBenchmark {
+  private static final String TAG = "PianoBenchmark";
+  private static final float SCALE = 0.5f;
+  private static final int ROUNDS = 20;
+
+  @Test public void constructAndFirstDraw() {
+    Context context = InstrumentationRegistry.getTargetContext();
+    //第一次构造时图片和资源表还没有缓存
+    long start = System.nanoTime();
+    Drawable[] baselineKeys = buildBaseline(context);
+    long coldBaseline = System.nanoTime() - start;
+    start = System.nanoTime();
+    Piano piano = new Piano(context, SCALE);
+    long coldPiano = System.nanoTime() - start;
+
+    Bitmap bitmap = Bitmap.createBitmap(piano.getPianoWith(), piano.getWhiteKeyHeight(),
+        Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    start = System.nanoTime();
+    drawBaseline(canvas, baselineKeys, piano);
+    long firstDrawBaseline = System.nanoTime() - start;
+    start = System.nanoTime();
+    drawPiano(canvas, piano);
+    long firstDrawPiano = System.nanoTime() - start;
+
+    long[] baseline = new long[ROUNDS];
+    long[] current = new long[ROUNDS];
+    for (int i = 0; i < ROUNDS; i++) {
+      start = System.nanoTime();
+      drawBaseline(canvas, buildBaseline(context), piano);
+      baseline[i] = System.nanoTime() - start;
+      start = System.nanoTime();
+      drawPiano(canvas, new Piano(context, SCALE));
+      current[i] = System.nanoTime() - start;
+    }
+    bitmap.recycle();
+    Arrays.sort(baseline);
+    Arrays.sort(current);
+    Log.i(TAG, "cold construction: ScaleDrawable per key " + coldBaseline / 1000
+        + " us, shared drawables " + coldPiano / 1000 + " us");
+    Log.i(TAG, "first draw: ScaleDrawable per key " + firstDrawBaseline / 1000
+        + " us, shared drawables " + firstDrawPiano / 1000 + " us");
+    Log.i(TAG, "construction + draw median: ScaleDrawable per key " + baseline[ROUNDS / 2] / 1000
+        + " us, shared drawables " + current[ROUNDS / 2] / 1000 + " us");
+  }
+
+  /**
+   * 原来的实现:每个钢琴键获取一次图片并包装成ScaleDrawable,通过资源名称反射查找声音
+   */
+  private static Drawable[] buildBaseline(Context context) {
+    Drawable[] keys = new Drawable[Piano.PIANO_NUMS];
+    for (int i = 0; i < 8; i++) {
+      for (int j = 0; j < (i == 0 ? 1 : 5); j++) {
+        keys[PianoKeyIndex.getBlackKeyIndex(i, j)] =
+            buildBaselineKey(context, R.drawable.black_piano_key, "b" + i + j);
+      }
+    }
+    for (int i = 0; i < 9; i++) {
+      for (int j = 0; j < (i == 0 ? 2 : (i == 8 ? 1 : 7)); j++) {
+        keys[PianoKeyIndex.getWhiteKeyIndex(i, j)] =
+            buildBaselineKey(context, R.drawable.white_piano_key, "w" + i + j);
+      }
+    }
+    return keys;
+  }
+
+  private static Drawable buildBaselineKey(Context context, int drawableId, String voiceName) {
+    Drawable drawable = new ScaleDrawable(ContextCompat.getDrawable(context, drawableId),
+        Gravity.NO_GRAVITY, 1, SCALE).getDrawable();
+    if (context.getResources().getIdentifier(voiceName, "raw", context.getPackageName()) == 0) {
+      Log.w(TAG, "voice not found:" + voiceName);
+    }
+    return drawable;
+  }
+
+  private static void drawBaseline(Canvas canvas, Drawable[] keys, Piano piano) {
+    PianoKeyIndex keyIndex = piano.getKeyIndex();
+    for (int index = 0; index < Piano.PIANO_NUMS; index++) {
+      if (!PianoKeyIndex.isBlackKey(index)) {
+        drawBaselineKey(canvas, keys[index], keyIndex, index);
+      }
+    }
+    for (int index = 0; index < Piano.PIANO_NUMS; index++) {
+      if (PianoKeyIndex.isBlackKey(index)) {
+        drawBaselineKey(canvas, keys[index], keyIndex, index);
+      }
+    }
+  }
+
+  private static void drawBaselineKey(Canvas canvas, Drawable key, PianoKeyIndex keyIndex,
+      int index) {
+    key.setBounds(keyIndex.getKeyLeft(index), 0, keyIndex.getKeyRight(index),
+        keyIndex.getKeyBottom(index));
+    key.draw(canvas);
+  }
+
+  private static void drawPiano(Canvas canvas, Piano piano) {
+    for (int index = piano.getStartKey(); index <= piano.getEndKey(); index++) {
+      if (!PianoKeyIndex.isBlackKey(index)) {
+        piano.drawKey(canvas, piano.getPianoKey(index), false);
+      }
+    }
+    for (int index = piano.getStartKey(); index <= piano.getEndKey(); index++) {
+      if (PianoKeyIndex.isBlackKey(index)) {
+        piano.drawKey(canvas, piano.getPianoKey(index), false);
+      }
+    }
+  }
+}
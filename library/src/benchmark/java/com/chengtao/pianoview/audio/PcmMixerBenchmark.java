@@ -0,0 +1,36 @@
+package com.chengtao.pianoview.audio;
+
+import org.junit.Test;
+
+/**
+ * 每个缓冲区的混音耗时,与缓冲区的播放时长对比
+ */
+public class PcmMixerBenchmark {
+
+  @Test public void mixCostPerBuffer() {
+    int sampleRate = 48000;
+    int frames = 192;
+    int voices = 32;
+    PcmMixer mixer = new PcmMixer(voices, 2, frames);
+    short[] sample = new short[sampleRate * 2 * 4];
+    for (int i = 0; i < sample.length; i++) {
+      sample[i] = (short) (Math.sin(i * 0.01) * 8000);
+    }
+    short[] out = new short[frames * 2];
+    int buffers = 2000;
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      for (int v = 0; v < voices; v++) {
+        mixer.noteOn(sample, 0.8f);
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < buffers; i++) {
+        mixer.mix(out, frames);
+      }
+      best = Math.min(best, (System.nanoTime() - start) / buffers);
+    }
+    long bufferDuration = 1000000000L * frames / sampleRate;
+    System.out.println("PcmMixer: " + voices + " voices, " + frames + " frames: " + best
+        + " ns per buffer (buffer duration " + bufferDuration + " ns)");
+  }
+}
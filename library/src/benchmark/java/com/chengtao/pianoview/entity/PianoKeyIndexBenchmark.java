@@ -0,0 +1,23 @@
+package com.chengtao.pianoview.entity;
+
+import org.junit.Test;
+
+/**
+ * 钢琴键位置计算的耗时,只输出结果,不做断言
+ */
+public class PianoKeyIndexBenchmark {
+
+  @Test public void buildGeometry() {
+    int rounds = 10000;
+    long best = Long.MAX_VALUE;
+    int width = 0;
+    for (int i = 0; i < 5; i++) {
+      long start = System.nanoTime();
+      for (int j = 0; j < rounds; j++) {
+        width += new PianoKeyIndex(88 + (j & 1), 420, 54, 270).getKeyRight(j % Piano.PIANO_NUMS);
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.println("key geometry: " + best / rounds + " ns per keyboard (" + width + ")");
+  }
+}
@@ -0,0 +1,78 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.audio.AudioEngine;
+import com.chengtao.pianoview.entity.PianoKey;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+/**
+ * 从调用playMusic到引擎开始play的延时,对比原来经过线程池切换和现在直接播放,只输出结果,不做断言
+ */
+public class AudioUtilsBenchmark {
+
+  @Test public void noteToPlayLatency() {
+    TimingEngine engine = new TimingEngine();
+    final AudioUtils utils = new AudioUtils(engine);
+    final PianoKey key = new PianoKey();
+    key.setIndex(39);
+    ExecutorService service = Executors.newCachedThreadPool();
+    int notes = 2000;
+    long[] executorLatency = new long[notes];
+    long[] directLatency = new long[notes];
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < notes; i++) {
+        engine.playedAt = 0;
+        long start = System.nanoTime();
+        //原来的实现:每个音符都提交到线程池中播放
+        service.execute(() -> utils.playMusic(key));
+        long played;
+        while ((played = engine.playedAt) == 0) {
+          Thread.yield();
+        }
+        executorLatency[i] = played - start;
+      }
+      for (int i = 0; i < notes; i++) {
+        long start = System.nanoTime();
+        utils.playMusic(key);
+        directLatency[i] = engine.playedAt - start;
+      }
+    }
+    service.shutdown();
+    System.out.println("note -> play() median latency: executor hop " + median(executorLatency)
+        + " ns, direct " + median(directLatency) + " ns");
+  }
+
+  private static long median(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+
+  /**
+   * 只记录play被调用的时间的引擎
+   */
+  private static class TimingEngine implements AudioEngine {
+    volatile long playedAt;
+
+    @Override public void setOnLoadCompleteListener(OnLoadCompleteListener listener) {
+    }
+
+    @Override public void load(int keyIndex, int resId) {
+    }
+
+    @Override public void unload(int keyIndex) {
+    }
+
+    @Override public void play(int keyIndex, float volume) {
+      playedAt = System.nanoTime();
+    }
+
+    @Override public void warmUp(int keyIndex) {
+    }
+
+    @Override public void release() {
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.entity.AutoPlayEntity;
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Json配置的解析耗时:流式读取与Gson反射对比
+ */
+public class AutoPlayEntityAdapterBenchmark {
+  private static final Type LIST_TYPE = new TypeToken<List<AutoPlayEntity>>() {
+  }.getType();
+
+  @Test public void streamingVersusReflection() {
+    String json = new Gson().toJson(generate(200000));
+    //预热
+    for (int i = 0; i < 3; i++) {
+      parseReflective(json);
+      AutoPlayUtils.getAutoPlayTimelineByJson(new StringReader(json));
+    }
+    long[] reflective = new long[5];
+    long[] streaming = new long[5];
+    for (int i = 0; i < reflective.length; i++) {
+      long start = System.nanoTime();
+      parseReflective(json);
+      reflective[i] = System.nanoTime() - start;
+      start = System.nanoTime();
+      AutoPlayUtils.getAutoPlayTimelineByJson(new StringReader(json));
+      streaming[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(reflective);
+    Arrays.sort(streaming);
+    System.out.println("200k entities: reflective gson median " + reflective[2] / 1000000
+        + " ms, streaming median " + streaming[2] / 1000000 + " ms");
+  }
+
+  /**
+   * 原来的实现:每次创建Gson,反射读取实体列表后编译
+   */
+  private static AutoPlayTimeline parseReflective(String json) {
+    List<AutoPlayEntity> entities = new Gson().fromJson(json, LIST_TYPE);
+    return AutoPlayTimeline.compile(entities);
+  }
+
+  private static List<AutoPlayEntity> generate(int notes) {
+    AutoPlayEntity[] entities = new AutoPlayEntity[notes];
+    Random random = new Random(37);
+    for (int i = 0; i < notes; i++) {
+      boolean white = random.nextInt(3) > 0;
+      entities[i] = new AutoPlayEntity(white ? Piano.PianoKeyType.WHITE : Piano.PianoKeyType.BLACK,
+          random.nextInt(8), random.nextInt(white ? 7 : 5), random.nextInt(1000));
+    }
+    return Arrays.asList(entities);
+  }
+}
@@ -0,0 +1,53 @@
+package com.chengtao.pianoview.utils;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * 100万个音符的自定义配置解析耗时:流式解析与拆分字符串加正则表达式对比,只输出结果,不做断言
+ */
+public class PianoConvertUtilsBenchmark {
+
+  @Test public void streamingVersusRegex() throws Exception {
+    String score = PianoConvertUtilsTest.generateScore(1000000);
+    final long[] sum = new long[1];
+    PianoConvertUtils.OnNoteListener noteListener = new PianoConvertUtils.OnNoteListener() {
+      @Override public void onNote(PianoConvertUtils.PianoKey key) {
+        sum[0] += key.getGroup() * 7 + key.getPosition();
+      }
+    };
+    PianoConvertUtils.OnKeyListener keyListener = new PianoConvertUtils.OnKeyListener() {
+      @Override public boolean onKey(int keyIndex, long duration) {
+        sum[0] += keyIndex;
+        return true;
+      }
+    };
+    //预热
+    for (int i = 0; i < 2; i++) {
+      PianoConvertUtils.parse(new StringReader(score), noteListener);
+      PianoConvertUtils.parseKeys(new StringReader(score), keyListener);
+      PianoConvertUtilsTest.regexTokenize(score);
+    }
+    long[] regex = new long[3];
+    long[] parse = new long[3];
+    long[] parseKeys = new long[3];
+    for (int i = 0; i < regex.length; i++) {
+      long start = System.nanoTime();
+      PianoConvertUtilsTest.regexTokenize(score);
+      regex[i] = System.nanoTime() - start;
+      start = System.nanoTime();
+      PianoConvertUtils.parse(new StringReader(score), noteListener);
+      parse[i] = System.nanoTime() - start;
+      start = System.nanoTime();
+      PianoConvertUtils.parseKeys(new StringReader(score), keyListener);
+      parseKeys[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(regex);
+    Arrays.sort(parse);
+    Arrays.sort(parseKeys);
+    System.out.println("1M notes: split+regex median " + regex[1] / 1000000 + " ms, parse median "
+        + parse[1] / 1000000 + " ms, parseKeys median " + parseKeys[1] / 1000000 + " ms ("
+        + sum[0] + ")");
+  }
+}
@@ -0,0 +1,65 @@
+package com.chengtao.pianoview.audio;
+
+/**
+ * 音频引擎,负责加载和播放钢琴键的音频
+ * <p>
+ * 钢琴键通过下标区分,A0为0,C8为87。
+ */
+public interface AudioEngine {
+  /**
+   * 设置音频加载完成接口
+   *
+   * @param listener 加载完成接口
+   */
+  void setOnLoadCompleteListener(OnLoadCompleteListener listener);
+
+  /**
+   * 加载钢琴键的音频,加载完成后回调{@link OnLoadCompleteListener}<br>
+   * 钢琴键已经加载过或正在加载时替换之前的音频,之前的音频需要释放
+   *
+   * @param keyIndex 钢琴键下标
+   * @param resId 音频资源ID
+   * @throws Exception 异常
+   */
+  void load(int keyIndex, int resId) throws Exception;
+
+  /**
+   * 卸载钢琴键的音频,释放内存,之后需要重新加载才能播放
+   *
+   * @param keyIndex 钢琴键下标
+   */
+  void unload(int keyIndex);
+
+  /**
+   * 播放钢琴键的音频
+   *
+   * @param keyIndex 钢琴键下标
+   * @param volume 音量,[0,1]
+   */
+  void play(int keyIndex, float volume);
+
+  /**
+   * 预热,防止第一次播放时的延时
+   *
+   * @param keyIndex 已加载的钢琴键下标
+   */
+  void warmUp(int keyIndex);
+
+  /**
+   * 释放引擎
+   */
+  void release();
+
+  /**
+   * 音频加载完成接口
+   */
+  interface OnLoadCompleteListener {
+    /**
+     * 加载完成
+     *
+     * @param keyIndex 钢琴键下标
+     * @param success 是否加载成功
+     */
+    void onLoadComplete(int keyIndex, boolean success);
+  }
+}
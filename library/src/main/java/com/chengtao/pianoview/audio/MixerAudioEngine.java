@@ -0,0 +1,201 @@
+package com.chengtao.pianoview.audio;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+import com.chengtao.pianoview.entity.Piano;
+
+/**
+ * 基于软件混音的低延时音频引擎
+ * <p>
+ * 所有钢琴键的音频解码为PCM后常驻内存,由{@link PcmMixer}混音后写入一个低延时模式的
+ * AudioTrack,不受SoundPool的maxStream限制。需要API 16。
+ */
+public class MixerAudioEngine implements AudioEngine {
+  private static final String TAG = "MixerAudioEngine";
+  //默认最大声部数目
+  private static final int DEFAULT_MAX_VOICES = 32;
+  //输出声道数
+  private static final int CHANNELS = 2;
+  //默认采样率和每个缓冲区的帧数
+  private static final int DEFAULT_SAMPLE_RATE = 44100;
+  private static final int DEFAULT_FRAMES_PER_BUFFER = 256;
+  //一个缓冲区内最多排队的按键事件
+  private static final int NOTE_EVENT_CAPACITY = 256;
+  //上下文
+  private Context context;
+  //钢琴键下标 -> PCM数据
+  private final short[][] samples = new short[Piano.PIANO_NUMS][];
+  private final PcmMixer mixer;
+  //主线程到混音线程的按键事件
+  private final NoteEventQueue noteEvents = new NoteEventQueue(NOTE_EVENT_CAPACITY);
+  private final int sampleRate;
+  private final int framesPerBuffer;
+  private AudioTrack track;
+  private Thread renderThread;
+  private volatile boolean isRunning = false;
+  //队列已满而丢弃的按键事件数目,只在调用play()的线程写入
+  private volatile int droppedNotes = 0;
+  private OnLoadCompleteListener loadCompleteListener;
+
+  public MixerAudioEngine(Context context) {
+    this(context, DEFAULT_MAX_VOICES);
+  }
+
+  public MixerAudioEngine(Context context, int maxVoices) {
+    this.context = context;
+    AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+    sampleRate = getIntProperty(audioManager, AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE,
+        DEFAULT_SAMPLE_RATE);
+    framesPerBuffer = getIntProperty(audioManager, AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER,
+        DEFAULT_FRAMES_PER_BUFFER);
+    mixer = new PcmMixer(maxVoices, CHANNELS, framesPerBuffer);
+  }
+
+  @Override public void setOnLoadCompleteListener(OnLoadCompleteListener listener) {
+    this.loadCompleteListener = listener;
+  }
+
+  @Override public void load(int keyIndex, int resId) throws Exception {
+    if (context == null) {
+      throw new Exception("engine released");
+    }
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+      throw new Exception("MixerAudioEngine requires API 16");
+    }
+    boolean success = true;
+    try {
+      samples[keyIndex] = PcmDecoder.decode(context, resId, CHANNELS, sampleRate);
+    } catch (Exception e) {
+      Log.e(TAG, "decode failed:" + e.getMessage());
+      success = false;
+    }
+    if (loadCompleteListener != null) {
+      loadCompleteListener.onLoadComplete(keyIndex, success);
+    }
+  }
+
+  /**
+   * 卸载钢琴键的音频,正在播放的声音会继续播放完
+   *
+   * @param keyIndex 钢琴键下标
+   */
+  @Override public void unload(int keyIndex) {
+    samples[keyIndex] = null;
+  }
+
+  /**
+   * 播放钢琴键的音频,只能在同一个线程(主线程)调用,事件交给混音线程处理
+   * <p>
+   * 一个混音缓冲区内最多排队{@value #NOTE_EVENT_CAPACITY}个按键事件,超出时丢弃该音符,
+   * 不阻塞调用线程,丢弃的数目见{@link #getDroppedNoteCount()}
+   *
+   * @param keyIndex 钢琴键下标
+   * @param volume 音量,[0,1]
+   */
+  @Override public void play(int keyIndex, float volume) {
+    if (isRunning && samples[keyIndex] != null && !noteEvents.offer(keyIndex, volume)) {
+      droppedNotes++;
+    }
+  }
+
+  /**
+   * 获取因为按键事件队列已满而丢弃的音符数目
+   *
+   * @return 丢弃的音符数目
+   */
+  public int getDroppedNoteCount() {
+    return droppedNotes;
+  }
+
+  @Override public synchronized void warmUp(int keyIndex) {
+    if (isRunning || context == null) {
+      return;
+    }
+    track = createAudioTrack();
+    track.play();
+    isRunning = true;
+    renderThread = new Thread(this::render, TAG);
+    renderThread.start();
+  }
+
+  @Override public synchronized void release() {
+    isRunning = false;
+    if (renderThread != null) {
+      try {
+        renderThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      renderThread = null;
+    }
+    if (track != null) {
+      track.stop();
+      track.release();
+      track = null;
+    }
+    mixer.allNotesOff();
+    context = null;
+  }
+
+  /**
+   * 混音线程,持续混音并写入AudioTrack
+   */
+  private void render() {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+    short[] buffer = new short[framesPerBuffer * CHANNELS];
+    while (isRunning) {
+      long event;
+      while ((event = noteEvents.poll()) != NoteEventQueue.EMPTY) {
+        mixer.noteOn(samples[NoteEventQueue.getKeyIndex(event)], NoteEventQueue.getGain(event));
+      }
+      mixer.mix(buffer, framesPerBuffer);
+      track.write(buffer, 0, buffer.length);
+    }
+  }
+
+  private AudioTrack createAudioTrack() {
+    int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_STEREO,
+        AudioFormat.ENCODING_PCM_16BIT);
+    //两个混音缓冲区,保证低延时
+    int bufferSize = Math.max(minBufferSize, framesPerBuffer * CHANNELS * 2 * 2);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      return new AudioTrack.Builder().setAudioAttributes(
+          new AudioAttributes.Builder().setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+              .setUsage(AudioAttributes.USAGE_MEDIA)
+              .build())
+          .setAudioFormat(new AudioFormat.Builder().setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+              .setSampleRate(sampleRate)
+              .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+              .build())
+          .setBufferSizeInBytes(bufferSize)
+          .setTransferMode(AudioTrack.MODE_STREAM)
+          .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+          .build();
+    }
+    return new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, AudioFormat.CHANNEL_OUT_STEREO,
+        AudioFormat.ENCODING_PCM_16BIT, bufferSize, AudioTrack.MODE_STREAM);
+  }
+
+  /**
+   * 获取AudioManager的整数属性(API 17)
+   */
+  private static int getIntProperty(AudioManager audioManager, String key, int defaultValue) {
+    if (audioManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+      try {
+        String value = audioManager.getProperty(key);
+        if (value != null) {
+          return Integer.parseInt(value);
+        }
+      } catch (NumberFormatException e) {
+        Log.e(TAG, "invalid property " + key + ":" + e.getMessage());
+      }
+    }
+    return defaultValue;
+  }
+}
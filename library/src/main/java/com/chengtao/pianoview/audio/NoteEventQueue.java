@@ -0,0 +1,79 @@
+package com.chengtao.pianoview.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单生产者单消费者的无锁音符事件环形队列
+ * <p>
+ * 生产者(主线程)写入按键事件,消费者(音频线程)在每个缓冲区开始时取出,
+ * 两端都不加锁,也不分配对象。每个事件包含钢琴键下标和增益,打包为一个long。
+ */
+public final class NoteEventQueue {
+  //队列为空
+  public static final long EMPTY = -1;
+  private final long[] events;
+  private final int mask;
+  //消费者读取位置
+  private final AtomicLong head = new AtomicLong();
+  //生产者写入位置
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * 构造函数
+   *
+   * @param capacity 容量,会向上取整为2的幂
+   */
+  public NoteEventQueue(int capacity) {
+    int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+    events = new long[size];
+    mask = size - 1;
+  }
+
+  /**
+   * 写入事件,只能在生产者线程调用
+   *
+   * @param keyIndex 钢琴键下标
+   * @param gain 增益
+   * @return 队列已满时返回false
+   */
+  public boolean offer(int keyIndex, float gain) {
+    long t = tail.get();
+    if (t - head.get() >= events.length) {
+      return false;
+    }
+    events[(int) (t & mask)] =
+        ((long) keyIndex << 32) | (Float.floatToIntBits(gain) & 0xFFFFFFFFL);
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  /**
+   * 取出事件,只能在消费者线程调用
+   *
+   * @return 事件,队列为空时返回{@link #EMPTY}
+   */
+  public long poll() {
+    long h = head.get();
+    if (h >= tail.get()) {
+      return EMPTY;
+    }
+    long event = events[(int) (h & mask)];
+    head.lazySet(h + 1);
+    return event;
+  }
+
+  /**
+   * 清空队列,只能在消费者线程调用
+   */
+  public void clear() {
+    head.lazySet(tail.get());
+  }
+
+  public static int getKeyIndex(long event) {
+    return (int) (event >>> 32);
+  }
+
+  public static float getGain(long event) {
+    return Float.intBitsToFloat((int) event);
+  }
+}
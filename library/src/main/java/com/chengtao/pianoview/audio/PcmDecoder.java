@@ -0,0 +1,118 @@
+package com.chengtao.pianoview.audio;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * 将音频资源解码为16位PCM数据,需要API 16
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN) class PcmDecoder {
+  private static final long TIMEOUT_US = 10000;
+
+  private PcmDecoder() {
+  }
+
+  /**
+   * 解码音频资源
+   *
+   * @param context 上下文
+   * @param resId 音频资源ID
+   * @param outChannels 输出声道数
+   * @param outSampleRate 输出采样率
+   * @return 交错排列的16位PCM数据
+   * @throws Exception 异常
+   */
+  static short[] decode(Context context, int resId, int outChannels, int outSampleRate)
+      throws Exception {
+    MediaExtractor extractor = new MediaExtractor();
+    MediaCodec codec = null;
+    AssetFileDescriptor fd = context.getResources().openRawResourceFd(resId);
+    try {
+      extractor.setDataSource(fd.getFileDescriptor(), fd.getStartOffset(), fd.getLength());
+      MediaFormat format = null;
+      for (int i = 0; i < extractor.getTrackCount(); i++) {
+        MediaFormat trackFormat = extractor.getTrackFormat(i);
+        String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+        if (mime != null && mime.startsWith("audio/")) {
+          extractor.selectTrack(i);
+          format = trackFormat;
+          break;
+        }
+      }
+      if (format == null) {
+        throw new Exception("no audio track");
+      }
+      int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+      int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+      codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+      codec.configure(format, null, null, 0);
+      codec.start();
+      ByteBuffer[] inputBuffers = codec.getInputBuffers();
+      ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+      MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+      short[] pcm = new short[sampleRate * channels];
+      int length = 0;
+      boolean inputDone = false;
+      boolean outputDone = false;
+      while (!outputDone) {
+        if (!inputDone) {
+          int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+          if (inputIndex >= 0) {
+            int size = extractor.readSampleData(inputBuffers[inputIndex], 0);
+            if (size < 0) {
+              codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+              inputDone = true;
+            } else {
+              codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+              extractor.advance();
+            }
+          }
+        }
+        int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+        if (outputIndex >= 0) {
+          ByteBuffer buffer = outputBuffers[outputIndex];
+          buffer.position(info.offset);
+          buffer.limit(info.offset + info.size);
+          ShortBuffer shorts = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+          int count = shorts.remaining();
+          if (length + count > pcm.length) {
+            short[] grown = new short[Math.max(pcm.length * 2, length + count)];
+            System.arraycopy(pcm, 0, grown, 0, length);
+            pcm = grown;
+          }
+          shorts.get(pcm, length, count);
+          length += count;
+          buffer.clear();
+          codec.releaseOutputBuffer(outputIndex, false);
+          if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            outputDone = true;
+          }
+        } else if (outputIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+          outputBuffers = codec.getOutputBuffers();
+        } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+          MediaFormat outputFormat = codec.getOutputFormat();
+          sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+          channels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        }
+      }
+      short[] decoded = new short[length];
+      System.arraycopy(pcm, 0, decoded, 0, length);
+      return PcmMixer.convert(decoded, channels, sampleRate, outChannels, outSampleRate);
+    } finally {
+      if (codec != null) {
+        codec.stop();
+        codec.release();
+      }
+      extractor.release();
+      fd.close();
+    }
+  }
+}
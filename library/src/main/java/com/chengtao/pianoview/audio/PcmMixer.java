@@ -0,0 +1,190 @@
+package com.chengtao.pianoview.audio;
+
+import java.util.Arrays;
+
+/**
+ * 软件混音器,将多个16位PCM音频混合到一个输出缓冲区中
+ * <p>
+ * 不依赖Android,音频数据为交错排列的16位PCM,声道数与输出相同。
+ * 声部用满后会替换最早开始的声部。
+ */
+public class PcmMixer {
+  //增益的定点数精度(Q15)
+  private static final int GAIN_SHIFT = 15;
+  private static final int UNITY_GAIN = 1 << GAIN_SHIFT;
+  //声道数
+  private final int channels;
+  //每个声部正在播放的音频、位置、增益以及开始的顺序
+  private final short[][] voiceSamples;
+  private final int[] voicePositions;
+  private final int[] voiceGains;
+  private final long[] voiceOrders;
+  //混音累加缓冲区
+  private int[] accumulator;
+  private long noteCount = 0;
+
+  /**
+   * 构造函数
+   *
+   * @param maxVoices 最大声部数目
+   * @param channels 声道数
+   * @param framesPerBuffer 每个缓冲区的帧数,用于预先分配累加缓冲区
+   */
+  public PcmMixer(int maxVoices, int channels, int framesPerBuffer) {
+    this.channels = channels;
+    voiceSamples = new short[maxVoices][];
+    voicePositions = new int[maxVoices];
+    voiceGains = new int[maxVoices];
+    voiceOrders = new long[maxVoices];
+    accumulator = new int[framesPerBuffer * channels];
+  }
+
+  /**
+   * 开始播放一个音频
+   *
+   * @param sample 音频数据
+   * @param gain 增益,[0,1]
+   */
+  public synchronized void noteOn(short[] sample, float gain) {
+    if (sample == null || sample.length == 0 || gain <= 0) {
+      return;
+    }
+    int voice = 0;
+    for (int i = 0; i < voiceSamples.length; i++) {
+      if (voiceSamples[i] == null) {
+        voice = i;
+        break;
+      }
+      if (voiceOrders[i] < voiceOrders[voice]) {
+        voice = i;
+      }
+    }
+    voiceSamples[voice] = sample;
+    voicePositions[voice] = 0;
+    voiceGains[voice] = (int) (Math.min(gain, 1f) * UNITY_GAIN);
+    voiceOrders[voice] = noteCount++;
+  }
+
+  /**
+   * 停止所有声部
+   */
+  public synchronized void allNotesOff() {
+    for (int i = 0; i < voiceSamples.length; i++) {
+      voiceSamples[i] = null;
+    }
+  }
+
+  /**
+   * 获取正在播放的声部数目
+   *
+   * @return 声部数目
+   */
+  public synchronized int getActiveVoiceCount() {
+    int count = 0;
+    for (short[] sample : voiceSamples) {
+      if (sample != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * 混音,输出frames帧数据
+   *
+   * @param out 输出缓冲区,长度至少为frames * 声道数
+   * @param frames 帧数
+   */
+  public synchronized void mix(short[] out, int frames) {
+    int length = frames * channels;
+    if (accumulator.length < length) {
+      accumulator = new int[length];
+    }
+    int[] acc = accumulator;
+    for (int i = 0; i < length; i++) {
+      acc[i] = 0;
+    }
+    for (int voice = 0; voice < voiceSamples.length; voice++) {
+      short[] sample = voiceSamples[voice];
+      if (sample == null) {
+        continue;
+      }
+      int position = voicePositions[voice];
+      int gain = voiceGains[voice];
+      int count = Math.min(length, sample.length - position);
+      if (gain == UNITY_GAIN) {
+        for (int i = 0; i < count; i++) {
+          acc[i] += sample[position + i];
+        }
+      } else {
+        for (int i = 0; i < count; i++) {
+          acc[i] += (sample[position + i] * gain) >> GAIN_SHIFT;
+        }
+      }
+      position += count;
+      if (position >= sample.length) {
+        voiceSamples[voice] = null;
+      } else {
+        voicePositions[voice] = position;
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      int value = acc[i];
+      if (value > Short.MAX_VALUE) {
+        value = Short.MAX_VALUE;
+      } else if (value < Short.MIN_VALUE) {
+        value = Short.MIN_VALUE;
+      }
+      out[i] = (short) value;
+    }
+  }
+
+  /**
+   * 将PCM数据转换为指定的声道数和采样率(线性插值)
+   *
+   * @param pcm 交错排列的16位PCM数据
+   * @param channels 原声道数
+   * @param sampleRate 原采样率
+   * @param outChannels 目标声道数
+   * @param outSampleRate 目标采样率
+   * @return 转换后的PCM数据
+   */
+  public static short[] convert(short[] pcm, int channels, int sampleRate, int outChannels,
+      int outSampleRate) {
+    int frames = pcm.length / channels;
+    if (channels == outChannels && sampleRate == outSampleRate) {
+      return frames * channels == pcm.length ? pcm : Arrays.copyOf(pcm, frames * channels);
+    }
+    int outFrames = (int) ((long) frames * outSampleRate / sampleRate);
+    short[] out = new short[outFrames * outChannels];
+    for (int frame = 0; frame < outFrames; frame++) {
+      //原数据中的位置,16位定点小数
+      long source = ((long) frame * sampleRate << 16) / outSampleRate;
+      int index = (int) (source >> 16);
+      int fraction = (int) (source & 0xFFFF);
+      int next = Math.min(index + 1, frames - 1);
+      for (int c = 0; c < outChannels; c++) {
+        int sourceChannel = Math.min(c, channels - 1);
+        int a = channelValue(pcm, index, channels, sourceChannel, outChannels);
+        int b = channelValue(pcm, next, channels, sourceChannel, outChannels);
+        out[frame * outChannels + c] = (short) (a + (((b - a) * fraction) >> 16));
+      }
+    }
+    return out;
+  }
+
+  /**
+   * 获取某一帧某一声道的值,多声道转单声道时取平均值
+   */
+  private static int channelValue(short[] pcm, int frame, int channels, int channel,
+      int outChannels) {
+    if (outChannels == 1 && channels > 1) {
+      int sum = 0;
+      for (int c = 0; c < channels; c++) {
+        sum += pcm[frame * channels + c];
+      }
+      return sum / channels;
+    }
+    return pcm[frame * channels + channel];
+  }
+}
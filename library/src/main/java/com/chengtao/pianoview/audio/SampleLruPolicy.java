@@ -0,0 +1,189 @@
+package com.chengtao.pianoview.audio;
+
+import java.util.Arrays;
+
+/**
+ * 音频常驻策略,按最近最少使用(LRU)淘汰钢琴键的音频
+ * <p>
+ * 可见范围内的钢琴键以及最近播放过的若干个钢琴键不会被淘汰,
+ * 因此当它们都常驻时,常驻数目可能暂时超过容量。
+ * 只负责记录,不涉及Android,加载和卸载由调用方完成。
+ */
+public class SampleLruPolicy {
+  //没有钢琴键
+  public static final int NO_KEY = -1;
+  //常驻的最大数目
+  private final int capacity;
+  //不会被淘汰的最近播放的钢琴键数目
+  private final int recentPinned;
+  //双向链表,head为最近使用,tail为最久未使用
+  private final int[] prev;
+  private final int[] next;
+  private final boolean[] resident;
+  private int head = NO_KEY;
+  private int tail = NO_KEY;
+  private int size = 0;
+  //可见范围
+  private int firstPinnedKey = NO_KEY;
+  private int lastPinnedKey = NO_KEY;
+  //统计
+  private long hitCount = 0;
+  private long missCount = 0;
+  private long evictionCount = 0;
+
+  /**
+   * @param keyCount 钢琴键数目
+   * @param capacity 常驻的最大数目
+   * @param recentPinned 不会被淘汰的最近播放的钢琴键数目
+   */
+  public SampleLruPolicy(int keyCount, int capacity, int recentPinned) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.recentPinned = Math.max(0, recentPinned);
+    prev = new int[keyCount];
+    next = new int[keyCount];
+    resident = new boolean[keyCount];
+    Arrays.fill(prev, NO_KEY);
+    Arrays.fill(next, NO_KEY);
+  }
+
+  /**
+   * 访问钢琴键(例如播放),常驻则移到最近使用的位置
+   *
+   * @param keyIndex 钢琴键下标
+   * @return 是否命中
+   */
+  public synchronized boolean touch(int keyIndex) {
+    if (resident[keyIndex]) {
+      hitCount++;
+      unlink(keyIndex);
+      linkFirst(keyIndex);
+      return true;
+    }
+    missCount++;
+    return false;
+  }
+
+  /**
+   * 添加常驻的钢琴键,之后需要调用{@link #evict()}直到返回{@link #NO_KEY}
+   *
+   * @param keyIndex 钢琴键下标
+   * @return 是否是新添加的
+   */
+  public synchronized boolean add(int keyIndex) {
+    if (resident[keyIndex]) {
+      unlink(keyIndex);
+      linkFirst(keyIndex);
+      return false;
+    }
+    resident[keyIndex] = true;
+    size++;
+    linkFirst(keyIndex);
+    return true;
+  }
+
+  /**
+   * 移除钢琴键(例如加载失败),不计入淘汰数目
+   *
+   * @param keyIndex 钢琴键下标
+   */
+  public synchronized void remove(int keyIndex) {
+    if (resident[keyIndex]) {
+      unlink(keyIndex);
+      resident[keyIndex] = false;
+      size--;
+    }
+  }
+
+  /**
+   * 超出容量时淘汰一个钢琴键,跳过可见范围内以及最近播放的钢琴键
+   *
+   * @return 被淘汰的钢琴键下标,不需要淘汰或者都不能淘汰则返回{@link #NO_KEY}
+   */
+  public synchronized int evict() {
+    if (size <= capacity) {
+      return NO_KEY;
+    }
+    int rank = size - 1;
+    for (int key = tail; key != NO_KEY && rank >= recentPinned; key = prev[key], rank--) {
+      if (!isPinned(key)) {
+        unlink(key);
+        resident[key] = false;
+        size--;
+        evictionCount++;
+        return key;
+      }
+    }
+    return NO_KEY;
+  }
+
+  /**
+   * 设置可见范围,范围内的钢琴键不会被淘汰
+   *
+   * @param firstKey 第一个钢琴键下标
+   * @param lastKey 最后一个钢琴键下标
+   */
+  public synchronized void setPinnedRange(int firstKey, int lastKey) {
+    firstPinnedKey = firstKey;
+    lastPinnedKey = lastKey;
+  }
+
+  public synchronized boolean isPinned(int keyIndex) {
+    return keyIndex >= firstPinnedKey && keyIndex <= lastPinnedKey;
+  }
+
+  public synchronized boolean isResident(int keyIndex) {
+    return resident[keyIndex];
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  private void linkFirst(int key) {
+    prev[key] = NO_KEY;
+    next[key] = head;
+    if (head != NO_KEY) {
+      prev[head] = key;
+    }
+    head = key;
+    if (tail == NO_KEY) {
+      tail = key;
+    }
+  }
+
+  private void unlink(int key) {
+    int p = prev[key];
+    int n = next[key];
+    if (p != NO_KEY) {
+      next[p] = n;
+    } else {
+      head = n;
+    }
+    if (n != NO_KEY) {
+      prev[n] = p;
+    } else {
+      tail = p;
+    }
+    prev[key] = NO_KEY;
+    next[key] = NO_KEY;
+  }
+}
@@ -0,0 +1,97 @@
+package com.chengtao.pianoview.audio;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.os.Build;
+import android.util.SparseIntArray;
+import com.chengtao.pianoview.entity.Piano;
+
+/**
+ * 基于SoundPool的音频引擎
+ */
+public class SoundPoolAudioEngine implements AudioEngine {
+  //音频池，用于播放音频
+  private SoundPool pool;
+  //上下文
+  private Context context;
+  //钢琴键下标 -> 音频ID
+  private final int[] soundIds = new int[Piano.PIANO_NUMS];
+  //音频ID -> 钢琴键下标
+  private final SparseIntArray soundKeys = new SparseIntArray();
+  private OnLoadCompleteListener loadCompleteListener;
+
+  public SoundPoolAudioEngine(Context context, int maxStream) {
+    this.context = context;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      pool = new SoundPool.Builder().setMaxStreams(maxStream)
+          .setAudioAttributes(
+              new AudioAttributes.Builder().setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                  .setUsage(AudioAttributes.USAGE_MEDIA)
+                  .build())
+          .build();
+    } else {
+      pool = new SoundPool(maxStream, AudioManager.STREAM_MUSIC, 1);
+    }
+    pool.setOnLoadCompleteListener((soundPool, sampleId, status) -> {
+      int keyIndex;
+      synchronized (soundKeys) {
+        keyIndex = soundKeys.get(sampleId, -1);
+      }
+      if (keyIndex >= 0 && loadCompleteListener != null) {
+        loadCompleteListener.onLoadComplete(keyIndex, status == 0);
+      }
+    });
+  }
+
+  @Override public void setOnLoadCompleteListener(OnLoadCompleteListener listener) {
+    this.loadCompleteListener = listener;
+  }
+
+  @Override public void load(int keyIndex, int resId) throws Exception {
+    if (pool == null) {
+      throw new Exception("请初始化SoundPool");
+    }
+    //加载完成的回调可能先于put执行,所以需要加锁
+    synchronized (soundKeys) {
+      //淘汰后重新加载时上一次加载可能还未完成,先卸载之前的音频,防止泄漏
+      unload(keyIndex);
+      int soundId = pool.load(context, resId, 1);
+      soundIds[keyIndex] = soundId;
+      soundKeys.put(soundId, keyIndex);
+    }
+  }
+
+  @Override public void unload(int keyIndex) {
+    synchronized (soundKeys) {
+      int soundId = soundIds[keyIndex];
+      if (pool != null && soundId != 0) {
+        pool.unload(soundId);
+        soundKeys.delete(soundId);
+      }
+      soundIds[keyIndex] = 0;
+    }
+  }
+
+  @Override public void play(int keyIndex, float volume) {
+    if (pool != null && soundIds[keyIndex] != 0) {
+      pool.play(soundIds[keyIndex], volume, volume, 1, 0, 1f);
+    }
+  }
+
+  @Override public void warmUp(int keyIndex) {
+    //静音播放一个音频,防止延时
+    if (pool != null && soundIds[keyIndex] != 0) {
+      pool.play(soundIds[keyIndex], 0, 0, 1, -1, 2f);
+    }
+  }
+
+  @Override public void release() {
+    context = null;
+    if (pool != null) {
+      pool.release();
+      pool = null;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.chengtao.pianoview.entity;
+
+import android.graphics.RectF;
+
+/**
+ * 白键音名的布局,在测量之后计算一次,绘制时直接使用
+ */
+public class KeyLabelLayout {
+  //标识音名的正方形
+  private final RectF square = new RectF();
+  //正方形背景颜色
+  private int color;
+  //音名的字体大小
+  private float textSize;
+  //音名的x坐标(居中)
+  private float textX;
+  //音名的基线
+  private float baseline;
+
+  public RectF getSquare() {
+    return square;
+  }
+
+  public int getColor() {
+    return color;
+  }
+
+  public void setColor(int color) {
+    this.color = color;
+  }
+
+  public float getTextSize() {
+    return textSize;
+  }
+
+  public void setTextSize(float textSize) {
+    this.textSize = textSize;
+  }
+
+  public float getTextX() {
+    return textX;
+  }
+
+  public void setTextX(float textX) {
+    this.textX = textX;
+  }
+
+  public float getBaseline() {
+    return baseline;
+  }
+
+  public void setBaseline(float baseline) {
+    this.baseline = baseline;
+  }
+}
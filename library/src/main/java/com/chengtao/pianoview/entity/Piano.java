@@ -5,11 +5,9 @@ package com.chengtao.pianoview.entity;
  */
 
 import android.content.Context;
-import android.graphics.Rect;
+import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.ScaleDrawable;
 import android.support.v4.content.ContextCompat;
-import android.view.Gravity;
 import com.chengtao.pianoview.R;
 import com.google.gson.annotations.SerializedName;
 import java.util.ArrayList;
@@ -23,16 +21,55 @@ public class Piano {
   //黑白键的组数
   private final static int BLACK_PIANO_KEY_GROUPS = 8;
   private final static int WHITE_PIANO_KEY_GROUPS = 9;
+  //按下标排列的声音资源ID,与res/raw中的文件一一对应
+  private final static int[] VOICE_IDS = {
+      R.raw.w00, R.raw.b00, R.raw.w01,
+      R.raw.w10, R.raw.b10, R.raw.w11, R.raw.b11, R.raw.w12, R.raw.w13,
+      R.raw.b12, R.raw.w14, R.raw.b13, R.raw.w15, R.raw.b14, R.raw.w16,
+      R.raw.w20, R.raw.b20, R.raw.w21, R.raw.b21, R.raw.w22, R.raw.w23,
+      R.raw.b22, R.raw.w24, R.raw.b23, R.raw.w25, R.raw.b24, R.raw.w26,
+      R.raw.w30, R.raw.b30, R.raw.w31, R.raw.b31, R.raw.w32, R.raw.w33,
+      R.raw.b32, R.raw.w34, R.raw.b33, R.raw.w35, R.raw.b34, R.raw.w36,
+      R.raw.w40, R.raw.b40, R.raw.w41, R.raw.b41, R.raw.w42, R.raw.w43,
+      R.raw.b42, R.raw.w44, R.raw.b43, R.raw.w45, R.raw.b44, R.raw.w46,
+      R.raw.w50, R.raw.b50, R.raw.w51, R.raw.b51, R.raw.w52, R.raw.w53,
+      R.raw.b52, R.raw.w54, R.raw.b53, R.raw.w55, R.raw.b54, R.raw.w56,
+      R.raw.w60, R.raw.b60, R.raw.w61, R.raw.b61, R.raw.w62, R.raw.w63,
+      R.raw.b62, R.raw.w64, R.raw.b63, R.raw.w65, R.raw.b64, R.raw.w66,
+      R.raw.w70, R.raw.b70, R.raw.w71, R.raw.b71, R.raw.w72, R.raw.w73,
+      R.raw.b72, R.raw.w74, R.raw.b73, R.raw.w75, R.raw.b74, R.raw.w76,
+      R.raw.w80
+  };
+  //一个八度内(从C开始)白键和黑键的唱名
+  private final static PianoVoice[] WHITE_VOICES = {
+      PianoVoice.DO, PianoVoice.RE, PianoVoice.MI, PianoVoice.FA, PianoVoice.SO, PianoVoice.LA,
+      PianoVoice.SI
+  };
+  private final static PianoVoice[] BLACK_VOICES = {
+      PianoVoice.DO, PianoVoice.RE, PianoVoice.FA, PianoVoice.SO, PianoVoice.LA
+  };
+  //一个八度内(从C开始)白键的音名
+  private final static String[] LETTER_NAMES = { "C", "D", "E", "F", "G", "A", "B" };
   //黑白键集合
   private ArrayList<PianoKey[]> blackPianoKeys = new ArrayList<>(BLACK_PIANO_KEY_GROUPS);
   private ArrayList<PianoKey[]> whitePianoKeys = new ArrayList<>(WHITE_PIANO_KEY_GROUPS);
+  //按下标排列的所有钢琴键,范围之外为null
+  private PianoKey[] pianoKeys = new PianoKey[PIANO_NUMS];
+  //钢琴键范围,包含两端,两端都是白键
+  private final int startKey;
+  private final int endKey;
+  //钢琴键的列索引和位置,用于命中检测和绘制
+  private PianoKeyIndex keyIndex;
+  //黑白键未按下和按下的图案,所有钢琴键共用,绘制前设置位置
+  private Drawable blackKeyDrawable;
+  private Drawable blackKeyPressedDrawable;
+  private Drawable whiteKeyDrawable;
+  private Drawable whiteKeyPressedDrawable;
   //黑白键高度和宽度
   private int blackKeyWidth;
   private int blackKeyHeight;
   private int whiteKeyWidth;
   private int whiteKeyHeight;
-  //钢琴总宽度
-  private int pianoWith = 0;
   /**
    * 承载钢琴的布局的高度,用于初始化黑白键的高度和宽度
    */
@@ -42,164 +79,136 @@ public class Piano {
 
   //构造函数
   public Piano(Context context, float scale) {
+    this(context, scale, 0, PIANO_NUMS - 1);
+  }
+
+  /**
+   * 只包含一段连续钢琴键的钢琴,例如61键为C2到C7,钢琴键对象和声音只为范围内的钢琴键创建和加载
+   *
+   * @param context 上下文
+   * @param scale 缩放比例
+   * @param startKey 第一个钢琴键下标,黑键时向下扩展到白键
+   * @param endKey 最后一个钢琴键下标,黑键时向上扩展到白键
+   */
+  public Piano(Context context, float scale, int startKey, int endKey) {
     this.context = context;
     this.scale = scale;
+    this.startKey = PianoKeyIndex.getRangeStart(startKey);
+    this.endKey = PianoKeyIndex.getRangeEnd(endKey);
+    if (this.endKey < this.startKey) {
+      throw new IllegalArgumentException("key range wrong:" + startKey + "-" + endKey);
+    }
     initPiano();
   }
 
   private void initPiano() {
     if (scale > 0) {
-      //获取黑键和白键的高度和宽度
-      Drawable blackDrawable = ContextCompat.getDrawable(context, R.drawable.black_piano_key);
-      Drawable whiteDrawable = ContextCompat.getDrawable(context, R.drawable.white_piano_key);
-      blackKeyWidth = blackDrawable.getIntrinsicWidth();
-      blackKeyHeight = (int) ((float) blackDrawable.getIntrinsicHeight() * scale);
-      whiteKeyWidth = whiteDrawable.getIntrinsicWidth();
-      whiteKeyHeight = (int) ((float) whiteDrawable.getIntrinsicHeight() * scale);
+      //获取黑键和白键的图案、高度和宽度
+      blackKeyDrawable = ContextCompat.getDrawable(context, R.drawable.black_up);
+      blackKeyPressedDrawable = ContextCompat.getDrawable(context, R.drawable.black_down);
+      whiteKeyDrawable = ContextCompat.getDrawable(context, R.drawable.white_up);
+      whiteKeyPressedDrawable = ContextCompat.getDrawable(context, R.drawable.white_down);
+      measureKeys();
+      keyIndex = new PianoKeyIndex(startKey, endKey, whiteKeyWidth, whiteKeyHeight,
+          blackKeyWidth, blackKeyHeight);
 
-      //初始化黑键
+      //初始化黑键,只保留范围内的钢琴键
       for (int i = 0; i < BLACK_PIANO_KEY_GROUPS; i++) {
-        PianoKey keys[];
-        switch (i) {
-          case 0:
-            keys = new PianoKey[1];
-            break;
-          default:
-            keys = new PianoKey[5];
-            break;
+        PianoKey[] keys = newPianoKeys(PianoKeyType.BLACK, i, i == 0 ? 1 : 5);
+        for (PianoKey key : keys) {
+          key.setVoice(i == 0 ? PianoVoice.LA : BLACK_VOICES[key.getPositionOfGroup()]);
         }
-        for (int j = 0; j < keys.length; j++) {
-          keys[j] = new PianoKey();
-          Rect areaOfKey[] = new Rect[1];
-          keys[j].setType(PianoKeyType.BLACK);
-          keys[j].setGroup(i);
-          keys[j].setPositionOfGroup(j);
-          keys[j].setVoiceId(getVoiceFromResources("b" + i + j));
-          keys[j].setPressed(false);
-          keys[j].setKeyDrawable(
-              new ScaleDrawable(ContextCompat.getDrawable(context, R.drawable.black_piano_key),
-                  Gravity.NO_GRAVITY, 1, scale).getDrawable());
-          setBlackKeyDrawableBounds(i, j, keys[j].getKeyDrawable());
-          areaOfKey[0] = keys[j].getKeyDrawable().getBounds();
-          keys[j].setAreaOfKey(areaOfKey);
-          if (i == 0) {
-            keys[j].setVoice(PianoVoice.LA);
-            break;
-          }
-          switch (j) {
-            case 0:
-              keys[j].setVoice(PianoVoice.DO);
-              break;
-            case 1:
-              keys[j].setVoice(PianoVoice.RE);
-              break;
-            case 2:
-              keys[j].setVoice(PianoVoice.FA);
-              break;
-            case 3:
-              keys[j].setVoice(PianoVoice.SO);
-              break;
-            case 4:
-              keys[j].setVoice(PianoVoice.LA);
-              break;
-          }
+        if (keys.length > 0) {
+          blackPianoKeys.add(keys);
         }
-        blackPianoKeys.add(keys);
       }
       //初始化白键
       for (int i = 0; i < WHITE_PIANO_KEY_GROUPS; i++) {
-        PianoKey[] mKeys;
-        switch (i) {
-          case 0:
-            mKeys = new PianoKey[2];
-            break;
-          case 8:
-            mKeys = new PianoKey[1];
-            break;
-          default:
-            mKeys = new PianoKey[7];
-            break;
+        PianoKey[] keys = newPianoKeys(PianoKeyType.WHITE, i, i == 0 ? 2 : i == 8 ? 1 : 7);
+        for (PianoKey key : keys) {
+          //第0组从A开始
+          int position = i == 0 ? key.getPositionOfGroup() + 5 : key.getPositionOfGroup();
+          key.setVoice(WHITE_VOICES[position]);
+          key.setLetterName(LETTER_NAMES[position] + i);
         }
-        for (int j = 0; j < mKeys.length; j++) {
-          mKeys[j] = new PianoKey();
-          //固定属性
-          mKeys[j].setType(PianoKeyType.WHITE);
-          mKeys[j].setGroup(i);
-          mKeys[j].setPositionOfGroup(j);
-          mKeys[j].setVoiceId(getVoiceFromResources("w" + i + j));
-          mKeys[j].setPressed(false);
-          mKeys[j].setKeyDrawable(
-              new ScaleDrawable(ContextCompat.getDrawable(context, R.drawable.white_piano_key),
-                  Gravity.NO_GRAVITY, 1, scale).getDrawable());
-          setWhiteKeyDrawableBounds(i, j, mKeys[j].getKeyDrawable());
-          pianoWith += whiteKeyWidth;
-          if (i == 0) {
-            switch (j) {
-              case 0:
-                mKeys[j].setAreaOfKey(getWhitePianoKeyArea(i, j, BlackKeyPosition.RIGHT));
-                mKeys[j].setVoice(PianoVoice.LA);
-                mKeys[j].setLetterName("A0");
-                break;
-              case 1:
-                mKeys[j].setAreaOfKey(getWhitePianoKeyArea(i, j, BlackKeyPosition.LEFT));
-                mKeys[j].setVoice(PianoVoice.SI);
-                mKeys[j].setLetterName("B0");
-                break;
-            }
-            continue;
-          }
-          if (i == 8) {
-            Rect areaOfKey[] = new Rect[1];
-            areaOfKey[0] = mKeys[j].getKeyDrawable().getBounds();
-            mKeys[j].setAreaOfKey(areaOfKey);
-            mKeys[j].setVoice(PianoVoice.DO);
-            mKeys[j].setLetterName("C8");
-            break;
-          }
-          //非固定属性
-          switch (j) {
-            case 0:
-              mKeys[j].setAreaOfKey(getWhitePianoKeyArea(i, j, BlackKeyPosition.RIGHT));
-              mKeys[j].setVoice(PianoVoice.DO);
-              mKeys[j].setLetterName("C" + i);
-              break;
-            case 1:
-              mKeys[j].setAreaOfKey(getWhitePianoKeyArea(i, j, BlackKeyPosition.LEFT_RIGHT));
-              mKeys[j].setVoice(PianoVoice.RE);
-              mKeys[j].setLetterName("D" + i);
-              break;
-            case 2:
-              mKeys[j].setAreaOfKey(getWhitePianoKeyArea(i, j, BlackKeyPosition.LEFT));
-              mKeys[j].setVoice(PianoVoice.MI);
-              mKeys[j].setLetterName("E" + i);
-              break;
-            case 3:
-              mKeys[j].setAreaOfKey(getWhitePianoKeyArea(i, j, BlackKeyPosition.RIGHT));
-              mKeys[j].setVoice(PianoVoice.FA);
-              mKeys[j].setLetterName("F" + i);
-              break;
-            case 4:
-              mKeys[j].setAreaOfKey(getWhitePianoKeyArea(i, j, BlackKeyPosition.LEFT_RIGHT));
-              mKeys[j].setVoice(PianoVoice.SO);
-              mKeys[j].setLetterName("G" + i);
-              break;
-            case 5:
-              mKeys[j].setAreaOfKey(getWhitePianoKeyArea(i, j, BlackKeyPosition.LEFT_RIGHT));
-              mKeys[j].setVoice(PianoVoice.LA);
-              mKeys[j].setLetterName("A" + i);
-              break;
-            case 6:
-              mKeys[j].setAreaOfKey(getWhitePianoKeyArea(i, j, BlackKeyPosition.LEFT));
-              mKeys[j].setVoice(PianoVoice.SI);
-              mKeys[j].setLetterName("B" + i);
-              break;
-          }
+        if (keys.length > 0) {
+          whitePianoKeys.add(keys);
         }
-        whitePianoKeys.add(mKeys);
       }
     }
   }
 
+  /**
+   * 根据缩放比例计算黑白键的高度和宽度
+   */
+  private void measureKeys() {
+    blackKeyWidth = blackKeyDrawable.getIntrinsicWidth();
+    blackKeyHeight = (int) ((float) blackKeyDrawable.getIntrinsicHeight() * scale);
+    whiteKeyWidth = whiteKeyDrawable.getIntrinsicWidth();
+    whiteKeyHeight = (int) ((float) whiteKeyDrawable.getIntrinsicHeight() * scale);
+  }
+
+  /**
+   * 缩放比例改变后重新计算钢琴键的位置<br>
+   * 钢琴键对象、图案和声音ID保持不变,已经加载的声音不需要重新加载
+   *
+   * @param scale 缩放比例
+   * @return 钢琴键的位置是否改变
+   */
+  public boolean relayout(float scale) {
+    if (scale <= 0 || (scale == this.scale && keyIndex != null)) {
+      return false;
+    }
+    this.scale = scale;
+    if (keyIndex == null) {
+      //创建时缩放比例无效,还没有钢琴键
+      initPiano();
+      return true;
+    }
+    measureKeys();
+    keyIndex.setKeySize(whiteKeyWidth, whiteKeyHeight, blackKeyWidth, blackKeyHeight);
+    return true;
+  }
+
+  /**
+   * 创建一组中在范围内的钢琴键
+   *
+   * @param type 钢琴键类型
+   * @param group 组数
+   * @param size 组内钢琴键数目
+   * @return 范围内的钢琴键,按组内位置排列
+   */
+  private PianoKey[] newPianoKeys(PianoKeyType type, int group, int size) {
+    int count = 0;
+    for (int j = 0; j < size; j++) {
+      if (keyIndex.isInRange(PianoKeyIndex.getKeyIndex(type, group, j))) {
+        count++;
+      }
+    }
+    PianoKey[] keys = new PianoKey[count];
+    count = 0;
+    for (int j = 0; j < size; j++) {
+      int index = PianoKeyIndex.getKeyIndex(type, group, j);
+      if (keyIndex.isInRange(index)) {
+        keys[count++] = newPianoKey(type, group, j, index);
+      }
+    }
+    return keys;
+  }
+
+  private PianoKey newPianoKey(PianoKeyType type, int group, int positionOfGroup, int index) {
+    PianoKey key = new PianoKey();
+    key.setType(type);
+    key.setGroup(group);
+    key.setPositionOfGroup(positionOfGroup);
+    key.setIndex(index);
+    key.setKeyIndex(keyIndex);
+    key.setVoiceId(VOICE_IDS[index]);
+    key.setPressed(false);
+    pianoKeys[index] = key;
+    return key;
+  }
+
   public enum PianoVoice {
     DO, RE, MI, FA, SO, LA, SI
   }
@@ -223,121 +232,89 @@ public class Piano {
     }
   }
 
-  private enum BlackKeyPosition {
-    LEFT, LEFT_RIGHT, RIGHT
+  public ArrayList<PianoKey[]> getWhitePianoKeys() {
+    return whitePianoKeys;
+  }
+
+  public ArrayList<PianoKey[]> getBlackPianoKeys() {
+    return blackPianoKeys;
   }
 
   /**
-   * 从资源文件中获取声音ID
+   * 查找坐标所在的钢琴键
    *
-   * @param voiceName 声音的文件名
-   * @return 声音ID
+   * @param x x坐标
+   * @param y y坐标
+   * @return 钢琴键,没有则返回null
    */
-  private int getVoiceFromResources(String voiceName) {
-    return context.getResources().getIdentifier(voiceName, "raw", context.getPackageName());
+  public PianoKey findPianoKey(int x, int y) {
+    if (keyIndex == null) {
+      return null;
+    }
+    int index = keyIndex.find(x, y);
+    return index == PianoKeyIndex.NO_KEY ? null : pianoKeys[index];
   }
 
   /**
-   * 设置白色键的点击区域
+   * 根据下标获取钢琴键
    *
-   * @param group 组数，从0开始
-   * @param positionOfGroup 本组数内的位置
-   * @param blackKeyPosition 黑键占白键的位置
-   * @return 矩形数组
+   * @param index 钢琴键下标,从0开始
+   * @return 钢琴键,不在范围内时返回null
    */
-  private Rect[] getWhitePianoKeyArea(int group, int positionOfGroup,
-      BlackKeyPosition blackKeyPosition) {
-    int offset = 0;
-    if (group == 0) {
-      offset = 5;
-    }
-    switch (blackKeyPosition) {
-      case LEFT:
-        Rect left[] = new Rect[2];
-        left[0] =
-            new Rect((7 * group - 5 + offset + positionOfGroup) * whiteKeyWidth, blackKeyHeight,
-                (7 * group - 5 + offset + positionOfGroup) * whiteKeyWidth + blackKeyWidth / 2,
-                whiteKeyHeight);
-        left[1] =
-            new Rect((7 * group - 5 + offset + positionOfGroup) * whiteKeyWidth + blackKeyWidth / 2,
-                0, (7 * group - 4 + offset + positionOfGroup) * whiteKeyWidth, whiteKeyHeight);
-        return left;
-      case LEFT_RIGHT:
-        Rect leftRight[] = new Rect[3];
-        leftRight[0] =
-            new Rect((7 * group - 5 + offset + positionOfGroup) * whiteKeyWidth, blackKeyHeight,
-                (7 * group - 5 + offset + positionOfGroup) * whiteKeyWidth + blackKeyWidth / 2,
-                whiteKeyHeight);
-        leftRight[1] =
-            new Rect((7 * group - 5 + offset + positionOfGroup) * whiteKeyWidth + blackKeyWidth / 2,
-                0, (7 * group - 4 + offset + positionOfGroup) * whiteKeyWidth - blackKeyWidth / 2,
-                whiteKeyHeight);
-        leftRight[2] =
-            new Rect((7 * group - 4 + offset + positionOfGroup) * whiteKeyWidth - blackKeyWidth / 2,
-                blackKeyHeight, (7 * group - 4 + offset + positionOfGroup) * whiteKeyWidth,
-                whiteKeyHeight);
-        return leftRight;
-      case RIGHT:
-        Rect right[] = new Rect[2];
-        right[0] = new Rect((7 * group - 5 + offset + positionOfGroup) * whiteKeyWidth, 0,
-            (7 * group - 4 + offset + positionOfGroup) * whiteKeyWidth - blackKeyWidth / 2,
-            whiteKeyHeight);
-        right[1] =
-            new Rect((7 * group - 4 + offset + positionOfGroup) * whiteKeyWidth - blackKeyWidth / 2,
-                blackKeyHeight, (7 * group - 4 + offset + positionOfGroup) * whiteKeyWidth,
-                whiteKeyHeight);
-        return right;
-    }
-    return null;
+  public PianoKey getPianoKey(int index) {
+    return pianoKeys[index];
   }
 
   /**
-   * 设置白色键图案的位置
+   * 绘制钢琴键
    *
-   * @param group 组数，从0开始
-   * @param positionOfGroup 在本组中的位置
-   * @param drawable 要设置的Drawale对象
+   * @param canvas 画布
+   * @param key 钢琴键
+   * @param pressed 是否绘制为按下的状态
    */
-  private void setWhiteKeyDrawableBounds(int group, int positionOfGroup, Drawable drawable) {
-    int offset = 0;
-    if (group == 0) {
-      offset = 5;
+  public void drawKey(Canvas canvas, PianoKey key, boolean pressed) {
+    Drawable drawable;
+    if (key.getType() == PianoKeyType.BLACK) {
+      drawable = pressed ? blackKeyPressedDrawable : blackKeyDrawable;
+    } else {
+      drawable = pressed ? whiteKeyPressedDrawable : whiteKeyDrawable;
     }
-    drawable.setBounds((7 * group - 5 + offset + positionOfGroup) * whiteKeyWidth, 0,
-        (7 * group - 4 + offset + positionOfGroup) * whiteKeyWidth, whiteKeyHeight);
+    int index = key.getIndex();
+    drawable.setBounds(keyIndex.getKeyLeft(index), 0, keyIndex.getKeyRight(index),
+        keyIndex.getKeyBottom(index));
+    drawable.draw(canvas);
   }
 
   /**
-   * 设置黑色键图案的位置
-   *
-   * @param group 组数，从0开始
-   * @param positionOfGroup 组内的位置
-   * @param drawable 要设置的Drawale对象
+   * @return 第一个钢琴键下标
    */
-  private void setBlackKeyDrawableBounds(int group, int positionOfGroup, Drawable drawable) {
-    int whiteOffset = 0;
-    int blackOffset = 0;
-    if (group == 0) {
-      whiteOffset = 5;
-    }
-    if (positionOfGroup == 2 || positionOfGroup == 3 || positionOfGroup == 4) {
-      blackOffset = 1;
-    }
-    drawable.setBounds((7 * group - 4 + whiteOffset + blackOffset + positionOfGroup) * whiteKeyWidth
-            - blackKeyWidth / 2, 0,
-        (7 * group - 4 + whiteOffset + blackOffset + positionOfGroup) * whiteKeyWidth
-            + blackKeyWidth / 2, blackKeyHeight);
+  public int getStartKey() {
+    return startKey;
   }
 
-  public ArrayList<PianoKey[]> getWhitePianoKeys() {
-    return whitePianoKeys;
+  /**
+   * @return 最后一个钢琴键下标
+   */
+  public int getEndKey() {
+    return endKey;
   }
 
-  public ArrayList<PianoKey[]> getBlackPianoKeys() {
-    return blackPianoKeys;
+  /**
+   * @return 钢琴键数目
+   */
+  public int getKeyCount() {
+    return endKey - startKey + 1;
+  }
+
+  public PianoKeyIndex getKeyIndex() {
+    return keyIndex;
+  }
+
+  public int getWhiteKeyHeight() {
+    return whiteKeyHeight;
   }
 
   public int getPianoWith() {
-    return pianoWith;
+    return keyIndex == null ? 0 : keyIndex.getPianoWidth();
   }
 }
@@ -5,7 +5,6 @@ package com.chengtao.pianoview.entity;
  */
 
 import android.graphics.Rect;
-import android.graphics.drawable.Drawable;
 
 /**
  * 钢琴键实体
@@ -19,18 +18,20 @@ public class PianoKey {
   private int group;
   //所属组下的位置
   private int positionOfGroup;
-  //图案
-  private Drawable keyDrawable;
   //音乐ID
   private int voiceId;
   //标志，是否被点击，默认未点击
   private boolean isPressed;
-  //钢琴键的所占区域
-  private Rect[] areaOfKey;
+  //钢琴键的列索引和位置,由所属的钢琴共用
+  private PianoKeyIndex keyIndex;
   //音名（针对白键）
   private String letterName;
   //被点击的手指的下标
   private int fingerID = -1;
+  //在所有钢琴键中的下标,从0开始
+  private int index;
+  //音名的布局（针对白键）
+  private KeyLabelLayout labelLayout;
 
   public Piano.PianoKeyType getType() {
     return type;
@@ -64,14 +65,6 @@ public class PianoKey {
     this.positionOfGroup = positionOfGroup;
   }
 
-  public Drawable getKeyDrawable() {
-    return keyDrawable;
-  }
-
-  public void setKeyDrawable(Drawable keyDrawable) {
-    this.keyDrawable = keyDrawable;
-  }
-
   public int getVoiceId() {
     return voiceId;
   }
@@ -88,12 +81,26 @@ public class PianoKey {
     isPressed = pressed;
   }
 
-  public Rect[] getAreaOfKey() {
-    return areaOfKey;
+  public PianoKeyIndex getKeyIndex() {
+    return keyIndex;
+  }
+
+  public void setKeyIndex(PianoKeyIndex keyIndex) {
+    this.keyIndex = keyIndex;
   }
 
-  public void setAreaOfKey(Rect[] areaOfKey) {
-    this.areaOfKey = areaOfKey;
+  /**
+   * 获取钢琴键的位置
+   *
+   * @param outRect 用于存放位置的矩形
+   */
+  public void getBounds(Rect outRect) {
+    if (keyIndex == null) {
+      outRect.setEmpty();
+      return;
+    }
+    outRect.set(keyIndex.getKeyLeft(index), 0, keyIndex.getKeyRight(index),
+        keyIndex.getKeyBottom(index));
   }
 
   public String getLetterName() {
@@ -104,6 +111,14 @@ public class PianoKey {
     this.letterName = letterName;
   }
 
+  public KeyLabelLayout getLabelLayout() {
+    return labelLayout;
+  }
+
+  public void setLabelLayout(KeyLabelLayout labelLayout) {
+    this.labelLayout = labelLayout;
+  }
+
   /**
    * 判断x,y坐标是否在钢琴键的点击区域内
    *
@@ -112,16 +127,7 @@ public class PianoKey {
    * @return 是否在点击区域内
    */
   public boolean contains(int x, int y) {
-    boolean isContain = false;
-    Rect[] areas = getAreaOfKey();
-    int length = getAreaOfKey().length;
-    for (int i = 0; i < length; i++) {
-      if (areas[i] != null && areas[i].contains(x, y)) {
-        isContain = true;
-        break;
-      }
-    }
-    return isContain;
+    return keyIndex != null && keyIndex.find(x, y) == index;
   }
 
   public void resetFingerID() {
@@ -135,4 +141,12 @@ public class PianoKey {
   public int getFingerID() {
     return fingerID;
   }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public void setIndex(int index) {
+    this.index = index;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,392 @@
+package com.chengtao.pianoview.entity;
+
+/**
+ * 钢琴键的列索引,用于触摸点的命中检测
+ * <p>
+ * 每一列对应一个白键,同时记录该白键左右两侧的黑键(最多一个会被命中),
+ * 根据x坐标直接定位到列,再根据y坐标与黑键高度比较,得到被点击的钢琴键,
+ * 结果与逐个钢琴键区域扫描完全一致。
+ * 同时按下标保存每个钢琴键的位置,由列直接计算得到。
+ * <p>
+ * 钢琴键下标按音高从低到高排列,A0为0,C8为87。
+ * 可以只包含一段连续的钢琴键,范围两端都是白键,第一个白键位于x=0处,
+ * 范围之外的钢琴键不会被命中。
+ */
+public class PianoKeyIndex {
+  //没有钢琴键
+  public static final int NO_KEY = -1;
+  //白键数目
+  public static final int WHITE_KEY_NUMS = 52;
+  //黑键数目
+  public static final int BLACK_KEY_NUMS = 36;
+  //一个八度内(从C开始)白键相对于C的偏移
+  private static final int[] WHITE_KEY_OFFSETS = { 0, 2, 4, 5, 7, 9, 11 };
+  //一个八度内(从C开始)黑键相对于C的偏移
+  private static final int[] BLACK_KEY_OFFSETS = { 1, 3, 6, 8, 10 };
+  //第一个C(C1)的下标
+  private static final int FIRST_C_INDEX = 3;
+  //白键的音名,按从C开始的顺序
+  private static final String LETTERS = "CDEFGAB";
+  //钢琴键范围,包含两端
+  private final int startKey;
+  private final int endKey;
+  //范围内的白键数目
+  private final int columnCount;
+  //每一列的白键以及左右两侧的黑键
+  private final int[] whiteKeys;
+  private final int[] leftBlackKeys;
+  private final int[] rightBlackKeys;
+  //按下标排列的钢琴键位置,上边界都为0
+  private final int[] keyLefts = new int[Piano.PIANO_NUMS];
+  private final int[] keyRights = new int[Piano.PIANO_NUMS];
+  private final int[] keyBottoms = new int[Piano.PIANO_NUMS];
+  //黑白键高度和宽度
+  private int whiteKeyWidth;
+  private int whiteKeyHeight;
+  private int halfBlackKeyWidth;
+  private int blackKeyHeight;
+
+  public PianoKeyIndex(int whiteKeyWidth, int whiteKeyHeight, int blackKeyWidth,
+      int blackKeyHeight) {
+    this(0, Piano.PIANO_NUMS - 1, whiteKeyWidth, whiteKeyHeight, blackKeyWidth, blackKeyHeight);
+  }
+
+  /**
+   * @param startKey 第一个钢琴键下标,黑键时向下扩展到白键
+   * @param endKey 最后一个钢琴键下标,黑键时向上扩展到白键
+   * @param whiteKeyWidth 白键宽度
+   * @param whiteKeyHeight 白键高度
+   * @param blackKeyWidth 黑键宽度
+   * @param blackKeyHeight 黑键高度
+   */
+  public PianoKeyIndex(int startKey, int endKey, int whiteKeyWidth, int whiteKeyHeight,
+      int blackKeyWidth, int blackKeyHeight) {
+    this.startKey = getRangeStart(startKey);
+    this.endKey = getRangeEnd(endKey);
+    if (this.endKey < this.startKey) {
+      throw new IllegalArgumentException("key range wrong:" + startKey + "-" + endKey);
+    }
+    int firstColumn = getColumnOfWhiteKey(this.startKey);
+    columnCount = getColumnOfWhiteKey(this.endKey) - firstColumn + 1;
+    whiteKeys = new int[columnCount];
+    leftBlackKeys = new int[columnCount];
+    rightBlackKeys = new int[columnCount];
+    for (int column = 0; column < columnCount; column++) {
+      int index = getWhiteKeyIndexOfColumn(firstColumn + column);
+      whiteKeys[column] = index;
+      leftBlackKeys[column] = index > this.startKey && isBlackKey(index - 1) ? index - 1 : NO_KEY;
+      rightBlackKeys[column] = index < this.endKey && isBlackKey(index + 1) ? index + 1 : NO_KEY;
+    }
+    setKeySize(whiteKeyWidth, whiteKeyHeight, blackKeyWidth, blackKeyHeight);
+  }
+
+  /**
+   * 设置黑白键的高度和宽度,重新计算钢琴键的位置
+   *
+   * @param whiteKeyWidth 白键宽度
+   * @param whiteKeyHeight 白键高度
+   * @param blackKeyWidth 黑键宽度
+   * @param blackKeyHeight 黑键高度
+   */
+  public void setKeySize(int whiteKeyWidth, int whiteKeyHeight, int blackKeyWidth,
+      int blackKeyHeight) {
+    this.whiteKeyWidth = whiteKeyWidth;
+    this.whiteKeyHeight = whiteKeyHeight;
+    this.halfBlackKeyWidth = blackKeyWidth / 2;
+    this.blackKeyHeight = blackKeyHeight;
+    for (int column = 0; column < columnCount; column++) {
+      int index = whiteKeys[column];
+      keyLefts[index] = column * whiteKeyWidth;
+      keyRights[index] = (column + 1) * whiteKeyWidth;
+      keyBottoms[index] = whiteKeyHeight;
+      //黑键的中心在当前列的右边界上
+      int black = rightBlackKeys[column];
+      if (black != NO_KEY) {
+        keyLefts[black] = keyRights[index] - halfBlackKeyWidth;
+        keyRights[black] = keyRights[index] + halfBlackKeyWidth;
+        keyBottoms[black] = blackKeyHeight;
+      }
+    }
+  }
+
+  /**
+   * 查找坐标所在的钢琴键
+   *
+   * @param x x坐标
+   * @param y y坐标
+   * @return 钢琴键下标,没有则返回{@link #NO_KEY}
+   */
+  public int find(int x, int y) {
+    if (x < 0 || y < 0 || y >= whiteKeyHeight || whiteKeyWidth <= 0) {
+      return NO_KEY;
+    }
+    int column = x / whiteKeyWidth;
+    if (column >= columnCount) {
+      return NO_KEY;
+    }
+    if (y < blackKeyHeight) {
+      int offset = x - column * whiteKeyWidth;
+      if (offset < halfBlackKeyWidth && leftBlackKeys[column] != NO_KEY) {
+        return leftBlackKeys[column];
+      }
+      if (offset >= whiteKeyWidth - halfBlackKeyWidth && rightBlackKeys[column] != NO_KEY) {
+        return rightBlackKeys[column];
+      }
+    }
+    return whiteKeys[column];
+  }
+
+  /**
+   * 获取与[left,right)水平区域相交的白键,按从左到右的顺序
+   *
+   * @param left 区域左边界
+   * @param right 区域右边界
+   * @param keys 用于存放钢琴键下标的数组,长度至少为{@link #WHITE_KEY_NUMS}
+   * @return 白键数目
+   */
+  public int getVisibleWhiteKeys(int left, int right, int[] keys) {
+    if (whiteKeyWidth <= 0 || right <= left || right <= 0) {
+      return 0;
+    }
+    int first = Math.max(0, left) / whiteKeyWidth;
+    int last = Math.min(columnCount - 1, (right - 1) / whiteKeyWidth);
+    int count = 0;
+    for (int column = first; column <= last; column++) {
+      keys[count++] = whiteKeys[column];
+    }
+    return count;
+  }
+
+  /**
+   * 获取与[left,right)水平区域相交的黑键,按从左到右的顺序
+   *
+   * @param left 区域左边界
+   * @param right 区域右边界
+   * @param keys 用于存放钢琴键下标的数组,长度至少为黑键数目
+   * @return 黑键数目
+   */
+  public int getVisibleBlackKeys(int left, int right, int[] keys) {
+    if (whiteKeyWidth <= 0 || halfBlackKeyWidth <= 0 || right <= left) {
+      return 0;
+    }
+    //黑键的中心在当前列的右边界上
+    int first = Math.max(0, (left - halfBlackKeyWidth) / whiteKeyWidth - 1);
+    int last = Math.min(columnCount - 1, (right + halfBlackKeyWidth) / whiteKeyWidth);
+    int count = 0;
+    for (int column = first; column <= last; column++) {
+      int center = (column + 1) * whiteKeyWidth;
+      if (rightBlackKeys[column] != NO_KEY
+          && center - halfBlackKeyWidth < right
+          && center + halfBlackKeyWidth > left) {
+        keys[count++] = rightBlackKeys[column];
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param index 钢琴键下标
+   * @return 钢琴键的左边界
+   */
+  public int getKeyLeft(int index) {
+    return keyLefts[index];
+  }
+
+  /**
+   * @param index 钢琴键下标
+   * @return 钢琴键的右边界
+   */
+  public int getKeyRight(int index) {
+    return keyRights[index];
+  }
+
+  /**
+   * @param index 钢琴键下标
+   * @return 钢琴键的下边界,上边界为0
+   */
+  public int getKeyBottom(int index) {
+    return keyBottoms[index];
+  }
+
+  /**
+   * @return 钢琴总宽度
+   */
+  public int getPianoWidth() {
+    return columnCount * whiteKeyWidth;
+  }
+
+  public int getStartKey() {
+    return startKey;
+  }
+
+  public int getEndKey() {
+    return endKey;
+  }
+
+  /**
+   * @return 范围内的白键数目
+   */
+  public int getWhiteKeyCount() {
+    return columnCount;
+  }
+
+  /**
+   * 判断钢琴键是否在范围内
+   *
+   * @param index 钢琴键下标
+   * @return 是否在范围内
+   */
+  public boolean isInRange(int index) {
+    return index >= startKey && index <= endKey;
+  }
+
+  /**
+   * 获取范围的第一个钢琴键,超出钢琴时取最近的钢琴键,黑键时向下扩展到白键
+   *
+   * @param startKey 第一个钢琴键下标
+   * @return 调整后的钢琴键下标
+   */
+  public static int getRangeStart(int startKey) {
+    int index = Math.max(0, Math.min(startKey, Piano.PIANO_NUMS - 1));
+    return isBlackKey(index) ? index - 1 : index;
+  }
+
+  /**
+   * 获取范围的最后一个钢琴键,超出钢琴时取最近的钢琴键,黑键时向上扩展到白键
+   *
+   * @param endKey 最后一个钢琴键下标
+   * @return 调整后的钢琴键下标
+   */
+  public static int getRangeEnd(int endKey) {
+    int index = Math.max(0, Math.min(endKey, Piano.PIANO_NUMS - 1));
+    return isBlackKey(index) ? index + 1 : index;
+  }
+
+  /**
+   * 判断是否为黑键
+   *
+   * @param index 钢琴键下标
+   * @return 是否为黑键
+   */
+  public static boolean isBlackKey(int index) {
+    switch ((index + 12 - FIRST_C_INDEX) % 12) {
+      case 1:
+      case 3:
+      case 6:
+      case 8:
+      case 10:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * 获取第几列白键的下标
+   *
+   * @param column 白键的列,从0开始
+   * @return 钢琴键下标
+   */
+  public static int getWhiteKeyIndexOfColumn(int column) {
+    if (column < 2) {
+      return column * 2;
+    }
+    return FIRST_C_INDEX + 12 * ((column - 2) / 7) + WHITE_KEY_OFFSETS[(column - 2) % 7];
+  }
+
+  /**
+   * 获取白键所在的列,{@link #getWhiteKeyIndexOfColumn(int)}的逆运算
+   *
+   * @param index 白键下标
+   * @return 白键的列,从0开始
+   */
+  public static int getColumnOfWhiteKey(int index) {
+    if (index < FIRST_C_INDEX) {
+      return index / 2;
+    }
+    int offset = (index - FIRST_C_INDEX) % 12;
+    int position = 0;
+    while (WHITE_KEY_OFFSETS[position] < offset) {
+      position++;
+    }
+    return 2 + 7 * ((index - FIRST_C_INDEX) / 12) + position;
+  }
+
+  /**
+   * 根据音名获取白键的下标,例如A0、C4、C8
+   *
+   * @param letterName 音名
+   * @return 钢琴键下标,音名错误时返回{@link #NO_KEY}
+   */
+  public static int getWhiteKeyIndex(String letterName) {
+    if (letterName == null || letterName.length() != 2) {
+      return NO_KEY;
+    }
+    int letter = LETTERS.indexOf(Character.toUpperCase(letterName.charAt(0)));
+    int group = letterName.charAt(1) - '0';
+    if (letter < 0 || group < 0 || group > 8) {
+      return NO_KEY;
+    }
+    //第0组从A开始
+    return getKeyIndex(Piano.PianoKeyType.WHITE, group, group == 0 ? letter - 5 : letter);
+  }
+
+  /**
+   * 获取钢琴键的下标,位置不存在时返回{@link #NO_KEY}
+   *
+   * @param type 钢琴键类型
+   * @param group 组数,从0开始
+   * @param positionOfGroup 组内位置
+   * @return 钢琴键下标
+   */
+  public static int getKeyIndex(Piano.PianoKeyType type, int group, int positionOfGroup) {
+    if (type == null || positionOfGroup < 0) {
+      return NO_KEY;
+    }
+    switch (type) {
+      case BLACK:
+        if ((group == 0 && positionOfGroup == 0)
+            || (group > 0 && group <= 7 && positionOfGroup <= 4)) {
+          return getBlackKeyIndex(group, positionOfGroup);
+        }
+        return NO_KEY;
+      case WHITE:
+        if ((group == 0 && positionOfGroup <= 1)
+            || (group > 0 && group <= 7 && positionOfGroup <= 6)
+            || (group == 8 && positionOfGroup == 0)) {
+          return getWhiteKeyIndex(group, positionOfGroup);
+        }
+        return NO_KEY;
+      default:
+        return NO_KEY;
+    }
+  }
+
+  /**
+   * 获取白键的下标
+   *
+   * @param group 组数,从0开始
+   * @param positionOfGroup 组内位置
+   * @return 钢琴键下标
+   */
+  public static int getWhiteKeyIndex(int group, int positionOfGroup) {
+    if (group == 0) {
+      return getWhiteKeyIndexOfColumn(positionOfGroup);
+    }
+    return getWhiteKeyIndexOfColumn(7 * group - 5 + positionOfGroup);
+  }
+
+  /**
+   * 获取黑键的下标
+   *
+   * @param group 组数,从0开始
+   * @param positionOfGroup 组内位置
+   * @return 钢琴键下标
+   */
+  public static int getBlackKeyIndex(int group, int positionOfGroup) {
+    if (group == 0) {
+      return 1;
+    }
+    return FIRST_C_INDEX + 12 * (group - 1) + BLACK_KEY_OFFSETS[positionOfGroup];
+  }
+}
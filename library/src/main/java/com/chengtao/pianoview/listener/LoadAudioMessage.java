@@ -31,4 +31,11 @@ public interface LoadAudioMessage {
    * @param progress 进度值
    */
   void sendProgressMessage(int progress);
+
+  /**
+   * 单个钢琴键加载完成
+   *
+   * @param keyIndex 钢琴键下标
+   */
+  void sendKeyReadyMessage(int keyIndex);
 }
@@ -31,4 +31,12 @@ public interface OnLoadAudioListener {
    * @param progress 进度值
    */
   void loadPianoAudioProgress(int progress);
+
+  /**
+   * 单个钢琴键加载完成,此后该钢琴键即可播放,默认不处理
+   *
+   * @param keyIndex 钢琴键下标,A0为0,C8为87
+   */
+  default void loadPianoAudioKeyReady(int keyIndex) {
+  }
 }
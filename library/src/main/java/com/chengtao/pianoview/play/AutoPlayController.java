@@ -0,0 +1,53 @@
+package com.chengtao.pianoview.play;
+
+/**
+ * 自动播放控制,所有方法都可以在任意线程调用
+ */
+public interface AutoPlayController {
+  /**
+   * 暂停,已经按下的音符不会继续
+   */
+  void pause();
+
+  /**
+   * 从暂停的位置继续
+   */
+  void resume();
+
+  /**
+   * 停止,计时线程会尽快结束,不会释放音频
+   */
+  void stop();
+
+  /**
+   * 跳转到指定时间,暂停时保持暂停
+   *
+   * @param scoreTime 相对于乐曲开始的时间,毫秒
+   */
+  void seekTo(long scoreTime);
+
+  /**
+   * 跳转到第几个音符
+   *
+   * @param note 音符下标
+   */
+  void seekToNote(int note);
+
+  /**
+   * 设置速度,立即生效
+   *
+   * @param tempo 速度倍数,1为原速
+   */
+  void setTempo(float tempo);
+
+  float getTempo();
+
+  boolean isPaused();
+
+  boolean isStopped();
+
+  /**
+   * @return 当前的播放位置,相对于乐曲开始的时间,毫秒
+   */
+  long getPosition();
+}
@@ -0,0 +1,275 @@
+package com.chengtao.pianoview.play;
+
+import android.os.SystemClock;
+
+/**
+ * 自动播放调度器,在独立的计时线程中运行,同时负责暂停、继续、停止、跳转和速度控制
+ * <p>
+ * 每个音符的时间都是相对于开始时间的绝对时间(单调时钟),而不是依次sleep间隔时间,
+ * 因此sleep的超时和消息分发的耗时只影响当前音符,不会累积。
+ * 计时线程提前{@code lookahead}毫秒把事件交给{@link Target},
+ * 由{@link Target}按绝对时间投递(例如Handler#sendMessageAtTime)。
+ * <p>
+ * 控制方法可以在任意线程调用,返回之后不会再有控制之前的事件交给{@link Target},
+ * 已经投递但还没有发生的事件需要调用方自己取消。
+ */
+public class AutoPlayScheduler implements Runnable, AutoPlayController {
+  //基于SystemClock.uptimeMillis的时钟,与Handler的时间基准相同
+  public static final Clock UPTIME_CLOCK = new Clock() {
+    @Override public long uptimeMillis() {
+      return SystemClock.uptimeMillis();
+    }
+
+    @Override public void await(Object lock, long millis) throws InterruptedException {
+      lock.wait(millis);
+    }
+  };
+  private final AutoPlayTimeline timeline;
+  private final Clock clock;
+  private final long lookahead;
+  private final Target target;
+  //下一个按下的音符
+  private int on = 0;
+  //下一个抬起的音符(抬起顺序)
+  private int off = 0;
+  //跳转之前按下的音符不再抬起
+  private int firstActiveNote = 0;
+  //时间映射:乐曲时间 = anchorScoreTime + (当前时间 - anchorTime) * tempo
+  private long anchorTime;
+  private long anchorScoreTime = 0;
+  private float tempo = 1f;
+  private boolean isStarted = false;
+  private boolean isPaused = false;
+  private boolean isStopped = false;
+
+  /**
+   * @param timeline 自动播放时间线
+   * @param clock 单调时钟
+   * @param lookahead 提前交给target的时间,毫秒
+   * @param target 事件的接收者
+   */
+  public AutoPlayScheduler(AutoPlayTimeline timeline, Clock clock, long lookahead,
+      Target target) {
+    this.timeline = timeline;
+    this.clock = clock;
+    this.lookahead = Math.max(0, lookahead);
+    this.target = target;
+  }
+
+  @Override public void run() {
+    long endTime;
+    synchronized (this) {
+      //第一个音符也提前lookahead交出,保证按时播放
+      if (!isStarted) {
+        isStarted = true;
+        anchorTime = clock.uptimeMillis() + lookahead;
+      }
+      target.onStart(anchorTime);
+      try {
+        while (!isStopped) {
+          if (isPaused) {
+            clock.await(this, 0);
+            continue;
+          }
+          //合并按下和抬起两个事件流,时间相同时先抬起,同一个钢琴键可以再次按下
+          int size = timeline.size();
+          while (off < size && timeline.getNoteOfOff(off) < firstActiveNote) {
+            off++;
+          }
+          long scoreTime;
+          boolean isKeyUp;
+          int offNote = off < size ? timeline.getNoteOfOff(off) : size;
+          if (offNote < on && (on >= size
+              || timeline.getOffTime(offNote) <= timeline.getOnTime(on))) {
+            scoreTime = timeline.getOffTime(offNote);
+            isKeyUp = true;
+          } else if (on < size) {
+            scoreTime = timeline.getOnTime(on);
+            isKeyUp = false;
+          } else {
+            scoreTime = timeline.getDuration();
+            isKeyUp = false;
+          }
+          long when = toUptime(scoreTime);
+          long delay = when - lookahead - clock.uptimeMillis();
+          if (delay > 0) {
+            //控制方法会唤醒,之后重新计算
+            clock.await(this, delay);
+            continue;
+          }
+          //先移动位置再回调,回调中可以调用控制方法
+          if (isKeyUp) {
+            off++;
+            target.onKeyUp(timeline.getKeyIndex(offNote), when);
+          } else if (on < size) {
+            int note = on++;
+            target.onKeyDown(timeline.getKeyIndex(note), timeline.getVelocity(note), when);
+          } else {
+            break;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      isStopped = true;
+      endTime = Math.max(toUptime(timeline.getDuration()), clock.uptimeMillis());
+    }
+    target.onEnd(endTime);
+  }
+
+  /**
+   * 暂停,已经按下的音符不会继续
+   */
+  @Override public synchronized void pause() {
+    if (isPaused || isStopped) {
+      return;
+    }
+    long scoreTime = getPosition();
+    isPaused = true;
+    reposition(scoreTime);
+  }
+
+  /**
+   * 从暂停的位置继续
+   */
+  @Override public synchronized void resume() {
+    if (!isPaused || isStopped) {
+      return;
+    }
+    isPaused = false;
+    reposition(anchorScoreTime);
+  }
+
+  /**
+   * 停止,计时线程会尽快结束,不会释放音频
+   */
+  @Override public synchronized void stop() {
+    isStopped = true;
+    notifyAll();
+  }
+
+  /**
+   * 跳转到指定时间,暂停时保持暂停
+   *
+   * @param scoreTime 相对于乐曲开始的时间,毫秒
+   */
+  @Override public synchronized void seekTo(long scoreTime) {
+    if (isStopped) {
+      return;
+    }
+    reposition(Math.max(0, Math.min(scoreTime, timeline.getDuration())));
+  }
+
+  /**
+   * 跳转到第几个音符
+   *
+   * @param note 音符下标
+   */
+  @Override public synchronized void seekToNote(int note) {
+    if (note >= timeline.size()) {
+      seekTo(timeline.getDuration());
+    } else {
+      seekTo(timeline.getOnTime(Math.max(0, note)));
+    }
+  }
+
+  /**
+   * 设置速度,立即生效
+   *
+   * @param tempo 速度倍数,1为原速
+   */
+  @Override public synchronized void setTempo(float tempo) {
+    if (tempo <= 0 || tempo == this.tempo) {
+      return;
+    }
+    if (isStarted && !isPaused) {
+      //在当前位置重新建立时间映射,已经交出的事件不受影响
+      long now = clock.uptimeMillis();
+      anchorScoreTime = getPosition(now);
+      anchorTime = now;
+    }
+    this.tempo = tempo;
+    notifyAll();
+  }
+
+  @Override public synchronized float getTempo() {
+    return tempo;
+  }
+
+  @Override public synchronized boolean isPaused() {
+    return isPaused;
+  }
+
+  @Override public synchronized boolean isStopped() {
+    return isStopped;
+  }
+
+  /**
+   * @return 当前的播放位置,相对于乐曲开始的时间,毫秒
+   */
+  @Override public synchronized long getPosition() {
+    if (isPaused || !isStarted) {
+      return anchorScoreTime;
+    }
+    return getPosition(clock.uptimeMillis());
+  }
+
+  private long getPosition(long uptime) {
+    long scoreTime = anchorScoreTime + (long) ((uptime - anchorTime) * tempo);
+    return Math.max(0, Math.min(scoreTime, timeline.getDuration()));
+  }
+
+  private long toUptime(long scoreTime) {
+    return anchorTime + (long) Math.ceil((scoreTime - anchorScoreTime) / tempo);
+  }
+
+  /**
+   * 从指定位置重新开始,之前交出的事件作废
+   */
+  private void reposition(long scoreTime) {
+    on = timeline.seek(scoreTime);
+    off = timeline.seekOff(scoreTime);
+    firstActiveNote = on;
+    anchorScoreTime = scoreTime;
+    anchorTime = clock.uptimeMillis() + lookahead;
+    isStarted = true;
+    notifyAll();
+  }
+
+  /**
+   * 单调时钟
+   */
+  public interface Clock {
+    /**
+     * @return 当前时间,毫秒
+     */
+    long uptimeMillis();
+
+    /**
+     * 在持有lock时等待,lock被notify或者超时后返回,实际时间可能更长
+     *
+     * @param lock 锁
+     * @param millis 毫秒,0为一直等待到被notify
+     * @throws InterruptedException 被中断
+     */
+    void await(Object lock, long millis) throws InterruptedException;
+  }
+
+  /**
+   * 调度事件的接收者,在计时线程中回调,when为事件应该发生的绝对时间
+   */
+  public interface Target {
+    void onStart(long when);
+
+    /**
+     * @param keyIndex 钢琴键下标
+     * @param velocity 力度,0-127,见{@link AutoPlayTimeline#getVelocity}
+     * @param when 按下的绝对时间
+     */
+    void onKeyDown(int keyIndex, int velocity, long when);
+
+    void onKeyUp(int keyIndex, long when);
+
+    void onEnd(long when);
+  }
+}
@@ -0,0 +1,280 @@
+package com.chengtao.pianoview.play;
+
+import com.chengtao.pianoview.entity.AutoPlayEntity;
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 编译后的自动播放时间线,不可变
+ * <p>
+ * 每个音符由钢琴键下标、按下时间和抬起时间组成(相对于开始时间,毫秒),
+ * 按按下时间排序,保存在基本类型数组中,播放时不需要再查找钢琴键。
+ * 音符之间可以任意重叠(和弦、连奏),每个音符单独抬起,
+ * 另外按抬起时间排序的下标用于合并按下和抬起两个事件流。
+ */
+public final class AutoPlayTimeline {
+  //最大力度
+  public static final int MAX_VELOCITY = 127;
+  //默认力度,与触摸按下相同,没有力度的乐谱(Json、自定义配置)按原来的音量播放
+  public static final int DEFAULT_VELOCITY = MAX_VELOCITY;
+  private final int[] keyIndexes;
+  private final long[] onTimes;
+  private final long[] offTimes;
+  //力度,0-127
+  private final byte[] velocities;
+  //按抬起时间排序的音符下标
+  private final int[] offOrder;
+  //总时长
+  private final long duration;
+
+  private AutoPlayTimeline(int[] keyIndexes, long[] onTimes, long[] offTimes, byte[] velocities,
+      int[] offOrder, long duration) {
+    this.keyIndexes = keyIndexes;
+    this.onTimes = onTimes;
+    this.offTimes = offTimes;
+    this.velocities = velocities;
+    this.offOrder = offOrder;
+    this.duration = duration;
+  }
+
+  /**
+   * 编译自动播放实体列表,每个实体按下一个钢琴键,在间隔时间的一半时抬起,
+   * 不存在的钢琴键会被跳过,但仍然占用间隔时间
+   *
+   * @param autoPlayEntities 自动播放实体列表
+   * @return 时间线
+   */
+  public static AutoPlayTimeline compile(List<AutoPlayEntity> autoPlayEntities) {
+    int size = autoPlayEntities == null ? 0 : autoPlayEntities.size();
+    Builder builder = new Builder(size);
+    long time = 0;
+    for (int i = 0; i < size; i++) {
+      AutoPlayEntity entity = autoPlayEntities.get(i);
+      if (entity == null) {
+        continue;
+      }
+      long breakTime = Math.max(0, entity.getCurrentBreakTime());
+      int keyIndex =
+          PianoKeyIndex.getKeyIndex(entity.getType(), entity.getGroup(), entity.getPosition());
+      if (keyIndex != PianoKeyIndex.NO_KEY) {
+        builder.addNote(keyIndex, time, breakTime / 2);
+      }
+      time += breakTime;
+    }
+    return builder.setDuration(time).build();
+  }
+
+  /**
+   * @return 音符数目
+   */
+  public int size() {
+    return keyIndexes.length;
+  }
+
+  /**
+   * @return 总时长,毫秒
+   */
+  public long getDuration() {
+    return duration;
+  }
+
+  public int getKeyIndex(int note) {
+    return keyIndexes[note];
+  }
+
+  public long getOnTime(int note) {
+    return onTimes[note];
+  }
+
+  public long getOffTime(int note) {
+    return offTimes[note];
+  }
+
+  public int getVelocity(int note) {
+    return velocities[note];
+  }
+
+  /**
+   * 获取第i个抬起的音符
+   *
+   * @param i 抬起的顺序
+   * @return 音符下标
+   */
+  public int getNoteOfOff(int i) {
+    return offOrder[i];
+  }
+
+  /**
+   * 查找第一个在指定时间或之后按下的音符,O(log n)
+   *
+   * @param time 相对于开始的时间,毫秒
+   * @return 音符下标,没有则返回{@link #size()}
+   */
+  public int seek(long time) {
+    return search(onTimes, null, time);
+  }
+
+  /**
+   * 查找第一个在指定时间或之后抬起的音符的抬起顺序,O(log n)
+   *
+   * @param time 相对于开始的时间,毫秒
+   * @return 抬起的顺序,没有则返回{@link #size()}
+   */
+  public int seekOff(long time) {
+    return search(offTimes, offOrder, time);
+  }
+
+  private static int search(long[] times, int[] order, long time) {
+    int low = 0;
+    int high = times.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (times[order == null ? mid : order[mid]] < time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * 时间线构建器,音符可以按任意顺序添加
+   */
+  public static final class Builder {
+    private int[] keyIndexes;
+    private long[] onTimes;
+    private long[] durations;
+    private byte[] velocities;
+    private int size = 0;
+    private long duration = 0;
+
+    public Builder() {
+      this(16);
+    }
+
+    public Builder(int capacity) {
+      capacity = Math.max(1, capacity);
+      keyIndexes = new int[capacity];
+      onTimes = new long[capacity];
+      durations = new long[capacity];
+      velocities = new byte[capacity];
+    }
+
+    /**
+     * 添加音符,同一个钢琴键的音符重叠时,前一个音符在后一个音符按下时抬起
+     *
+     * @param keyIndex 钢琴键下标,A0为0,C8为87
+     * @param onTime 按下时间,相对于开始的时间,毫秒
+     * @param duration 持续时间,毫秒
+     * @return 构建器
+     */
+    public Builder addNote(int keyIndex, long onTime, long duration) {
+      return addNote(keyIndex, onTime, duration, DEFAULT_VELOCITY);
+    }
+
+    /**
+     * 添加音符
+     *
+     * @param keyIndex 钢琴键下标,A0为0,C8为87
+     * @param onTime 按下时间,相对于开始的时间,毫秒
+     * @param duration 持续时间,毫秒
+     * @param velocity 力度,0-127
+     * @return 构建器
+     */
+    public Builder addNote(int keyIndex, long onTime, long duration, int velocity) {
+      if (keyIndex < 0 || keyIndex >= Piano.PIANO_NUMS || onTime < 0) {
+        return this;
+      }
+      if (size == keyIndexes.length) {
+        int capacity = size * 2;
+        keyIndexes = Arrays.copyOf(keyIndexes, capacity);
+        onTimes = Arrays.copyOf(onTimes, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        velocities = Arrays.copyOf(velocities, capacity);
+      }
+      keyIndexes[size] = keyIndex;
+      onTimes[size] = onTime;
+      durations[size] = Math.max(0, duration);
+      velocities[size] = (byte) Math.max(0, Math.min(velocity, MAX_VELOCITY));
+      size++;
+      return this;
+    }
+
+    /**
+     * 设置总时长,不能短于最后一个音符的抬起时间
+     *
+     * @param duration 总时长,毫秒
+     * @return 构建器
+     */
+    public Builder setDuration(long duration) {
+      this.duration = duration;
+      return this;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public AutoPlayTimeline build() {
+      int[] order = sortedOrder(onTimes, size);
+      int[] sortedKeys = new int[size];
+      long[] sortedOnTimes = new long[size];
+      long[] sortedOffTimes = new long[size];
+      byte[] sortedVelocities = new byte[size];
+      //每个钢琴键上一个音符的下标
+      int[] lastNotes = new int[Piano.PIANO_NUMS];
+      Arrays.fill(lastNotes, -1);
+      long end = duration;
+      for (int i = 0; i < size; i++) {
+        int note = order[i];
+        int keyIndex = keyIndexes[note];
+        sortedKeys[i] = keyIndex;
+        sortedOnTimes[i] = onTimes[note];
+        sortedOffTimes[i] = onTimes[note] + durations[note];
+        sortedVelocities[i] = velocities[note];
+        int last = lastNotes[keyIndex];
+        if (last >= 0 && sortedOffTimes[last] > sortedOnTimes[i]) {
+          sortedOffTimes[last] = sortedOnTimes[i];
+        }
+        lastNotes[keyIndex] = i;
+        end = Math.max(end, sortedOffTimes[i]);
+      }
+      return new AutoPlayTimeline(sortedKeys, sortedOnTimes, sortedOffTimes, sortedVelocities,
+          sortedOrder(sortedOffTimes, size), end);
+    }
+
+    /**
+     * 按时间稳定排序,返回排序后的下标
+     * <p>
+     * 已经有序时直接返回,否则把时间和下标合并成一个long后排序,不需要装箱
+     */
+    private static int[] sortedOrder(long[] times, int size) {
+      int sorted = 1;
+      while (sorted < size && times[sorted - 1] <= times[sorted]) {
+        sorted++;
+      }
+      if (sorted >= size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+          order[i] = i;
+        }
+        return order;
+      }
+      int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, size));
+      long[] packed = new long[size];
+      for (int i = 0; i < size; i++) {
+        packed[i] = (times[i] << bits) | i;
+      }
+      Arrays.sort(packed);
+      int[] order = new int[size];
+      long mask = (1L << bits) - 1;
+      for (int i = 0; i < size; i++) {
+        order[i] = (int) (packed[i] & mask);
+      }
+      return order;
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package com.chengtao.pianoview.play;
+
+/**
+ * 有界的音符缓冲区,一个线程解析写入,一个线程播放读取
+ * <p>
+ * 缓冲区满时写入会等待(背压),因此内存占用与乐曲长度无关。
+ * 音符按按下时间的顺序写入。
+ */
+public class ScoreBuffer {
+  private final int[] keyIndexes;
+  private final long[] onTimes;
+  private final long[] offTimes;
+  private final byte[] velocities;
+  private int head = 0;
+  private int size = 0;
+  //写入过的最大数目
+  private int maxSize = 0;
+  private long lastOffTime = 0;
+  private long duration = -1;
+  private boolean isClosed = false;
+  private boolean isCancelled = false;
+
+  public ScoreBuffer(int capacity) {
+    capacity = Math.max(1, capacity);
+    keyIndexes = new int[capacity];
+    onTimes = new long[capacity];
+    offTimes = new long[capacity];
+    velocities = new byte[capacity];
+  }
+
+  /**
+   * 写入默认力度的音符,缓冲区满时等待
+   *
+   * @param keyIndex 钢琴键下标
+   * @param onTime 按下时间,毫秒
+   * @param offTime 抬起时间,毫秒
+   * @return 是否写入,取消之后返回false
+   * @throws InterruptedException 被中断
+   */
+  public boolean put(int keyIndex, long onTime, long offTime) throws InterruptedException {
+    return put(keyIndex, onTime, offTime, AutoPlayTimeline.DEFAULT_VELOCITY);
+  }
+
+  /**
+   * 写入音符,缓冲区满时等待
+   *
+   * @param keyIndex 钢琴键下标
+   * @param onTime 按下时间,毫秒
+   * @param offTime 抬起时间,毫秒
+   * @param velocity 力度,0-127
+   * @return 是否写入,取消之后返回false
+   * @throws InterruptedException 被中断
+   */
+  public synchronized boolean put(int keyIndex, long onTime, long offTime, int velocity)
+      throws InterruptedException {
+    while (size == keyIndexes.length && !isCancelled) {
+      wait();
+    }
+    if (isCancelled || isClosed) {
+      return false;
+    }
+    int tail = (head + size) % keyIndexes.length;
+    keyIndexes[tail] = keyIndex;
+    onTimes[tail] = onTime;
+    offTimes[tail] = offTime;
+    velocities[tail] = (byte) Math.max(0, Math.min(velocity, AutoPlayTimeline.MAX_VELOCITY));
+    size++;
+    maxSize = Math.max(maxSize, size);
+    lastOffTime = Math.max(lastOffTime, offTime);
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * 写入结束
+   *
+   * @param duration 总时长,毫秒,小于0时使用最后一个音符的抬起时间
+   */
+  public synchronized void close(long duration) {
+    if (!isClosed) {
+      isClosed = true;
+      this.duration = Math.max(duration, lastOffTime);
+      notifyAll();
+    }
+  }
+
+  /**
+   * 取消,唤醒等待的读写线程
+   */
+  public synchronized void cancel() {
+    isCancelled = true;
+    notifyAll();
+  }
+
+  /**
+   * 等待缓冲了指定数目的音符,或者写入结束
+   *
+   * @param count 音符数目
+   * @return 是否可以开始读取,取消之后返回false
+   * @throws InterruptedException 被中断
+   */
+  public synchronized boolean awaitBuffered(int count) throws InterruptedException {
+    while (size < Math.min(count, keyIndexes.length) && !isClosed && !isCancelled) {
+      wait();
+    }
+    return !isCancelled;
+  }
+
+  /**
+   * 等待下一个音符
+   *
+   * @return 是否有音符,写入结束并且已经读完或者取消之后返回false
+   * @throws InterruptedException 被中断
+   */
+  public synchronized boolean awaitNote() throws InterruptedException {
+    while (size == 0 && !isClosed && !isCancelled) {
+      wait();
+    }
+    return size > 0 && !isCancelled;
+  }
+
+  public synchronized int getKeyIndex() {
+    return keyIndexes[head];
+  }
+
+  public synchronized long getOnTime() {
+    return onTimes[head];
+  }
+
+  public synchronized long getOffTime() {
+    return offTimes[head];
+  }
+
+  public synchronized int getVelocity() {
+    return velocities[head];
+  }
+
+  /**
+   * 移除第一个音符
+   */
+  public synchronized void remove() {
+    if (size > 0) {
+      head = (head + 1) % keyIndexes.length;
+      size--;
+      notifyAll();
+    }
+  }
+
+  /**
+   * @return 总时长,写入结束之前为-1
+   */
+  public synchronized long getDuration() {
+    return duration;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public synchronized int getMaxSize() {
+    return maxSize;
+  }
+
+  public int getCapacity() {
+    return keyIndexes.length;
+  }
+}
@@ -0,0 +1,70 @@
+package com.chengtao.pianoview.play;
+
+import com.chengtao.pianoview.entity.Piano;
+import java.util.Arrays;
+
+/**
+ * 演奏录制,记录钢琴键的按下和抬起,生成时间线
+ * <p>
+ * 时间使用与{@link AutoPlayScheduler.Clock}相同的单调时钟,毫秒。
+ * 只在一个线程(UI线程)中使用。
+ */
+public class SessionRecorder {
+  private final AutoPlayTimeline.Builder builder = new AutoPlayTimeline.Builder(256);
+  //每个钢琴键按下的时间,没有按下为-1
+  private final long[] downTimes = new long[Piano.PIANO_NUMS];
+  //每个钢琴键按下的力度
+  private final int[] velocities = new int[Piano.PIANO_NUMS];
+  private final long startTime;
+
+  /**
+   * @param startTime 开始时间
+   */
+  public SessionRecorder(long startTime) {
+    this.startTime = startTime;
+    Arrays.fill(downTimes, -1);
+  }
+
+  public void onKeyDown(int keyIndex, long time) {
+    onKeyDown(keyIndex, AutoPlayTimeline.DEFAULT_VELOCITY, time);
+  }
+
+  /**
+   * 按下钢琴键
+   *
+   * @param keyIndex 钢琴键下标
+   * @param velocity 力度,0-127
+   * @param time 按下时间
+   */
+  public void onKeyDown(int keyIndex, int velocity, long time) {
+    if (keyIndex < 0 || keyIndex >= Piano.PIANO_NUMS) {
+      return;
+    }
+    onKeyUp(keyIndex, time);
+    downTimes[keyIndex] = Math.max(time, startTime);
+    velocities[keyIndex] = velocity;
+  }
+
+  public void onKeyUp(int keyIndex, long time) {
+    if (keyIndex < 0 || keyIndex >= Piano.PIANO_NUMS || downTimes[keyIndex] < 0) {
+      return;
+    }
+    long downTime = downTimes[keyIndex];
+    builder.addNote(keyIndex, downTime - startTime, Math.max(0, time - downTime),
+        velocities[keyIndex]);
+    downTimes[keyIndex] = -1;
+  }
+
+  /**
+   * 结束录制,还没有抬起的钢琴键在结束时间抬起
+   *
+   * @param endTime 结束时间
+   * @return 时间线
+   */
+  public AutoPlayTimeline stop(long endTime) {
+    for (int keyIndex = 0; keyIndex < Piano.PIANO_NUMS; keyIndex++) {
+      onKeyUp(keyIndex, endTime);
+    }
+    return builder.setDuration(Math.max(0, endTime - startTime)).build();
+  }
+}
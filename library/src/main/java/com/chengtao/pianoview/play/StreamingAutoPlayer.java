@@ -0,0 +1,389 @@
+package com.chengtao.pianoview.play;
+
+import com.chengtao.pianoview.entity.Piano;
+
+/**
+ * 边解析边播放的自动播放
+ * <p>
+ * 解析线程把音符写入有界的{@link ScoreBuffer},缓冲了少量音符之后即开始播放,
+ * 缓冲区满时解析线程等待,因此内存占用与乐曲长度无关。
+ * 音符需要按按下时间排列,可以任意重叠(和弦、连奏),
+ * 按下和抬起的合并方式与{@link AutoPlayScheduler}相同:时间相同时先抬起,
+ * 同一个钢琴键的上一个音符在下一个音符按下时抬起。
+ * 时间的计算方式与{@link AutoPlayScheduler}相同,只能向后跳转。
+ */
+public class StreamingAutoPlayer implements Runnable, AutoPlayController {
+  private static final String TAG = "StreamingAutoPlayer";
+  //同时按下的音符最多每个钢琴键一个,再加上当前还没有按下的音符
+  private static final int MAX_ACTIVE_NOTES = Piano.PIANO_NUMS + 1;
+  private final ScoreSource source;
+  private final ScoreBuffer buffer;
+  private final int prebuffer;
+  private final AutoPlayScheduler.Clock clock;
+  private final long lookahead;
+  private final AutoPlayScheduler.Target target;
+  //已经读取但还没有抬起的音符:音符序号、钢琴键下标、力度、按下和抬起时间、是否已经交出按下
+  private final int[] activeNotes = new int[MAX_ACTIVE_NOTES];
+  private final int[] activeKeys = new int[MAX_ACTIVE_NOTES];
+  private final int[] activeVelocities = new int[MAX_ACTIVE_NOTES];
+  private final long[] activeOnTimes = new long[MAX_ACTIVE_NOTES];
+  private final long[] activeOffTimes = new long[MAX_ACTIVE_NOTES];
+  private final boolean[] isActiveOnDispatched = new boolean[MAX_ACTIVE_NOTES];
+  private int activeCount = 0;
+  //已经读取的音符数目
+  private int noteCount = 0;
+  //跳过之前的音符
+  private long skipTime = 0;
+  private int skipNote = 0;
+  //时间映射:乐曲时间 = anchorScoreTime + (当前时间 - anchorTime) * tempo
+  private long anchorTime;
+  private long anchorScoreTime = 0;
+  private float tempo = 1f;
+  private boolean isStarted = false;
+  private boolean isPaused = false;
+  private boolean isStopped = false;
+  //读取音符失败的异常
+  private volatile Exception readError;
+
+  /**
+   * @param source 音符来源,在解析线程中读取
+   * @param capacity 缓冲区大小
+   * @param prebuffer 开始播放之前缓冲的音符数目
+   * @param clock 单调时钟
+   * @param lookahead 提前交给target的时间,毫秒
+   * @param target 事件的接收者
+   */
+  public StreamingAutoPlayer(ScoreSource source, int capacity, int prebuffer,
+      AutoPlayScheduler.Clock clock, long lookahead, AutoPlayScheduler.Target target) {
+    this.source = source;
+    this.buffer = new ScoreBuffer(capacity);
+    this.prebuffer = Math.max(1, prebuffer);
+    this.clock = clock;
+    this.lookahead = Math.max(0, lookahead);
+    this.target = target;
+  }
+
+  @Override public void run() {
+    Thread parser = new Thread(() -> {
+      long duration = -1;
+      try {
+        duration = source.read(buffer);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Exception e) {
+        //已经读取的音符照常播放
+        readError = e;
+      } finally {
+        buffer.close(duration);
+      }
+    }, TAG);
+    parser.start();
+    try {
+      if (buffer.awaitBuffered(prebuffer)) {
+        synchronized (this) {
+          if (!isStarted) {
+            isStarted = true;
+            anchorTime = clock.uptimeMillis() + lookahead;
+          }
+          target.onStart(anchorTime);
+        }
+        boolean isPlaying = true;
+        while (isPlaying && buffer.awaitNote()) {
+          synchronized (this) {
+            int keyIndex = buffer.getKeyIndex();
+            long onTime = buffer.getOnTime();
+            long offTime = buffer.getOffTime();
+            int velocity = buffer.getVelocity();
+            buffer.remove();
+            isPlaying = playNote(keyIndex, onTime, offTime, velocity);
+          }
+        }
+        synchronized (this) {
+          //抬起剩下的音符,然后等待到乐曲结束
+          if (isPlaying && dispatch(Long.MAX_VALUE)) {
+            while (!isStopped) {
+              long delay = isPaused ? 0
+                  : toUptime(buffer.getDuration()) - lookahead - clock.uptimeMillis();
+              if (!isPaused && delay <= 0) {
+                break;
+              }
+              clock.await(this, delay);
+            }
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    long endTime;
+    synchronized (this) {
+      isStopped = true;
+      endTime = Math.max(toUptime(Math.max(0, buffer.getDuration())), clock.uptimeMillis());
+    }
+    buffer.cancel();
+    target.onEnd(endTime);
+  }
+
+  /**
+   * 交出这个音符之前的事件,然后加入这个音符,持有锁时调用
+   * <p>
+   * 后面的音符按下时间不早于这个音符,只可能把抬起时间提前到这个音符的按下时间,
+   * 因此早于这个音符的事件已经确定,同一时间的事件要等到读取了更晚的音符之后再交出。
+   *
+   * @return 是否继续,停止之后返回false
+   */
+  private boolean playNote(int keyIndex, long onTime, long offTime, int velocity)
+      throws InterruptedException {
+    //与AutoPlayTimeline.Builder相同,不存在的钢琴键不算音符
+    if (keyIndex < 0 || keyIndex >= Piano.PIANO_NUMS || onTime < 0) {
+      return !isStopped;
+    }
+    int note = noteCount++;
+    if (note < skipNote || onTime < skipTime) {
+      return !isStopped;
+    }
+    if (skipNote > 0) {
+      //跳转到音符,到达时才知道它的时间,之前按下的音符由调用方抬起
+      skipNote = 0;
+      activeCount = 0;
+      anchorScoreTime = onTime;
+      anchorTime = clock.uptimeMillis() + lookahead;
+    }
+    if (!dispatch(onTime)) {
+      return false;
+    }
+    if (note < skipNote || onTime < skipTime) {
+      //等待过程中向后跳转
+      return true;
+    }
+    //同一个钢琴键的上一个音符在这个音符按下时抬起
+    for (int i = 0; i < activeCount; i++) {
+      if (activeKeys[i] == keyIndex && activeOffTimes[i] > onTime) {
+        activeOffTimes[i] = onTime;
+      }
+    }
+    int i = activeCount++;
+    activeNotes[i] = note;
+    activeKeys[i] = keyIndex;
+    activeVelocities[i] = velocity;
+    activeOnTimes[i] = onTime;
+    activeOffTimes[i] = Math.max(onTime, offTime);
+    isActiveOnDispatched[i] = false;
+    return true;
+  }
+
+  /**
+   * 按时间顺序交出已经读取的音符的按下和抬起,持有锁时调用
+   *
+   * @param endTime 只交出早于这个时间的事件,乐曲时间
+   * @return 是否继续,停止之后返回false
+   */
+  private boolean dispatch(long endTime) throws InterruptedException {
+    while (!isStopped) {
+      if (isPaused) {
+        clock.await(this, 0);
+        continue;
+      }
+      if (skipNote > 0) {
+        //向后跳转到音符,之前的音符不再交出
+        activeCount = 0;
+        return true;
+      }
+      int next = nextEvent();
+      if (next < 0) {
+        return true;
+      }
+      boolean isKeyUp = isActiveOnDispatched[next];
+      long scoreTime = isKeyUp ? activeOffTimes[next] : activeOnTimes[next];
+      if (scoreTime >= endTime) {
+        return true;
+      }
+      long when = toUptime(scoreTime);
+      long delay = when - lookahead - clock.uptimeMillis();
+      if (delay > 0) {
+        //控制方法会唤醒,之后重新计算
+        clock.await(this, delay);
+        continue;
+      }
+      //先更新状态再回调,回调中可以调用控制方法
+      int keyIndex = activeKeys[next];
+      if (isKeyUp) {
+        removeActive(next);
+        target.onKeyUp(keyIndex, when);
+      } else {
+        isActiveOnDispatched[next] = true;
+        target.onKeyDown(keyIndex, activeVelocities[next], when);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 查找下一个事件:时间最早的按下或抬起,时间相同时先抬起,再按音符顺序
+   *
+   * @return 在已经读取的音符中的位置,没有则返回-1
+   */
+  private int nextEvent() {
+    int next = -1;
+    long nextTime = 0;
+    boolean isNextKeyUp = false;
+    for (int i = 0; i < activeCount; i++) {
+      boolean isKeyUp = isActiveOnDispatched[i];
+      long time = isKeyUp ? activeOffTimes[i] : activeOnTimes[i];
+      if (next < 0 || time < nextTime || time == nextTime && (isKeyUp && !isNextKeyUp
+          || isKeyUp == isNextKeyUp && activeNotes[i] < activeNotes[next])) {
+        next = i;
+        nextTime = time;
+        isNextKeyUp = isKeyUp;
+      }
+    }
+    return next;
+  }
+
+  private void removeActive(int i) {
+    int last = --activeCount;
+    activeNotes[i] = activeNotes[last];
+    activeKeys[i] = activeKeys[last];
+    activeVelocities[i] = activeVelocities[last];
+    activeOnTimes[i] = activeOnTimes[last];
+    activeOffTimes[i] = activeOffTimes[last];
+    isActiveOnDispatched[i] = isActiveOnDispatched[last];
+  }
+
+  /**
+   * 从指定位置重新开始:之前按下的音符由调用方抬起,不再交出,
+   * 提前交出但还没有发生的按下会被调用方取消,需要重新交出
+   */
+  private void reposition(long scoreTime) {
+    for (int i = activeCount - 1; i >= 0; i--) {
+      if (activeOnTimes[i] < scoreTime) {
+        removeActive(i);
+      } else {
+        isActiveOnDispatched[i] = false;
+      }
+    }
+  }
+
+  @Override public synchronized void pause() {
+    if (isPaused || isStopped) {
+      return;
+    }
+    anchorScoreTime = getPosition();
+    isPaused = true;
+    reposition(anchorScoreTime);
+    notifyAll();
+  }
+
+  @Override public synchronized void resume() {
+    if (!isPaused || isStopped) {
+      return;
+    }
+    isPaused = false;
+    anchorTime = clock.uptimeMillis() + lookahead;
+    notifyAll();
+  }
+
+  @Override public synchronized void stop() {
+    isStopped = true;
+    buffer.cancel();
+    notifyAll();
+  }
+
+  /**
+   * 跳转到指定时间,只能向后跳转
+   *
+   * @param scoreTime 相对于乐曲开始的时间,毫秒
+   */
+  @Override public synchronized void seekTo(long scoreTime) {
+    if (isStopped || scoreTime <= getPosition()) {
+      return;
+    }
+    skipTime = scoreTime;
+    reposition(scoreTime);
+    anchorScoreTime = scoreTime;
+    anchorTime = clock.uptimeMillis() + lookahead;
+    isStarted = true;
+    notifyAll();
+  }
+
+  /**
+   * 跳转到第几个音符,只能向后跳转
+   *
+   * @param note 音符下标
+   */
+  @Override public synchronized void seekToNote(int note) {
+    if (isStopped || note < noteCount) {
+      return;
+    }
+    skipNote = note;
+    notifyAll();
+  }
+
+  @Override public synchronized void setTempo(float tempo) {
+    if (tempo <= 0 || tempo == this.tempo) {
+      return;
+    }
+    if (isStarted && !isPaused) {
+      long now = clock.uptimeMillis();
+      anchorScoreTime = getPosition(now);
+      anchorTime = now;
+    }
+    this.tempo = tempo;
+    notifyAll();
+  }
+
+  @Override public synchronized float getTempo() {
+    return tempo;
+  }
+
+  @Override public synchronized boolean isPaused() {
+    return isPaused;
+  }
+
+  @Override public synchronized boolean isStopped() {
+    return isStopped;
+  }
+
+  @Override public synchronized long getPosition() {
+    if (isPaused || !isStarted) {
+      return anchorScoreTime;
+    }
+    return getPosition(clock.uptimeMillis());
+  }
+
+  /**
+   * @return 读取音符失败的异常,没有失败时返回null
+   */
+  public Exception getReadError() {
+    return readError;
+  }
+
+  /**
+   * @return 缓冲区,用于查看缓冲的音符数目
+   */
+  public ScoreBuffer getBuffer() {
+    return buffer;
+  }
+
+  private long getPosition(long uptime) {
+    return Math.max(0, anchorScoreTime + (long) ((uptime - anchorTime) * tempo));
+  }
+
+  private long toUptime(long scoreTime) {
+    return anchorTime + (long) Math.ceil((scoreTime - anchorScoreTime) / tempo);
+  }
+
+  /**
+   * 音符来源
+   */
+  public interface ScoreSource {
+    /**
+     * 读取所有音符并写入缓冲区,{@link ScoreBuffer#put}返回false时应该尽快结束
+     *
+     * @param buffer 缓冲区
+     * @return 总时长,毫秒
+     * @throws Exception 读取失败
+     */
+    long read(ScoreBuffer buffer) throws Exception;
+  }
+}
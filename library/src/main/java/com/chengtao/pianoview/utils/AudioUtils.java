@@ -1,21 +1,25 @@
 package com.chengtao.pianoview.utils;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.media.AudioAttributes;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.media.AudioManager;
-import android.media.SoundPool;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
-import android.util.SparseIntArray;
+import com.chengtao.pianoview.audio.AudioEngine;
+import com.chengtao.pianoview.audio.SampleLruPolicy;
+import com.chengtao.pianoview.audio.SoundPoolAudioEngine;
 import com.chengtao.pianoview.entity.Piano;
 import com.chengtao.pianoview.entity.PianoKey;
 import com.chengtao.pianoview.listener.LoadAudioMessage;
 import com.chengtao.pianoview.listener.OnLoadAudioListener;
-import java.util.ArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Created by ChengTao on 2016-11-26.
@@ -25,7 +29,7 @@ import java.util.concurrent.Executors;
  * 音频工具类
  */
 public class AudioUtils implements LoadAudioMessage {
-  //线程池,用于加载和播放音频
+  //线程池,用于加载音频
   private ExecutorService service = Executors.newCachedThreadPool();
   //最大音频数目
   private final static int MAX_STREAM = 11;
@@ -35,44 +39,76 @@ public class AudioUtils implements LoadAudioMessage {
   private final static int LOAD_FINISH = 2;
   private final static int LOAD_ERROR = 3;
   private final static int LOAD_PROGRESS = 4;
+  private final static int LOAD_KEY_READY = 5;
+  //并行加载的线程数
+  private final static int LOAD_THREADS = 4;
+  //内存预算模式下不会被淘汰的最近播放的钢琴键数目
+  private final static int RECENT_PINNED_KEYS = 8;
+  //系统音量变化的广播
+  private final static String VOLUME_CHANGED_ACTION = "android.media.VOLUME_CHANGED_ACTION";
   //发送进度的间隙时间
   private final static int SEND_PROGRESS_MESSAGE_BREAK_TIME = 500;
-  //音频池，用于播放音频
-  private SoundPool pool;
+  //音频引擎，用于加载和播放音频
+  private AudioEngine engine;
   //上下文
   private Context context;
   //加载音频接口
   private OnLoadAudioListener loadAudioListener;
-  //存放黑键和白键的音频加载后的ID的集合
-  private SparseIntArray whiteKeyMusics = new SparseIntArray();
-  private SparseIntArray blackKeyMusics = new SparseIntArray();
   //是否加载成功
-  private boolean isLoadFinish = false;
+  private volatile boolean isLoadFinish = false;
   //是否正在加载
-  private boolean isLoading = false;
+  private volatile boolean isLoading = false;
+  //每个钢琴键是否加载完成,1为完成
+  private final AtomicIntegerArray readyKeys = new AtomicIntegerArray(Piano.PIANO_NUMS);
   //用于处理进度消息
   private Handler handler;
   private AudioManager audioManager;
+  //缓存的系统音量比例,由音量变化广播刷新
+  private volatile float streamVolume = 1f;
+  //通过setVolume设置的音量
+  private volatile float volume = 1f;
+  //播放时使用的音量 = streamVolume * volume
+  private volatile float playVolume = 1f;
+  //音量变化广播
+  private BroadcastReceiver volumeReceiver;
   private long currentTime;
-  private int loadNum;
-  private int minSoundId = -1;
-  private int maxSoundId = -1;
+  private final AtomicInteger loadNum = new AtomicInteger();
+  //是否已经预热音频输出
+  private final AtomicBoolean isWarmedUp = new AtomicBoolean();
+  //初始加载的钢琴键数目,全部加载完成后发送完成消息
+  private volatile int loadTarget = Piano.PIANO_NUMS;
+  //每个钢琴键是否属于初始加载且尚未完成,1为是,按需加载不计入进度
+  private final AtomicIntegerArray pendingInitialKeys = new AtomicIntegerArray(Piano.PIANO_NUMS);
+  //内存预算模式下的常驻策略,为null时全部常驻
+  private SampleLruPolicy residency;
+  private Piano piano;
 
-  private AudioUtils(Context context, OnLoadAudioListener loadAudioListener, int maxStream) {
+  private AudioUtils(Context context, OnLoadAudioListener loadAudioListener, AudioEngine engine) {
     this.context = context;
     this.loadAudioListener = loadAudioListener;
+    this.engine = engine;
     handler = new AudioStatusHandler(context.getMainLooper());
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-      pool = new SoundPool.Builder().setMaxStreams(maxStream)
-          .setAudioAttributes(
-              new AudioAttributes.Builder().setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-                  .setUsage(AudioAttributes.USAGE_MEDIA)
-                  .build())
-          .build();
-    } else {
-      pool = new SoundPool(maxStream, AudioManager.STREAM_MUSIC, 1);
-    }
     audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+    refreshStreamVolume();
+    volumeReceiver = new BroadcastReceiver() {
+      @Override public void onReceive(Context context, Intent intent) {
+        refreshStreamVolume();
+      }
+    };
+    context.getApplicationContext()
+        .registerReceiver(volumeReceiver, new IntentFilter(VOLUME_CHANGED_ACTION));
+  }
+
+  /**
+   * 不依赖Android环境的实例,所有钢琴键视为已加载,用于在JVM中测试播放路径
+   *
+   * @param engine 音频引擎
+   */
+  AudioUtils(AudioEngine engine) {
+    this.engine = engine;
+    for (int i = 0; i < Piano.PIANO_NUMS; i++) {
+      readyKeys.set(i, 1);
+    }
   }
 
   //单例模式，只返回一个工具实例
@@ -82,10 +118,30 @@ public class AudioUtils implements LoadAudioMessage {
 
   public static AudioUtils getInstance(Context context, OnLoadAudioListener listener,
       int maxStream) {
-    if (instance == null || instance.pool == null) {
+    if (instance == null || instance.engine == null) {
       synchronized (AudioUtils.class) {
-        if (instance == null || instance.pool == null) {
-          instance = new AudioUtils(context, listener, maxStream);
+        if (instance == null || instance.engine == null) {
+          instance = new AudioUtils(context, listener, new SoundPoolAudioEngine(context, maxStream));
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * 使用指定的音频引擎
+   *
+   * @param context 上下文
+   * @param listener 加载音频接口
+   * @param engine 音频引擎,例如{@link com.chengtao.pianoview.audio.MixerAudioEngine}
+   * @return 工具实例
+   */
+  public static AudioUtils getInstance(Context context, OnLoadAudioListener listener,
+      AudioEngine engine) {
+    if (instance == null || instance.engine == null) {
+      synchronized (AudioUtils.class) {
+        if (instance == null || instance.engine == null) {
+          instance = new AudioUtils(context, listener, engine);
         }
       }
     }
@@ -99,127 +155,294 @@ public class AudioUtils implements LoadAudioMessage {
    * @throws Exception 异常
    */
   public void loadMusic(final Piano piano) throws Exception {
-    if (pool == null) {
-      throw new Exception("请初始化SoundPool");
+    loadMusic(piano, piano.getStartKey(), piano.getEndKey());
+  }
+
+  /**
+   * 加载音乐,先加载可见范围内的钢琴键,再由近及远并行加载其余的钢琴键,
+   * 每个钢琴键加载完成后即可播放,只加载钢琴范围内的钢琴键
+   *
+   * @param piano 钢琴实体
+   * @param firstVisibleKey 第一个可见的钢琴键下标
+   * @param lastVisibleKey 最后一个可见的钢琴键下标
+   * @throws Exception 异常
+   */
+  public void loadMusic(final Piano piano, int firstVisibleKey, int lastVisibleKey)
+      throws Exception {
+    if (engine == null) {
+      throw new Exception("请初始化AudioEngine");
     }
     if (piano != null) {
       if (!isLoading && !isLoadFinish) {
         isLoading = true;
-        pool.setOnLoadCompleteListener((soundPool, sampleId, status) -> {
-          loadNum++;
-          if (loadNum == Piano.PIANO_NUMS) {
+        this.piano = piano;
+        engine.setOnLoadCompleteListener((keyIndex, success) -> {
+          SampleLruPolicy residency = this.residency;
+          if (residency != null && !residency.isResident(keyIndex)) {
+            //加载完成前已经被淘汰或加载失败
+            if (success) {
+              engine.unload(keyIndex);
+            }
+            success = false;
+          }
+          if (success) {
+            readyKeys.set(keyIndex, 1);
+            //第一个可以播放的钢琴键加载完成后即预热音频输出
+            if (!isWarmedUp.getAndSet(true)) {
+              engine.warmUp(keyIndex);
+            }
+            sendKeyReadyMessage(keyIndex);
+          } else if (residency != null) {
+            residency.remove(keyIndex);
+          }
+          if (pendingInitialKeys.getAndSet(keyIndex, 0) == 0) {
+            return;
+          }
+          int loaded = loadNum.incrementAndGet();
+          if (loaded == loadTarget) {
             isLoadFinish = true;
+            isLoading = false;
             sendProgressMessage(100);
             sendFinishMessage();
-            //静音播放一个音频,防止延时
-            pool.play(whiteKeyMusics.get(0), 0, 0, 1, -1, 2f);
-          } else {
+          } else if (loaded < loadTarget) {
             if (System.currentTimeMillis() - currentTime >= SEND_PROGRESS_MESSAGE_BREAK_TIME) {
-              sendProgressMessage((int) (((float) loadNum / (float) Piano.PIANO_NUMS) * 100f));
+              sendProgressMessage((int) (((float) loaded / (float) loadTarget) * 100f));
               currentTime = System.currentTimeMillis();
             }
           }
         });
-        service.execute(() -> {
-          sendStartMessage();
-          ArrayList<PianoKey[]> whiteKeys = piano.getWhitePianoKeys();
-          int whiteKeyPos = 0;
-          for (int i = 0; i < whiteKeys.size(); i++) {
-            for (PianoKey key : whiteKeys.get(i)) {
-              try {
-                int soundID = pool.load(context, key.getVoiceId(), 1);
-                whiteKeyMusics.put(whiteKeyPos, soundID);
-                if (minSoundId == -1) {
-                  minSoundId = soundID;
-                }
-                whiteKeyPos++;
-              } catch (Exception e) {
-                isLoading = false;
-                sendErrorMessage(e);
-                return;
-              }
-            }
+        sendStartMessage();
+        final int[] order =
+            getLoadOrder(firstVisibleKey, lastVisibleKey, piano.getStartKey(), piano.getEndKey());
+        final int count;
+        if (residency != null) {
+          //只加载可见范围及其附近预算以内的钢琴键,其余按需加载
+          residency.setPinnedRange(firstVisibleKey, lastVisibleKey);
+          count = Math.min(order.length, residency.getCapacity());
+          for (int i = 0; i < count; i++) {
+            residency.add(order[i]);
           }
-          ArrayList<PianoKey[]> blackKeys = piano.getBlackPianoKeys();
-          int blackKeyPos = 0;
-          for (int i = 0; i < blackKeys.size(); i++) {
-            for (PianoKey key : blackKeys.get(i)) {
+        } else {
+          count = order.length;
+        }
+        loadTarget = count;
+        for (int i = 0; i < count; i++) {
+          pendingInitialKeys.set(order[i], 1);
+        }
+        final AtomicInteger cursor = new AtomicInteger();
+        int threads = Math.max(1, Math.min(LOAD_THREADS, Runtime.getRuntime().availableProcessors()));
+        for (int t = 0; t < threads; t++) {
+          service.execute(() -> {
+            int i;
+            while (isLoading && (i = cursor.getAndIncrement()) < count) {
+              PianoKey key = piano.getPianoKey(order[i]);
               try {
-                int soundID = pool.load(context, key.getVoiceId(), 1);
-                blackKeyMusics.put(blackKeyPos, soundID);
-                blackKeyPos++;
-                if (soundID > maxSoundId) {
-                  maxSoundId = soundID;
-                }
+                engine.load(key.getIndex(), key.getVoiceId());
               } catch (Exception e) {
-                isLoading = false;
-                sendErrorMessage(e);
+                if (isLoading) {
+                  isLoading = false;
+                  sendErrorMessage(e);
+                }
                 return;
               }
             }
-          }
-        });
+          });
+        }
       }
     }
   }
 
   /**
-   * 播放音乐
+   * 获取加载顺序:先是可见范围内的钢琴键,然后由近及远交替加载两侧的钢琴键
    *
-   * @param key 钢琴键
+   * @param firstVisibleKey 第一个可见的钢琴键下标
+   * @param lastVisibleKey 最后一个可见的钢琴键下标
+   * @return 按加载顺序排列的钢琴键下标
    */
-  public void playMusic(final PianoKey key) {
-    if (key != null) {
-      if (isLoadFinish) {
-        if (key.getType() != null) {
-          service.execute(() -> {
-            switch (key.getType()) {
-              case BLACK:
-                playBlackKeyMusic(key.getGroup(), key.getPositionOfGroup());
-                break;
-              case WHITE:
-                playWhiteKeyMusic(key.getGroup(), key.getPositionOfGroup());
-                break;
-            }
-          });
-        }
+  static int[] getLoadOrder(int firstVisibleKey, int lastVisibleKey) {
+    return getLoadOrder(firstVisibleKey, lastVisibleKey, 0, Piano.PIANO_NUMS - 1);
+  }
+
+  /**
+   * 获取钢琴范围内的加载顺序
+   *
+   * @param firstVisibleKey 第一个可见的钢琴键下标
+   * @param lastVisibleKey 最后一个可见的钢琴键下标
+   * @param startKey 钢琴的第一个钢琴键下标
+   * @param endKey 钢琴的最后一个钢琴键下标
+   * @return 按加载顺序排列的钢琴键下标,长度为范围内的钢琴键数目
+   */
+  static int[] getLoadOrder(int firstVisibleKey, int lastVisibleKey, int startKey, int endKey) {
+    int first = Math.max(startKey, Math.min(firstVisibleKey, endKey));
+    int last = Math.max(first, Math.min(lastVisibleKey, endKey));
+    int[] order = new int[endKey - startKey + 1];
+    int count = 0;
+    for (int i = first; i <= last; i++) {
+      order[count++] = i;
+    }
+    for (int distance = 1; count < order.length; distance++) {
+      if (last + distance <= endKey) {
+        order[count++] = last + distance;
+      }
+      if (first - distance >= startKey) {
+        order[count++] = first - distance;
       }
     }
+    return order;
   }
 
   /**
-   * 播放白键音乐
+   * 钢琴键的音频是否已经加载完成
    *
-   * @param group 组数，从0开始
-   * @param positionOfGroup 组内位置
+   * @param keyIndex 钢琴键下标
+   * @return 是否可以播放
    */
-  private void playWhiteKeyMusic(int group, int positionOfGroup) {
-    int position;
-    if (group == 0) {
-      position = positionOfGroup;
+  public boolean isKeyReady(int keyIndex) {
+    return readyKeys.get(keyIndex) != 0;
+  }
+
+  /**
+   * 开启内存预算模式,需要在{@link #loadMusic(Piano)}之前调用
+   * <p>
+   * 最多常驻maxResidentSamples个钢琴键的音频,其余钢琴键在播放或进入可见范围时按需加载,
+   * 超出预算时按最近最少使用淘汰,可见范围内以及最近播放的钢琴键不会被淘汰。
+   * 按需加载的钢琴键在加载完成之前不会发声。
+   *
+   * @param maxResidentSamples 常驻的最大音频数目,不小于{@link Piano#PIANO_NUMS}时关闭
+   */
+  public void setSampleBudget(int maxResidentSamples) {
+    if (isLoading || isLoadFinish) {
+      return;
+    }
+    if (maxResidentSamples <= 0 || maxResidentSamples >= Piano.PIANO_NUMS) {
+      residency = null;
     } else {
-      position = (group - 1) * 7 + 2 + positionOfGroup;
+      residency = new SampleLruPolicy(Piano.PIANO_NUMS, maxResidentSamples, RECENT_PINNED_KEYS);
     }
-    play(whiteKeyMusics.get(position));
   }
 
   /**
-   * 播放黑键音乐
+   * 更新可见范围,内存预算模式下范围内的钢琴键会被加载并且不会被淘汰
    *
-   * @param group 组数，从0开始
-   * @param positionOfGroup 组内位置
+   * @param firstVisibleKey 第一个可见的钢琴键下标
+   * @param lastVisibleKey 最后一个可见的钢琴键下标
    */
-  private void playBlackKeyMusic(int group, int positionOfGroup) {
-    int position;
-    if (group == 0) {
-      position = positionOfGroup;
-    } else {
-      position = (group - 1) * 5 + 1 + positionOfGroup;
+  public void setVisibleRange(int firstVisibleKey, int lastVisibleKey) {
+    SampleLruPolicy residency = this.residency;
+    if (residency == null || piano == null) {
+      return;
+    }
+    residency.setPinnedRange(firstVisibleKey, lastVisibleKey);
+    int first = Math.max(piano.getStartKey(), firstVisibleKey);
+    int last = Math.min(piano.getEndKey(), lastVisibleKey);
+    for (int keyIndex = first; keyIndex <= last; keyIndex++) {
+      if (!residency.isResident(keyIndex)) {
+        requestLoad(keyIndex);
+      }
+    }
+  }
+
+  /**
+   * 按需加载钢琴键的音频,并淘汰超出预算的钢琴键
+   *
+   * @param keyIndex 钢琴键下标
+   */
+  private void requestLoad(final int keyIndex) {
+    final AudioEngine engine = this.engine;
+    final SampleLruPolicy residency = this.residency;
+    //不在钢琴范围内的钢琴键没有声音
+    final PianoKey key = piano.getPianoKey(keyIndex);
+    if (engine == null || residency == null || key == null || !residency.add(keyIndex)) {
+      return;
+    }
+    int victim;
+    while ((victim = residency.evict()) != SampleLruPolicy.NO_KEY) {
+      readyKeys.set(victim, 0);
+      engine.unload(victim);
+    }
+    service.execute(() -> {
+      try {
+        engine.load(keyIndex, key.getVoiceId());
+      } catch (Exception e) {
+        residency.remove(keyIndex);
+      }
+    });
+  }
+
+  /**
+   * 内存预算模式下的命中次数(播放时音频已常驻)
+   *
+   * @return 命中次数,未开启时为0
+   */
+  public long getSampleHitCount() {
+    SampleLruPolicy residency = this.residency;
+    return residency == null ? 0 : residency.getHitCount();
+  }
+
+  /**
+   * 内存预算模式下的未命中次数(播放时音频未常驻,需要加载)
+   *
+   * @return 未命中次数,未开启时为0
+   */
+  public long getSampleMissCount() {
+    SampleLruPolicy residency = this.residency;
+    return residency == null ? 0 : residency.getMissCount();
+  }
+
+  /**
+   * 内存预算模式下的淘汰次数
+   *
+   * @return 淘汰次数,未开启时为0
+   */
+  public long getSampleEvictionCount() {
+    SampleLruPolicy residency = this.residency;
+    return residency == null ? 0 : residency.getEvictionCount();
+  }
+
+  /**
+   * 播放音乐,直接在调用线程中播放,不切换线程
+   *
+   * @param key 钢琴键
+   */
+  public void playMusic(PianoKey key) {
+    playMusic(key, 1f);
+  }
+
+  /**
+   * 播放音乐,直接在调用线程中播放,不切换线程
+   *
+   * @param key 钢琴键
+   * @param velocity 力度,[0,1]
+   */
+  public void playMusic(PianoKey key, float velocity) {
+    if (key != null) {
+      SampleLruPolicy residency = this.residency;
+      if (residency != null && !residency.touch(key.getIndex())) {
+        requestLoad(key.getIndex());
+      }
+      if (readyKeys.get(key.getIndex()) != 0) {
+        AudioEngine engine = this.engine;
+        if (engine != null) {
+          engine.play(key.getIndex(), playVolume * velocity);
+        }
+      }
     }
-    play(blackKeyMusics.get(position));
   }
 
-  private void play(int soundId) {
+  /**
+   * 设置音量
+   *
+   * @param volume 音量,[0,1]
+   */
+  public void setVolume(float volume) {
+    this.volume = Math.max(0f, Math.min(1f, volume));
+    playVolume = streamVolume * this.volume;
+  }
+
+  /**
+   * 刷新缓存的系统音量
+   */
+  private void refreshStreamVolume() {
     float volume = 1;
     if (audioManager != null) {
       float actualVolume = (float) audioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
@@ -229,20 +452,23 @@ public class AudioUtils implements LoadAudioMessage {
     if (volume <= 0) {
       volume = 1f;
     }
-    pool.play(soundId, volume, volume, 1, 0, 1f);
+    streamVolume = volume;
+    playVolume = streamVolume * this.volume;
   }
 
   /**
    * 结束
    */
   public void stop() {
+    if (volumeReceiver != null && context != null) {
+      context.getApplicationContext().unregisterReceiver(volumeReceiver);
+      volumeReceiver = null;
+    }
     context = null;
-    pool.release();
-    pool = null;
-    whiteKeyMusics.clear();
-    whiteKeyMusics = null;
-    blackKeyMusics.clear();
-    blackKeyMusics = null;
+    if (engine != null) {
+      engine.release();
+      engine = null;
+    }
   }
 
   @Override public void sendStartMessage() {
@@ -261,6 +487,10 @@ public class AudioUtils implements LoadAudioMessage {
     handler.sendMessage(Message.obtain(handler, LOAD_PROGRESS, progress));
   }
 
+  @Override public void sendKeyReadyMessage(int keyIndex) {
+    handler.sendMessage(Message.obtain(handler, LOAD_KEY_READY, keyIndex, 0));
+  }
+
   /**
    * 自定义handler,处理加载状态
    */
@@ -290,6 +520,9 @@ public class AudioUtils implements LoadAudioMessage {
         case LOAD_PROGRESS:
           loadAudioListener.loadPianoAudioProgress((int) msg.obj);
           break;
+        case LOAD_KEY_READY:
+          loadAudioListener.loadPianoAudioKeyReady(msg.arg1);
+          break;
         default:
           break;
       }
@@ -0,0 +1,132 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.entity.AutoPlayEntity;
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
+/**
+ * 自动播放实体的Json读写,不使用反射
+ * <p>
+ * 格式与Gson反射的结果相同:type为"0"(黑键)或"1"(白键),间隔时间的字段名为break,
+ * 未知的字段被忽略,null保持默认值。
+ */
+public class AutoPlayEntityAdapter extends TypeAdapter<AutoPlayEntity> {
+  //readNote读取的字段
+  private static final class Note {
+    Piano.PianoKeyType type;
+    int group;
+    int position;
+    long breakTime;
+  }
+
+  @Override public void write(JsonWriter out, AutoPlayEntity entity) throws IOException {
+    if (entity == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginObject();
+    if (entity.getType() != null) {
+      out.name("type").value(String.valueOf(entity.getType().getValue()));
+    }
+    out.name("group").value(entity.getGroup());
+    out.name("position").value(entity.getPosition());
+    out.name("break").value(entity.getCurrentBreakTime());
+    out.endObject();
+  }
+
+  @Override public AutoPlayEntity read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    Note note = new Note();
+    readNote(in, note);
+    return new AutoPlayEntity(note.type, note.group, note.position, note.breakTime);
+  }
+
+  /**
+   * 读取自动播放实体数组,直接编译成时间线,与{@link AutoPlayTimeline#compile}的结果相同
+   *
+   * @param in Json
+   * @return 时间线,Json为null时返回null
+   * @throws IOException 读取失败或者格式错误
+   */
+  public static AutoPlayTimeline readTimeline(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    AutoPlayTimeline.Builder builder = new AutoPlayTimeline.Builder(256);
+    Note note = new Note();
+    long time = 0;
+    in.beginArray();
+    while (in.hasNext()) {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      readNote(in, note);
+      long breakTime = Math.max(0, note.breakTime);
+      int keyIndex = PianoKeyIndex.getKeyIndex(note.type, note.group, note.position);
+      if (keyIndex != PianoKeyIndex.NO_KEY) {
+        builder.addNote(keyIndex, time, breakTime / 2);
+      }
+      time += breakTime;
+    }
+    in.endArray();
+    return builder.setDuration(time).build();
+  }
+
+  private static void readNote(JsonReader in, Note note) throws IOException {
+    note.type = null;
+    note.group = 0;
+    note.position = 0;
+    note.breakTime = 0;
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        if (name.equals("type")) {
+          note.type = null;
+        }
+        continue;
+      }
+      switch (name) {
+        case "type":
+          note.type = toPianoKeyType(in.nextString());
+          break;
+        case "group":
+          note.group = in.nextInt();
+          break;
+        case "position":
+          note.position = in.nextInt();
+          break;
+        case "break":
+          note.breakTime = in.nextLong();
+          break;
+        default:
+          in.skipValue();
+          break;
+      }
+    }
+    in.endObject();
+  }
+
+  private static Piano.PianoKeyType toPianoKeyType(String value) {
+    switch (value) {
+      case "0":
+        return Piano.PianoKeyType.BLACK;
+      case "1":
+        return Piano.PianoKeyType.WHITE;
+      default:
+        return null;
+    }
+  }
+}
@@ -1,15 +1,22 @@
 package com.chengtao.pianoview.utils;
 
-import android.text.TextUtils;
 import android.util.Log;
 import com.chengtao.pianoview.entity.AutoPlayEntity;
 import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import com.chengtao.pianoview.play.ScoreBuffer;
+import com.chengtao.pianoview.play.StreamingAutoPlayer;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,11 +28,14 @@ import java.util.List;
  */
 
 @SuppressWarnings("unchecked") public class AutoPlayUtils {
-  public static final Gson gson = new GsonBuilder().create();
+  //自动播放实体使用手写的TypeAdapter,不使用反射
+  public static final Gson gson = new GsonBuilder()
+      .registerTypeAdapter(AutoPlayEntity.class, new AutoPlayEntityAdapter())
+      .create();
 
   public static ArrayList<AutoPlayEntity> getAutoPlayEntityListByJsonString(
       String configJsonString) {
-    if (!TextUtils.isEmpty(configJsonString)) {
+    if (!isEmpty(configJsonString)) {
       try {
         return gson.fromJson(configJsonString, new TypeToken<List<AutoPlayEntity>>() {
         }.getType());
@@ -75,6 +85,178 @@ import java.util.List;
     return null;
   }
 
+  /**
+   * 边读取边解析自定义配置,用于{@link StreamingAutoPlayer}
+   *
+   * @param customConfigInputStream 自定义配置,UTF-8编码
+   * @return 音符来源
+   */
+  public static StreamingAutoPlayer.ScoreSource getScoreSourceByCustomConfig(
+      InputStream customConfigInputStream) {
+    try {
+      return getScoreSourceByCustomConfig(
+          new InputStreamReader(customConfigInputStream, "UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * 边读取边解析自定义配置,用于{@link StreamingAutoPlayer}
+   *
+   * @param customConfigReader 自定义配置
+   * @return 音符来源
+   */
+  public static StreamingAutoPlayer.ScoreSource getScoreSourceByCustomConfig(
+      final Reader customConfigReader) {
+    return new StreamingAutoPlayer.ScoreSource() {
+      @Override public long read(final ScoreBuffer buffer) throws Exception {
+        try {
+          return parseCustomConfig(customConfigReader, new OnNoteListener() {
+            @Override public boolean onNote(int keyIndex, long onTime, long offTime)
+                throws InterruptedException {
+              return buffer.put(keyIndex, onTime, offTime);
+            }
+          });
+        } finally {
+          customConfigReader.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * 解析自定义配置,直接编译成时间线,不创建自动播放实体
+   *
+   * @param customConfigReader 自定义配置
+   * @return 时间线,配置错误时返回null
+   */
+  public static AutoPlayTimeline getAutoPlayTimelineByCustomConfig(Reader customConfigReader) {
+    final AutoPlayTimeline.Builder builder = new AutoPlayTimeline.Builder();
+    try {
+      long duration = parseCustomConfig(customConfigReader, new OnNoteListener() {
+        @Override public boolean onNote(int keyIndex, long onTime, long offTime) {
+          builder.addNote(keyIndex, onTime, offTime - onTime);
+          return true;
+        }
+      });
+      return builder.setDuration(duration).build();
+    } catch (Exception e) {
+      //配置错误
+      return null;
+    }
+  }
+
+  /**
+   * 流式读取Json配置,直接编译成时间线,不创建自动播放实体
+   *
+   * @param configJsonReader Json配置
+   * @return 时间线,配置错误时返回null
+   */
+  public static AutoPlayTimeline getAutoPlayTimelineByJson(Reader configJsonReader) {
+    if (configJsonReader != null) {
+      try {
+        JsonReader reader = new JsonReader(configJsonReader);
+        //与Gson#fromJson相同
+        reader.setLenient(true);
+        AutoPlayTimeline timeline = AutoPlayEntityAdapter.readTimeline(reader);
+        reader.close();
+        return timeline;
+      } catch (Exception e) {
+        //配置错误
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * 把Json配置转换成二进制乐谱,见{@link BinaryScoreUtils}
+   *
+   * @param configJsonString Json配置
+   * @return 二进制乐谱,配置错误时返回null
+   */
+  public static byte[] convertJsonToBinaryScore(String configJsonString) {
+    if (isEmpty(configJsonString)) {
+      return null;
+    }
+    AutoPlayTimeline timeline = getAutoPlayTimelineByJson(new StringReader(configJsonString));
+    if (timeline == null) {
+      return null;
+    }
+    return BinaryScoreUtils.toByteArray(timeline);
+  }
+
+  /**
+   * 把自定义配置转换成二进制乐谱,见{@link BinaryScoreUtils}
+   *
+   * @param customConfigReader 自定义配置
+   * @return 二进制乐谱,配置错误时返回null
+   */
+  public static byte[] convertCustomConfigToBinaryScore(Reader customConfigReader) {
+    AutoPlayTimeline timeline = getAutoPlayTimelineByCustomConfig(customConfigReader);
+    if (timeline == null) {
+      return null;
+    }
+    return BinaryScoreUtils.toByteArray(timeline);
+  }
+
+  /**
+   * 解析自定义配置,每个音符按下一个钢琴键,在间隔时间的一半时抬起,
+   * 与{@link AutoPlayTimeline#compile}相同
+   *
+   * @return 总时长,毫秒
+   */
+  private static long parseCustomConfig(Reader reader, OnNoteListener listener)
+      throws Exception {
+    NoteTimer timer = new NoteTimer(listener);
+    PianoConvertUtils.parseKeys(reader, timer);
+    return timer.time;
+  }
+
+  private interface OnNoteListener {
+    /**
+     * @return 是否继续解析
+     */
+    boolean onNote(int keyIndex, long onTime, long offTime) throws InterruptedException;
+  }
+
+  /**
+   * 累加间隔时间,把钢琴键下标转换成带按下和抬起时间的音符
+   */
+  private static final class NoteTimer implements PianoConvertUtils.OnKeyListener {
+    private final OnNoteListener listener;
+    //下一个音符的按下时间
+    private long time = 0;
+
+    NoteTimer(OnNoteListener listener) {
+      this.listener = listener;
+    }
+
+    @Override public boolean onKey(int keyIndex, long duration) throws Exception {
+      long breakTime = Math.max(0, duration);
+      if (keyIndex != PianoKeyIndex.NO_KEY
+          && !listener.onNote(keyIndex, time, time + breakTime / 2)) {
+        return false;
+      }
+      time += breakTime;
+      return true;
+    }
+  }
+
+  private static boolean isEmpty(String string) {
+    return string == null || string.isEmpty();
+  }
+
+  private static Piano.PianoKeyType getPianoKeyType(PianoConvertUtils.PianoKey key) {
+    if (key.getType() == PianoConvertUtils.PianoKey.BLACK_KEY) {
+      return Piano.PianoKeyType.BLACK;
+    } else if (key.getType() == PianoConvertUtils.PianoKey.WHITE_KEY) {
+      return Piano.PianoKeyType.WHITE;
+    }
+    return null;
+  }
+
   public static ArrayList<AutoPlayEntity> convertToAutoPlayEntityList(
       List<PianoConvertUtils.PianoKey> keyList) {
     if (keyList != null && keyList.size() > 0) {
@@ -82,11 +264,7 @@ import java.util.List;
       for (PianoConvertUtils.PianoKey key : keyList) {
         if (key != null) {
           AutoPlayEntity entity = new AutoPlayEntity();
-          if (key.getType() == PianoConvertUtils.PianoKey.BLACK_KEY) {
-            entity.setType(Piano.PianoKeyType.BLACK);
-          } else if (key.getType() == PianoConvertUtils.PianoKey.WHITE_KEY) {
-            entity.setType(Piano.PianoKeyType.WHITE);
-          }
+          entity.setType(getPianoKeyType(key));
           entity.setCurrentBreakTime(key.getFrequency());
           entity.setGroup(key.getGroup());
           entity.setPosition(key.getPosition());
@@ -0,0 +1,183 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 二进制乐谱
+ * <p>
+ * 格式(大端):
+ * <pre>
+ * 文件头 18字节: "PVSC" | 版本 u8 | 标志 u8 | 音符数目 u32 | 总时长 u64(毫秒)
+ * 音符: 钢琴键下标 u8 | 力度 u8 | 与上一个音符按下时间的间隔 varint | 持续时间 varint
+ * </pre>
+ * 音符按按下时间排序,varint为无符号LEB128,一个音符通常只占4到5个字节。
+ * 读取时直接从(内存映射的)ByteBuffer解码到时间线的基本类型数组,不需要创建对象。
+ */
+public class BinaryScoreUtils {
+  public static final int VERSION = 1;
+  private static final byte[] MAGIC = { 'P', 'V', 'S', 'C' };
+  private static final int HEADER_SIZE = 18;
+
+  public static final class Error {
+    public static final String NOT_BINARY_SCORE = "not binary score";
+    public static final String UNSUPPORTED_VERSION = "unsupported version";
+    public static final String SCORE_TRUNCATED = "score truncated";
+    public static final String KEY_INDEX_WRONG = "key index wrong";
+  }
+
+  /**
+   * 写入时间线
+   *
+   * @param timeline 时间线
+   * @param os 输出流,不会关闭
+   * @throws IOException 写入失败
+   */
+  public static void write(AutoPlayTimeline timeline, OutputStream os) throws IOException {
+    int size = timeline.size();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.put(MAGIC).put((byte) VERSION).put((byte) 0).putInt(size)
+        .putLong(timeline.getDuration());
+    os.write(header.array());
+    byte[] buffer = new byte[8192];
+    int position = 0;
+    long lastOnTime = 0;
+    for (int i = 0; i < size; i++) {
+      //一个音符最多22个字节
+      if (position > buffer.length - 22) {
+        os.write(buffer, 0, position);
+        position = 0;
+      }
+      long onTime = timeline.getOnTime(i);
+      buffer[position++] = (byte) timeline.getKeyIndex(i);
+      buffer[position++] = (byte) timeline.getVelocity(i);
+      position = putVarLong(buffer, position, onTime - lastOnTime);
+      position = putVarLong(buffer, position, timeline.getOffTime(i) - onTime);
+      lastOnTime = onTime;
+    }
+    os.write(buffer, 0, position);
+  }
+
+  /**
+   * 转换成二进制乐谱
+   *
+   * @param timeline 时间线
+   * @return 二进制乐谱
+   */
+  public static byte[] toByteArray(AutoPlayTimeline timeline) {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(HEADER_SIZE + timeline.size() * 5);
+    try {
+      write(timeline, os);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return os.toByteArray();
+  }
+
+  /**
+   * 内存映射读取二进制乐谱文件
+   *
+   * @param file 文件
+   * @return 时间线
+   * @throws IOException 读取失败或者格式错误
+   */
+  public static AutoPlayTimeline read(File file) throws IOException {
+    FileInputStream fis = new FileInputStream(file);
+    try {
+      FileChannel channel = fis.getChannel();
+      return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      fis.close();
+    }
+  }
+
+  /**
+   * 读取二进制乐谱,例如assets中的文件
+   *
+   * @param is 输入流,不会关闭
+   * @return 时间线
+   * @throws IOException 读取失败或者格式错误
+   */
+  public static AutoPlayTimeline read(InputStream is) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(Math.max(is.available(), 1024));
+    byte[] buffer = new byte[8192];
+    int length;
+    while ((length = is.read(buffer)) != -1) {
+      os.write(buffer, 0, length);
+    }
+    return read(ByteBuffer.wrap(os.toByteArray()));
+  }
+
+  /**
+   * 从当前位置读取二进制乐谱
+   *
+   * @param buffer 二进制乐谱
+   * @return 时间线
+   * @throws IOException 格式错误
+   */
+  public static AutoPlayTimeline read(ByteBuffer buffer) throws IOException {
+    try {
+      for (byte b : MAGIC) {
+        if (buffer.get() != b) {
+          throw new IOException(Error.NOT_BINARY_SCORE);
+        }
+      }
+      int version = buffer.get() & 0xFF;
+      if (version > VERSION) {
+        throw new IOException(Error.UNSUPPORTED_VERSION + ":" + version);
+      }
+      buffer.get();
+      int size = buffer.getInt();
+      long duration = buffer.getLong();
+      //每个音符至少4个字节,避免错误的数目分配过大的数组
+      if (size < 0 || size > buffer.remaining() / 4) {
+        throw new IOException(Error.SCORE_TRUNCATED);
+      }
+      AutoPlayTimeline.Builder builder = new AutoPlayTimeline.Builder(size);
+      long onTime = 0;
+      for (int i = 0; i < size; i++) {
+        int keyIndex = buffer.get() & 0xFF;
+        int velocity = buffer.get() & 0xFF;
+        onTime += getVarLong(buffer);
+        long noteDuration = getVarLong(buffer);
+        if (keyIndex >= Piano.PIANO_NUMS) {
+          throw new IOException(Error.KEY_INDEX_WRONG + ":" + keyIndex);
+        }
+        builder.addNote(keyIndex, onTime, noteDuration, velocity);
+      }
+      return builder.setDuration(duration).build();
+    } catch (BufferUnderflowException e) {
+      throw new IOException(Error.SCORE_TRUNCATED);
+    }
+  }
+
+  private static int putVarLong(byte[] buffer, int position, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[position++] = (byte) value;
+    return position;
+  }
+
+  private static long getVarLong(ByteBuffer buffer) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException(Error.SCORE_TRUNCATED);
+  }
+}
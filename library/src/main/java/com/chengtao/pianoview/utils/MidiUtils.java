@@ -0,0 +1,384 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 标准MIDI文件(SMF)的读取和写入
+ * <p>
+ * 读取支持格式0和1、速度变化、running status和SMPTE时间,
+ * MIDI音符21(A0)到108(C8)对应钢琴键下标0到87,超出范围的音符被忽略。
+ * 事件直接写入基本类型数组,不为每个事件创建对象,最后按速度表换算成毫秒。
+ */
+public class MidiUtils {
+  //A0的MIDI音符
+  public static final int FIRST_NOTE = 21;
+  //写入时每个四分音符的tick数,与默认速度一起使一个tick为1毫秒
+  private static final int WRITE_DIVISION = 500;
+  //默认速度,每个四分音符的微秒数(120BPM)
+  private static final int DEFAULT_TEMPO = 500000;
+
+  public static final class Error {
+    public static final String NOT_MIDI_FILE = "not midi file";
+    public static final String UNSUPPORTED_FORMAT = "unsupported format";
+    public static final String TRACK_WRONG = "track wrong";
+  }
+
+  /**
+   * 读取标准MIDI文件
+   *
+   * @param is 输入流,不会关闭
+   * @return 时间线
+   * @throws IOException 读取失败或者格式错误
+   */
+  public static AutoPlayTimeline read(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    if (in.readInt() != 0x4D546864) {
+      throw new IOException(Error.NOT_MIDI_FILE);
+    }
+    int headerLength = in.readInt();
+    int format = in.readUnsignedShort();
+    int tracks = in.readUnsignedShort();
+    int division = in.readShort();
+    skipFully(in, headerLength - 6);
+    if (format > 1) {
+      throw new IOException(Error.UNSUPPORTED_FORMAT + ":" + format);
+    }
+    TrackReader reader = new TrackReader();
+    int track = 0;
+    while (track < tracks) {
+      int type;
+      int length;
+      try {
+        type = in.readInt();
+        length = in.readInt();
+      } catch (EOFException e) {
+        break;
+      }
+      if (type == 0x4D54726B) {
+        reader.read(in, length);
+        track++;
+      } else {
+        //跳过未知的块
+        skipFully(in, length);
+      }
+    }
+    return reader.build(division);
+  }
+
+  /**
+   * 写入格式0的标准MIDI文件,每个tick为1毫秒
+   *
+   * @param timeline 时间线
+   * @param os 输出流,不会关闭
+   * @throws IOException 写入失败
+   */
+  public static void write(AutoPlayTimeline timeline, OutputStream os) throws IOException {
+    ByteArrayOutputStream track = new ByteArrayOutputStream(timeline.size() * 8 + 32);
+    //速度
+    writeVarInt(track, 0);
+    track.write(new byte[] {
+        (byte) 0xFF, 0x51, 3, (byte) (DEFAULT_TEMPO >> 16), (byte) (DEFAULT_TEMPO >> 8),
+        (byte) DEFAULT_TEMPO
+    });
+    //合并按下和抬起两个事件流,时间相同时先抬起
+    int size = timeline.size();
+    int on = 0;
+    int off = 0;
+    long lastTime = 0;
+    while (off < size) {
+      int offNote = timeline.getNoteOfOff(off);
+      boolean isKeyUp = offNote < on
+          && (on >= size || timeline.getOffTime(offNote) <= timeline.getOnTime(on));
+      int note = isKeyUp ? offNote : on;
+      long time = isKeyUp ? timeline.getOffTime(note) : timeline.getOnTime(note);
+      writeVarInt(track, (int) Math.min(time - lastTime, 0x0FFFFFFF));
+      lastTime = time;
+      if (isKeyUp) {
+        track.write(0x80);
+        track.write(timeline.getKeyIndex(note) + FIRST_NOTE);
+        track.write(0x40);
+        off++;
+      } else {
+        track.write(0x90);
+        track.write(timeline.getKeyIndex(note) + FIRST_NOTE);
+        //力度为0的按下表示抬起
+        track.write(Math.max(1, timeline.getVelocity(note)));
+        on++;
+      }
+    }
+    writeVarInt(track, (int) Math.max(0, Math.min(timeline.getDuration() - lastTime, 0x0FFFFFFF)));
+    track.write(new byte[] { (byte) 0xFF, 0x2F, 0 });
+    byte[] header = {
+        'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 0, 0, 1, (byte) (WRITE_DIVISION >> 8),
+        (byte) WRITE_DIVISION, 'M', 'T', 'r', 'k', (byte) (track.size() >> 24),
+        (byte) (track.size() >> 16), (byte) (track.size() >> 8), (byte) track.size()
+    };
+    os.write(header);
+    track.writeTo(os);
+  }
+
+  private static void writeVarInt(OutputStream os, int value) throws IOException {
+    int shift = 21;
+    while (shift > 0 && (value >>> shift) == 0) {
+      shift -= 7;
+    }
+    for (; shift > 0; shift -= 7) {
+      os.write(((value >>> shift) & 0x7F) | 0x80);
+    }
+    os.write(value & 0x7F);
+  }
+
+  private static void skipFully(DataInputStream in, int length) throws IOException {
+    while (length > 0) {
+      int skipped = in.skipBytes(length);
+      if (skipped <= 0) {
+        //skipBytes不区分结束和暂时不能跳过,读一个字节判断
+        in.readByte();
+        skipped = 1;
+      }
+      length -= skipped;
+    }
+  }
+
+  /**
+   * 依次读取所有音轨,音符和速度变化以tick为单位保存在数组中
+   */
+  private static final class TrackReader {
+    private int[] keyIndexes = new int[256];
+    private int[] velocities = new int[256];
+    private long[] onTicks = new long[256];
+    private long[] offTicks = new long[256];
+    private int noteCount = 0;
+    private long[] tempoTicks = new long[8];
+    private int[] tempos = new int[8];
+    private int tempoCount = 0;
+    private long endTick = 0;
+    //每个声道每个音符正在按下的音符下标
+    private final int[] pending = new int[16 * 128];
+    //上一次readVarInt读取的字节数
+    private int varIntLength;
+
+    void read(DataInputStream in, int length) throws IOException {
+      Arrays.fill(pending, -1);
+      long tick = 0;
+      //running status,声道消息设置,meta和sysex事件清除
+      int runningStatus = 0;
+      int position = 0;
+      while (position < length) {
+        tick += readVarInt(in);
+        position += varIntLength;
+        int status;
+        int data = in.readUnsignedByte();
+        position++;
+        if (data >= 0x80) {
+          status = data;
+          if (status < 0xF0) {
+            runningStatus = status;
+            data = in.readUnsignedByte();
+            position++;
+          } else {
+            runningStatus = 0;
+          }
+        } else if (runningStatus != 0) {
+          status = runningStatus;
+        } else {
+          throw new IOException(Error.TRACK_WRONG);
+        }
+        switch (status & 0xF0) {
+          case 0x80:
+          case 0x90: {
+            int velocity = in.readUnsignedByte();
+            position++;
+            int channelNote = ((status & 0x0F) << 7) | data;
+            closeNote(channelNote, tick);
+            if ((status & 0xF0) == 0x90 && velocity > 0) {
+              openNote(channelNote, data, velocity, tick);
+            }
+            break;
+          }
+          case 0xA0:
+          case 0xB0:
+          case 0xE0:
+            in.readUnsignedByte();
+            position++;
+            break;
+          case 0xC0:
+          case 0xD0:
+            break;
+          default:
+            if (status == 0xFF) {
+              int type = in.readUnsignedByte();
+              position++;
+              int metaLength = readVarInt(in);
+              position += varIntLength;
+              if (type == 0x51 && metaLength == 3) {
+                addTempo(tick, (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8)
+                    | in.readUnsignedByte());
+              } else {
+                skipFully(in, metaLength);
+              }
+              position += metaLength;
+              if (type == 0x2F) {
+                skipFully(in, length - position);
+                position = length;
+              }
+            } else if (status == 0xF0 || status == 0xF7) {
+              int sysexLength = readVarInt(in);
+              position += varIntLength;
+              skipFully(in, sysexLength);
+              position += sysexLength;
+            } else {
+              throw new IOException(Error.TRACK_WRONG);
+            }
+            break;
+        }
+      }
+      //没有抬起的音符在音轨结束时抬起
+      for (int channelNote = 0; channelNote < pending.length; channelNote++) {
+        closeNote(channelNote, tick);
+      }
+      endTick = Math.max(endTick, tick);
+    }
+
+    private void openNote(int channelNote, int note, int velocity, long tick) {
+      int keyIndex = note - FIRST_NOTE;
+      if (keyIndex < 0 || keyIndex >= Piano.PIANO_NUMS) {
+        return;
+      }
+      if (noteCount == keyIndexes.length) {
+        int capacity = noteCount * 2;
+        keyIndexes = Arrays.copyOf(keyIndexes, capacity);
+        velocities = Arrays.copyOf(velocities, capacity);
+        onTicks = Arrays.copyOf(onTicks, capacity);
+        offTicks = Arrays.copyOf(offTicks, capacity);
+      }
+      keyIndexes[noteCount] = keyIndex;
+      velocities[noteCount] = velocity;
+      onTicks[noteCount] = tick;
+      offTicks[noteCount] = tick;
+      pending[channelNote] = noteCount++;
+    }
+
+    private void closeNote(int channelNote, long tick) {
+      int note = pending[channelNote];
+      if (note >= 0) {
+        offTicks[note] = tick;
+        pending[channelNote] = -1;
+      }
+    }
+
+    private void addTempo(long tick, int tempo) {
+      if (tempoCount == tempos.length) {
+        tempoTicks = Arrays.copyOf(tempoTicks, tempoCount * 2);
+        tempos = Arrays.copyOf(tempos, tempoCount * 2);
+      }
+      //保持按tick排序,同一tick后面的覆盖前面的
+      int i = tempoCount;
+      while (i > 0 && tempoTicks[i - 1] > tick) {
+        i--;
+      }
+      System.arraycopy(tempoTicks, i, tempoTicks, i + 1, tempoCount - i);
+      System.arraycopy(tempos, i, tempos, i + 1, tempoCount - i);
+      tempoTicks[i] = tick;
+      tempos[i] = tempo;
+      tempoCount++;
+    }
+
+    AutoPlayTimeline build(int division) throws IOException {
+      TempoMap map = new TempoMap(division, tempoTicks, tempos, tempoCount);
+      AutoPlayTimeline.Builder builder = new AutoPlayTimeline.Builder(Math.max(1, noteCount));
+      for (int i = 0; i < noteCount; i++) {
+        long onTime = map.toMillis(onTicks[i]);
+        builder.addNote(keyIndexes[i], onTime, map.toMillis(offTicks[i]) - onTime, velocities[i]);
+      }
+      return builder.setDuration(map.toMillis(endTick)).build();
+    }
+
+    private int readVarInt(DataInputStream in) throws IOException {
+      int value = 0;
+      for (int i = 1; i <= 4; i++) {
+        int b = in.readUnsignedByte();
+        value = (value << 7) | (b & 0x7F);
+        if (b < 0x80) {
+          varIntLength = i;
+          return value;
+        }
+      }
+      throw new IOException(Error.TRACK_WRONG);
+    }
+  }
+
+  /**
+   * 速度表,把tick换算成毫秒
+   */
+  private static final class TempoMap {
+    private final long[] ticks;
+    private final int[] tempos;
+    //每段开始时的微秒数
+    private final long[] micros;
+    private final int count;
+    private final int division;
+    //SMPTE时间,每秒的tick数,否则为0
+    private final int ticksPerSecond;
+
+    TempoMap(int division, long[] tempoTicks, int[] tempos, int tempoCount) throws IOException {
+      if (division < 0) {
+        int framesPerSecond = -(division >> 8);
+        this.ticksPerSecond = framesPerSecond * (division & 0xFF);
+        this.division = 0;
+      } else {
+        this.ticksPerSecond = 0;
+        this.division = division;
+      }
+      if (this.division == 0 && ticksPerSecond <= 0) {
+        throw new IOException(Error.UNSUPPORTED_FORMAT + ":division " + division);
+      }
+      //第一段从0开始,默认速度
+      ticks = new long[tempoCount + 1];
+      this.tempos = new int[tempoCount + 1];
+      micros = new long[tempoCount + 1];
+      this.tempos[0] = DEFAULT_TEMPO;
+      int count = 1;
+      for (int i = 0; i < tempoCount; i++) {
+        if (tempoTicks[i] == ticks[count - 1]) {
+          this.tempos[count - 1] = tempos[i];
+        } else {
+          ticks[count] = tempoTicks[i];
+          this.tempos[count] = tempos[i];
+          if (this.division > 0) {
+            micros[count] = micros[count - 1]
+                + (ticks[count] - ticks[count - 1]) * this.tempos[count - 1] / this.division;
+          }
+          count++;
+        }
+      }
+      this.count = count;
+    }
+
+    long toMillis(long tick) {
+      if (ticksPerSecond > 0) {
+        return tick * 1000 / ticksPerSecond;
+      }
+      int low = 0;
+      int high = count - 1;
+      while (low < high) {
+        int mid = (low + high + 1) >>> 1;
+        if (ticks[mid] <= tick) {
+          low = mid;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return (micros[low] + (tick - ticks[low]) * tempos[low] / division) / 1000;
+    }
+  }
+}
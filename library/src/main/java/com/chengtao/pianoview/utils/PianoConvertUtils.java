@@ -1,17 +1,16 @@
 package com.chengtao.pianoview.utils;
 
-import android.text.TextUtils;
-import android.util.Log;
-import java.io.BufferedReader;
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -25,15 +24,10 @@ public class PianoConvertUtils {
   private static final int STANDARD_DO_GROUP = 3;
   private static final int STANDARD_DO_POSITION = 0;
   private static final long STANDARD_FREQUENCY = 240;
-  private static final String NUMBER_REGEX = "^\\d+$";
-  private static final String MUSIC_NUMBER_REGEX = "^[0-7](\\*(0\\.25|0\\.5|2|4|6|8))?$";
-  private static final String MUSIC_HML_NUMBER_REGEX = "^[H,M,L][0-7](\\*(0\\.25|0\\.5|2|4|6|8))?$";
-  private static final String MUSIC_HO_NUMBER_LO_NUMBER_REGEX =
-      "^HO[0-7](\\*(0\\.25|0\\.5|2|4))?$|^LO[0-7](\\*(0\\.25|0\\.5|2|4|6|8))?$";
-  private static final String MUSIC_HO_HML_NUMBER_LO_HML_NUMBER_REGEX =
-      "^HO[H,M,L][0-7](\\*(0\\.25|0\\.5|2|4))?$|^LO[H,M,L][0-7](\\*(0\\.25|0\\.5|2|4|6|8))?$";
-  private static final HashSet<Integer> HIGH_BLACK = new HashSet<>(Arrays.asList(1, 2, 4, 5, 6));
-  private static final HashSet<Integer> LOW_BLACK = new HashSet<>(Arrays.asList(7, 4, 5, 3, 2));
+  //升高之后是黑键的简谱数字,第n位表示数字n
+  private static final int HIGH_BLACK = (1 << 1) | (1 << 2) | (1 << 4) | (1 << 5) | (1 << 6);
+  //降低之后是黑键的简谱数字
+  private static final int LOW_BLACK = (1 << 7) | (1 << 4) | (1 << 5) | (1 << 3) | (1 << 2);
 
   public static final class Error {
     public static final String FILE_NOT_EXIT = "file not exist";
@@ -121,18 +115,11 @@ public class PianoConvertUtils {
 
   public static Object[] convertByInputStream(InputStream is) throws Throwable {
     if (is != null) {
-      StringBuilder stringBuilder = new StringBuilder();
-      String line;
       try {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-        while ((line = reader.readLine()) != null) {
-          stringBuilder.append(line);
-        }
-        convertByConfigString(stringBuilder.toString());
+        return convert(new InputStreamReader(is, "UTF-8"));
       } catch (IOException e) {
         throw new Exception(Error.READ_FILE_EXCEPTION);
       }
-      return convertByConfigString(stringBuilder.toString());
     } else {
       throw new Exception(Error.READ_FILE_EXCEPTION);
     }
@@ -143,226 +130,337 @@ public class PianoConvertUtils {
         && !configString.equals("")
         && configString.indexOf("{") == 0
         && configString.contains("}")) {
-      StringBuilder stringBuilder = new StringBuilder();
-      boolean nameStart = false;
-      boolean nameEnd = false;
-      for (char c : configString.toCharArray()) {
-        if (!nameStart || nameEnd) {//读取名称没有开始或者已经结束
-          if (!Character.isWhitespace(c)) {//去掉所有空白符
-            stringBuilder.append(c);
-          }
-        } else {
-          stringBuilder.append(c);
-        }
-        if (!nameStart) {
-          if (c == ':') {
-            int length = stringBuilder.length();
-            if (length >= 5) {
-              String name = stringBuilder.substring(length - 5, length - 1);
-              if (name.equals("name")) {
-                nameStart = true;
-              }
-            }
-          }
-        }
-        if (nameStart && (c == ';' || c == '}')) {
-          nameEnd = true;
-        }
-      }
-      return convert(stringBuilder.toString());
+      return convert(new StringReader(configString));
     } else {
       throw new Exception(Error.CONFIG_FILE_WRONG);
     }
   }
 
-  private static Object[] convert(String configString) throws Throwable {
-    Object[] result = new Object[3];
-    int currentDoGroup = STANDARD_DO_GROUP;
-    int currentDoPosition = STANDARD_DO_POSITION;
-    long currentFrequency = STANDARD_FREQUENCY;
-    String name = null;
-    StringBuilder baseConfigBuilder = new StringBuilder();
-    int musicNoteConfigStartIndex = 0;
-    for (char c : configString.toCharArray()) {
-      baseConfigBuilder.append(c);
-      musicNoteConfigStartIndex++;
-      if (c == '}') {
-        break;
+  /**
+   * 流式解析配置,一边读取一边通过listener返回音符
+   * <p>
+   * 只读取一遍,不使用正则表达式,占用的内存与配置的长度无关,
+   * 音符的格式错误时抛出异常,在此之前的音符已经返回。
+   *
+   * @param reader 配置
+   * @param listener 音符接口
+   * @return 乐曲名称
+   * @throws Exception 配置错误或者读取失败
+   */
+  public static String parse(Reader reader, OnNoteListener listener) throws Exception {
+    return new ScoreReader(listener, null, null).read(reader);
+  }
+
+  /**
+   * 边读取边解析配置,直接返回钢琴键下标,不创建任何对象,
+   * listener返回false时提前结束
+   *
+   * @param reader 配置
+   * @param listener 钢琴键下标接口
+   * @return 乐曲名称
+   * @throws Exception 配置错误或者读取失败
+   */
+  public static String parseKeys(Reader reader, OnKeyListener listener) throws Exception {
+    return new ScoreReader(null, listener, null).read(reader);
+  }
+
+  private static Object[] convert(Reader reader) throws Exception {
+    final List<PianoKey> pianoKeyList = new ArrayList<>();
+    StringBuilder configString = new StringBuilder();
+    String name = new ScoreReader(new OnNoteListener() {
+      @Override public void onNote(PianoKey key) {
+        pianoKeyList.add(key);
       }
+    }, null, configString).read(reader);
+    Object[] result = new Object[3];
+    result[0] = name;
+    result[1] = configString.toString();
+    result[2] = pianoKeyList;
+    return result;
+  }
+
+  /**
+   * 音符接口
+   */
+  public interface OnNoteListener {
+    /**
+     * 解析到一个音符
+     *
+     * @param key 钢琴键,休止符的类型为{@link PianoKey#NULL_KEY}
+     * @throws Exception 异常,会结束解析
+     */
+    void onNote(PianoKey key) throws Exception;
+  }
+
+  /**
+   * 钢琴键下标接口
+   */
+  public interface OnKeyListener {
+    /**
+     * 解析到一个音符
+     *
+     * @param keyIndex 钢琴键下标,A0为0,C8为87,休止符或者超出范围时为{@link PianoKeyIndex#NO_KEY}
+     * @param duration 音符的时长,毫秒
+     * @return 是否继续解析
+     * @throws Exception 异常,会结束解析
+     */
+    boolean onKey(int keyIndex, long duration) throws Exception;
+  }
+
+  /**
+   * 配置的单遍解析器
+   * <p>
+   * 换行符被忽略(与按行读取后拼接相同),除了名称之外的空白符都被去掉,
+   * 第一个'}'之前是基本配置,之后是用'|'分隔小节、用','分隔的音符。
+   */
+  private static final class ScoreReader {
+    private static final int BUFFER_SIZE = 4096;
+    //倍数,最后两个不能用于高八度
+    private static final String[] TIMES_STRINGS = { "0.25", "0.5", "2", "4", "6", "8" };
+    private static final float[] TIMES = { 0.25f, 0.5f, 2f, 4f, 6f, 8f };
+    private static final int HIGH_TUNE_TIMES_COUNT = 4;
+    private final OnNoteListener listener;
+    private final OnKeyListener keyListener;
+    //用于拼接去掉空白符之后的配置,可以为null
+    private final StringBuilder echo;
+    private final StringBuilder header = new StringBuilder();
+    private final StringBuilder token = new StringBuilder();
+    //该小节升高和降低的简谱数字,第n位表示数字n
+    private int highSet = 0;
+    private int lowSet = 0;
+    //resolveKey的结果
+    private int keyType;
+    private int keyGroup;
+    private int keyPosition;
+    private int currentDoGroup = STANDARD_DO_GROUP;
+    private int currentDoPosition = STANDARD_DO_POSITION;
+    private long currentFrequency = STANDARD_FREQUENCY;
+    //keyListener要求结束解析
+    private boolean isCancelled = false;
+
+    ScoreReader(OnNoteListener listener, OnKeyListener keyListener, StringBuilder echo) {
+      this.listener = listener;
+      this.keyListener = keyListener;
+      this.echo = echo;
     }
-    // 基本配置
-    String baseConfigString = baseConfigBuilder.substring(1, baseConfigBuilder.length() - 1);
-    for (String baseConfig : baseConfigString.split(";")) {
-      if (!baseConfig.equals("")) {
-        if (baseConfig.contains("tune:")) {
-          String tune = baseConfig.replace("tune:", "");
-          if (tune.length() != 1) {
-            throw new Exception(Error.TUNE_LENGTH_NOT_ONE);
-          }
-          char charTune = tune.toUpperCase().charAt(0);
-          if (charTune < 'A' || charTune > 'G') {
-            throw new Exception(Error.TUNE_NOT_IN_RANGE);
-          }
-          if (charTune == 'A') {
-            currentDoGroup--;
-            currentDoPosition = 5;
-          } else if (charTune == 'B') {
-            currentDoGroup--;
-            currentDoPosition = 6;
-          } else {
-            currentDoPosition += ((int) charTune - (int) ('C'));
+
+    String read(Reader reader) throws Exception {
+      char[] buffer = new char[BUFFER_SIZE];
+      boolean isFirst = true;
+      boolean isHeader = true;
+      boolean nameStart = false;
+      boolean nameEnd = false;
+      String name = null;
+      int count;
+      while ((count = reader.read(buffer)) != -1) {
+        for (int i = 0; i < count; i++) {
+          char c = buffer[i];
+          if (c == '\n' || c == '\r') {
+            continue;
           }
-        } else if (baseConfig.contains("frequency:")) {
-          String frequency = baseConfig.replace("frequency:", "");
-          if (!frequency.matches(NUMBER_REGEX)) {
-            throw new Exception(Error.FREQUENCY_NOT_NUMBER);
+          if (isFirst) {
+            isFirst = false;
+            if (c != '{') {
+              throw new Exception(Error.CONFIG_FILE_WRONG);
+            }
           }
-          currentFrequency = Long.valueOf(frequency);
-          if (currentFrequency < 60 || currentFrequency > 4000) {
-            throw new Exception(Error.FREQUENCY_NOT_IN_RANGE);
+          if (isHeader) {
+            if (!nameStart || nameEnd) {//读取名称没有开始或者已经结束
+              if (!Character.isWhitespace(c)) {//去掉所有空白符
+                header.append(c);
+              }
+            } else {
+              header.append(c);
+            }
+            if (!nameStart && c == ':') {
+              int length = header.length();
+              if (length >= 5 && header.lastIndexOf("name", length - 5) == length - 5) {
+                nameStart = true;
+              }
+            }
+            if (nameStart && (c == ';' || c == '}')) {
+              nameEnd = true;
+            }
+            if (c == '}') {
+              isHeader = false;
+              name = readHeader();
+              if (echo != null) {
+                echo.append(header);
+              }
+            }
+          } else if (!Character.isWhitespace(c)) {
+            if (echo != null) {
+              echo.append(c);
+            }
+            if (c == ',' || c == '|') {
+              readNote();
+              if (isCancelled) {
+                return name;
+              }
+              if (c == '|') {
+                highSet = 0;
+                lowSet = 0;
+              }
+            } else {
+              token.append(c);
+            }
           }
-        } else if (baseConfig.contains("name:")) {
-          name = baseConfig.replace("name:", "");
         }
       }
+      if (isHeader) {
+        throw new Exception(Error.CONFIG_FILE_WRONG);
+      }
+      readNote();
+      return name;
     }
-    if (TextUtils.isEmpty(name)) {
-      throw new Exception(Error.NO_MUSIC_NAME);
-    }
-    result[0] = name;
-    result[1] = configString;
-    Log.e("TAG", "convert(PianoConvertUtils.java:" + Thread.currentThread()
-        .getStackTrace()[2].getLineNumber() + ")" + "configString:" + configString);
-    // 音符配置
-    String musicConfigString = configString.substring(musicNoteConfigStartIndex);
-    HashSet<Integer> highSet = new HashSet<>();
-    HashSet<Integer> lowSet = new HashSet<>();
-    List<PianoKey> pianoKeyList = new ArrayList<>();
-    for (String musicNotePart : musicConfigString.split("\\|")) {
-      for (String musicNote : musicNotePart.split(",")) {
-        if (!musicNote.equals("")) {
-          if (musicNote.matches(MUSIC_NUMBER_REGEX)) {
-            addNumberKey(currentDoGroup, currentDoPosition, currentFrequency, highSet, lowSet,
-                pianoKeyList, musicNote, false, false);
-          } else if (musicNote.matches(MUSIC_HML_NUMBER_REGEX)) {
-            addHighLowNumberKey(currentDoGroup, currentDoPosition, currentFrequency, highSet,
-                lowSet, pianoKeyList, musicNote, false, false);
-          } else if (musicNote.matches(MUSIC_HO_NUMBER_LO_NUMBER_REGEX)) {
-            String number = musicNote.substring(2);
-            if (musicNote.contains("HO")) {
-              addNumberKey(currentDoGroup, currentDoPosition, currentFrequency, highSet, lowSet,
-                  pianoKeyList, number, true, false);
-            } else if (musicNote.contains("LO")) {
-              addNumberKey(currentDoGroup, currentDoPosition, currentFrequency, highSet, lowSet,
-                  pianoKeyList, number, false, true);
+
+    /**
+     * 解析基本配置
+     *
+     * @return 乐曲名称
+     */
+    private String readHeader() throws Exception {
+      String name = null;
+      String baseConfigString = header.substring(1, header.length() - 1);
+      for (String baseConfig : baseConfigString.split(";")) {
+        if (!baseConfig.equals("")) {
+          if (baseConfig.contains("tune:")) {
+            String tune = baseConfig.replace("tune:", "");
+            if (tune.length() != 1) {
+              throw new Exception(Error.TUNE_LENGTH_NOT_ONE);
             }
-          } else if (musicNote.matches(MUSIC_HO_HML_NUMBER_LO_HML_NUMBER_REGEX)) {
-            String remainString = musicNote.substring(2);
-            if (musicNote.contains("HO")) {
-              addHighLowNumberKey(currentDoGroup, currentDoPosition, currentFrequency, highSet,
-                  lowSet, pianoKeyList, remainString, true, false);
-            } else if (musicNote.contains("LO")) {
-              addHighLowNumberKey(currentDoGroup, currentDoPosition, currentFrequency, highSet,
-                  lowSet, pianoKeyList, remainString, false, true);
+            char charTune = tune.toUpperCase().charAt(0);
+            if (charTune < 'A' || charTune > 'G') {
+              throw new Exception(Error.TUNE_NOT_IN_RANGE);
             }
-          } else {
-            throw new Exception(Error.MUSIC_NOTE_CONFIG_WRONG + ":" + musicNote);
+            if (charTune == 'A') {
+              currentDoGroup--;
+              currentDoPosition = 5;
+            } else if (charTune == 'B') {
+              currentDoGroup--;
+              currentDoPosition = 6;
+            } else {
+              currentDoPosition += ((int) charTune - (int) ('C'));
+            }
+          } else if (baseConfig.contains("frequency:")) {
+            String frequency = baseConfig.replace("frequency:", "");
+            if (!isNumber(frequency)) {
+              throw new Exception(Error.FREQUENCY_NOT_NUMBER);
+            }
+            currentFrequency = Long.valueOf(frequency);
+            if (currentFrequency < 60 || currentFrequency > 4000) {
+              throw new Exception(Error.FREQUENCY_NOT_IN_RANGE);
+            }
+          } else if (baseConfig.contains("name:")) {
+            name = baseConfig.replace("name:", "");
           }
         }
       }
-      highSet.clear();
-      lowSet.clear();
-    }
-    result[2] = pianoKeyList;
-    return result;
-  }
-
-  /**
-   * 添加有高音或者低音的钢琴键
-   *
-   * @param currentDoGroup 当前do所在的组数
-   * @param currentDoPosition 当前do所在组数下的位置
-   * @param currentFrequency 当前的默认频率
-   * @param highSet 高音集合
-   * @param lowSet 低音集合
-   * @param pianoKeyList 钢琴键列表
-   * @param musicNote 当前的数字
-   * @param highTune 是否高八度
-   * @param lowTune 是否低八度
-   */
-  private static void addHighLowNumberKey(int currentDoGroup, int currentDoPosition,
-      long currentFrequency, HashSet<Integer> highSet, HashSet<Integer> lowSet,
-      List<PianoKey> pianoKeyList, String musicNote, boolean highTune, boolean lowTune) {
-    char status = musicNote.charAt(0);
-    int number = Integer.valueOf(musicNote.charAt(1) + "");
-    switch (status) {
-      case 'H':
-        highSet.add(number);
-        lowSet.remove(number);
-        break;
-      case 'L':
-        lowSet.add(number);
-        highSet.remove(number);
-        break;
-      case 'M':
-        highSet.remove(number);
-        lowSet.remove(number);
-        break;
-      default:
-        break;
+      if (name == null || name.isEmpty()) {
+        throw new Exception(Error.NO_MUSIC_NAME);
+      }
+      return name;
     }
-    addNumberKey(currentDoGroup, currentDoPosition, currentFrequency, highSet, lowSet, pianoKeyList,
-        musicNote.substring(1), highTune, lowTune);
-  }
 
-  /**
-   * 添加只有数字(数字 + 频率)的钢琴键
-   *
-   * @param currentDoGroup 当前do所在的组数
-   * @param currentDoPosition 当前do所在组数下的位置
-   * @param currentFrequency 当前的默认频率
-   * @param highSet 高音集合
-   * @param lowSet 低音集合
-   * @param pianoKeyList 钢琴键列表
-   * @param highTune 是否高八度
-   * @param lowTune 是否低八度
-   * @param musicNote 当前的数字
-   */
-  private static void addNumberKey(int currentDoGroup, int currentDoPosition, long currentFrequency,
-      HashSet<Integer> highSet, HashSet<Integer> lowSet, List<PianoKey> pianoKeyList,
-      String musicNote, boolean highTune, boolean lowTune) {
-    if (musicNote.length() == 1) {// 只有数字
-      pianoKeyList.add(obtainPianoKey(currentDoGroup, currentDoPosition, currentFrequency,
-          Integer.valueOf(musicNote), highSet, lowSet, highTune, lowTune));
-    } else {// 添加了频率
-      int number = Integer.valueOf(musicNote.charAt(0) + "");
-      Float times = Float.valueOf(musicNote.substring(2));
-      pianoKeyList.add(
-          obtainPianoKey(currentDoGroup, currentDoPosition, (long) (currentFrequency * times),
-              number, highSet, lowSet, highTune, lowTune));
+    /**
+     * 解析一个音符:[HO|LO][H|M|L]数字[*倍数]
+     */
+    private void readNote() throws Exception {
+      int length = token.length();
+      if (length == 0) {
+        return;
+      }
+      int i = 0;
+      boolean highTune = false;
+      boolean lowTune = false;
+      if (length >= 2 && token.charAt(1) == 'O') {
+        if (token.charAt(0) == 'H') {
+          highTune = true;
+          i = 2;
+        } else if (token.charAt(0) == 'L') {
+          lowTune = true;
+          i = 2;
+        }
+      }
+      char status = 0;
+      if (i < length) {
+        char c = token.charAt(i);
+        if (c == 'H' || c == 'M' || c == 'L') {
+          status = c;
+          i++;
+        }
+      }
+      if (i >= length || token.charAt(i) < '0' || token.charAt(i) > '7') {
+        throw wrongNote();
+      }
+      int number = token.charAt(i++) - '0';
+      long frequency = currentFrequency;
+      if (i < length) {
+        if (token.charAt(i++) != '*') {
+          throw wrongNote();
+        }
+        int times = highTune ? HIGH_TUNE_TIMES_COUNT : TIMES.length;
+        int index = 0;
+        while (index < times && !regionEquals(token, i, TIMES_STRINGS[index])) {
+          index++;
+        }
+        if (index == times) {
+          throw wrongNote();
+        }
+        frequency = (long) (currentFrequency * TIMES[index]);
+      }
+      int bit = 1 << number;
+      switch (status) {
+        case 'H':
+          highSet |= bit;
+          lowSet &= ~bit;
+          break;
+        case 'L':
+          lowSet |= bit;
+          highSet &= ~bit;
+          break;
+        case 'M':
+          highSet &= ~bit;
+          lowSet &= ~bit;
+          break;
+        default:
+          break;
+      }
+      token.setLength(0);
+      resolveKey(number, highTune, lowTune);
+      if (keyListener != null) {
+        int keyIndex = PianoKeyIndex.NO_KEY;
+        if (keyType == PianoKey.WHITE_KEY) {
+          keyIndex = PianoKeyIndex.getKeyIndex(Piano.PianoKeyType.WHITE, keyGroup, keyPosition);
+        } else if (keyType == PianoKey.BLACK_KEY) {
+          keyIndex = PianoKeyIndex.getKeyIndex(Piano.PianoKeyType.BLACK, keyGroup, keyPosition);
+        }
+        isCancelled = !keyListener.onKey(keyIndex, frequency);
+      } else {
+        PianoKey key = new PianoKey();
+        key.setType(keyType);
+        if (keyType != PianoKey.NULL_KEY) {
+          key.setGroup(keyGroup);
+          key.setPosition(keyPosition);
+        }
+        key.setFrequency(frequency);
+        listener.onNote(key);
+      }
     }
-  }
 
-  /**
-   * 获取钢琴键实体
-   *
-   * @param currentDoGroup 当前do所在的组数
-   * @param currentDoPosition 当前do所在组数的位置
-   * @param frequency 该音符的频率
-   * @param musicNoteNumber 该音符对应简谱的数组
-   * @param highSet 改小节高音集合
-   * @param lowSet 该小节的低音集合
-   * @param highTune 是否高八度
-   * @param lowTune 是否低八度
-   * @return 钢琴键实体
-   */
-  private static PianoKey obtainPianoKey(int currentDoGroup, int currentDoPosition, long frequency,
-      int musicNoteNumber, HashSet<Integer> highSet, HashSet<Integer> lowSet, Boolean highTune,
-      Boolean lowTune) {
-    PianoKey key = new PianoKey();
-    if (musicNoteNumber == 0) {
-      key.setType(PianoKey.NULL_KEY);
-    } else {
+    /**
+     * 计算钢琴键,结果保存在keyType、keyGroup和keyPosition中
+     *
+     * @param musicNoteNumber 该音符对应简谱的数字
+     * @param highTune 是否高八度
+     * @param lowTune 是否低八度
+     */
+    private void resolveKey(int musicNoteNumber, boolean highTune, boolean lowTune) {
+      if (musicNoteNumber == 0) {
+        keyType = PianoKey.NULL_KEY;
+        return;
+      }
+      int bit = 1 << musicNoteNumber;
       int group = currentDoGroup;
       int position = currentDoPosition + musicNoteNumber - 1;
       if (position > 6) {
@@ -374,22 +472,22 @@ public class PianoConvertUtils {
       } else if (lowTune) {
         group--;
       }
-      if (highSet.contains(musicNoteNumber)) {
-        if (!HIGH_BLACK.contains(musicNoteNumber)) {// 还是白建
+      if ((highSet & bit) != 0) {
+        if ((HIGH_BLACK & bit) == 0) {// 还是白建
           position++;
           if (position > 6) {
             group++;
             position -= 7;
           }
-          key.setType(PianoKey.WHITE_KEY);
+          keyType = PianoKey.WHITE_KEY;
         } else {// 黑键
           if (position > 1) {
             position--;
           }
-          key.setType(PianoKey.BLACK_KEY);
+          keyType = PianoKey.BLACK_KEY;
         }
-      } else if (lowSet.contains(musicNoteNumber)) {
-        if (!LOW_BLACK.contains(musicNoteNumber)) {// 还是白建
+      } else if ((lowSet & bit) != 0) {
+        if ((LOW_BLACK & bit) == 0) {// 还是白建
           position--;
           if (position < 0) {
             group--;
@@ -399,22 +497,48 @@ public class PianoConvertUtils {
               position += 2;
             }
           }
-          key.setType(PianoKey.WHITE_KEY);
+          keyType = PianoKey.WHITE_KEY;
         } else {// 黑键
           if (position <= 2) {
             position--;
           } else {
             position -= 2;
           }
-          key.setType(PianoKey.BLACK_KEY);
+          keyType = PianoKey.BLACK_KEY;
         }
       } else {
-        key.setType(PianoKey.WHITE_KEY);
+        keyType = PianoKey.WHITE_KEY;
+      }
+      keyGroup = group;
+      keyPosition = position;
+    }
+
+    private Exception wrongNote() {
+      return new Exception(Error.MUSIC_NOTE_CONFIG_WRONG + ":" + token);
+    }
+
+    private static boolean regionEquals(StringBuilder builder, int start, String s) {
+      if (builder.length() - start != s.length()) {
+        return false;
+      }
+      for (int i = 0; i < s.length(); i++) {
+        if (builder.charAt(start + i) != s.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static boolean isNumber(String s) {
+      if (s.isEmpty()) {
+        return false;
+      }
+      for (int i = 0; i < s.length(); i++) {
+        if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+          return false;
+        }
       }
-      key.setGroup(group);
-      key.setPosition(position);
+      return true;
     }
-    key.setFrequency(frequency);
-    return key;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,278 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 编译后乐谱的磁盘缓存
+ * <p>
+ * 以乐谱内容的CRC32、长度、格式和解析器版本作为键,保存{@link BinaryScoreUtils}格式的时间线,
+ * 再次打开相同的乐谱时直接内存映射读取,不需要重新解析。
+ * 总大小超过上限时按最近使用的顺序淘汰,最近使用时间保存在文件的修改时间中。
+ * 可以在多个线程中使用,文件先写入临时文件再改名,不会读到写了一半的文件。
+ */
+public class ScoreCache {
+  //解析器版本,解析结果改变时增加,旧的缓存不再命中
+  public static final int PARSER_VERSION = 1;
+  private static final String SUFFIX = ".pvsc";
+  private static final String TEMP_SUFFIX = ".tmp";
+  /**
+   * 自定义配置,见{@link PianoConvertUtils}
+   */
+  public static final Compiler CUSTOM_CONFIG = new Compiler("config",
+      source -> AutoPlayUtils.getAutoPlayTimelineByCustomConfig(
+          new InputStreamReader(new ByteArrayInputStream(source), "UTF-8")));
+  /**
+   * Json配置,见{@link AutoPlayEntityAdapter}
+   */
+  public static final Compiler JSON = new Compiler("json",
+      source -> AutoPlayUtils.getAutoPlayTimelineByJson(
+          new StringReader(new String(source, "UTF-8"))));
+  private final File dir;
+  private final long maxSize;
+  //按最近使用顺序排列的缓存文件和大小
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long size = 0;
+  private int hitCount = 0;
+  private int missCount = 0;
+  private int evictionCount = 0;
+
+  /**
+   * @param dir 缓存目录
+   * @param maxSize 最大字节数
+   */
+  public ScoreCache(File dir, long maxSize) {
+    this.dir = dir;
+    this.maxSize = maxSize;
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    //Long.compare需要API 19
+    Arrays.sort(files, (a, b) -> {
+      long left = a.lastModified();
+      long right = b.lastModified();
+      return left < right ? -1 : (left == right ? 0 : 1);
+    });
+    for (File file : files) {
+      if (file.getName().endsWith(SUFFIX)) {
+        entries.put(file.getName(), file.length());
+        size += file.length();
+      } else if (file.getName().endsWith(TEMP_SUFFIX)) {
+        //上次没有写完的文件
+        file.delete();
+      }
+    }
+    synchronized (this) {
+      trimToSize();
+    }
+  }
+
+  /**
+   * 读取乐谱,命中时直接读取编译后的时间线,否则解析后写入缓存
+   *
+   * @param source 乐谱,不会关闭
+   * @param compiler 解析器
+   * @return 时间线,解析失败时返回null
+   * @throws IOException 读取失败
+   */
+  public AutoPlayTimeline load(InputStream source, Compiler compiler) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(Math.max(source.available(), 1024));
+    byte[] buffer = new byte[8192];
+    int length;
+    while ((length = source.read(buffer)) != -1) {
+      os.write(buffer, 0, length);
+    }
+    return load(os.toByteArray(), compiler);
+  }
+
+  /**
+   * 读取乐谱,命中时直接读取编译后的时间线,否则解析后写入缓存
+   *
+   * @param source 乐谱
+   * @param compiler 解析器
+   * @return 时间线,解析失败时返回null
+   */
+  public AutoPlayTimeline load(byte[] source, Compiler compiler) {
+    String name = getFileName(source, compiler);
+    File file = new File(dir, name);
+    boolean isCached;
+    synchronized (this) {
+      //get会更新最近使用的顺序
+      isCached = entries.get(name) != null;
+    }
+    if (isCached) {
+      try {
+        AutoPlayTimeline timeline = BinaryScoreUtils.read(file);
+        file.setLastModified(System.currentTimeMillis());
+        synchronized (this) {
+          hitCount++;
+        }
+        return timeline;
+      } catch (IOException e) {
+        //文件被淘汰或者损坏,重新解析
+        synchronized (this) {
+          remove(name);
+        }
+      }
+    }
+    synchronized (this) {
+      missCount++;
+    }
+    AutoPlayTimeline timeline;
+    try {
+      timeline = compiler.compile(source);
+    } catch (IOException e) {
+      return null;
+    }
+    if (timeline != null) {
+      put(name, timeline);
+    }
+    return timeline;
+  }
+
+  public synchronized int getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized int getMissCount() {
+    return missCount;
+  }
+
+  public synchronized int getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * @return 命中率,没有读取过时为0
+   */
+  public synchronized float getHitRate() {
+    int total = hitCount + missCount;
+    return total == 0 ? 0 : (float) hitCount / total;
+  }
+
+  /**
+   * @return 缓存的总字节数
+   */
+  public synchronized long size() {
+    return size;
+  }
+
+  /**
+   * 清空缓存
+   */
+  public synchronized void clear() {
+    for (String name : entries.keySet().toArray(new String[0])) {
+      remove(name);
+    }
+  }
+
+  private void put(String name, AutoPlayTimeline timeline) {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      return;
+    }
+    File temp = new File(dir, name + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+    try {
+      FileOutputStream fos = new FileOutputStream(temp);
+      try {
+        BinaryScoreUtils.write(timeline, fos);
+      } finally {
+        fos.close();
+      }
+    } catch (IOException e) {
+      temp.delete();
+      return;
+    }
+    synchronized (this) {
+      File file = new File(dir, name);
+      if (!temp.renameTo(file)) {
+        temp.delete();
+        return;
+      }
+      Long old = entries.put(name, file.length());
+      size += file.length() - (old == null ? 0 : old);
+      trimToSize();
+    }
+  }
+
+  private void trimToSize() {
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (size > maxSize && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      new File(dir, entry.getKey()).delete();
+      size -= entry.getValue();
+      iterator.remove();
+      evictionCount++;
+    }
+  }
+
+  private void remove(String name) {
+    Long length = entries.remove(name);
+    if (length != null) {
+      size -= length;
+    }
+    new File(dir, name).delete();
+  }
+
+  private static String getFileName(byte[] source, Compiler compiler) {
+    CRC32 crc = new CRC32();
+    crc.update(source, 0, source.length);
+    return String.format(Locale.US, "%s-v%d.%d-%08x-%d%s", compiler.getName(), PARSER_VERSION,
+        BinaryScoreUtils.VERSION, crc.getValue(), source.length, SUFFIX);
+  }
+
+  /**
+   * 乐谱解析器
+   */
+  public static final class Compiler {
+    private final String name;
+    private final Parser parser;
+
+    /**
+     * @param name 名称,作为键的一部分
+     * @param parser 解析方法
+     */
+    public Compiler(String name, Parser parser) {
+      this.name = name;
+      this.parser = parser;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @param source 乐谱
+     * @return 时间线,解析失败时返回null
+     * @throws IOException 解析失败
+     */
+    public AutoPlayTimeline compile(byte[] source) throws IOException {
+      return parser.parse(source);
+    }
+  }
+
+  /**
+   * 解析方法
+   */
+  public interface Parser {
+    /**
+     * @param source 乐谱
+     * @return 时间线,解析失败时返回null
+     * @throws IOException 解析失败
+     */
+    AutoPlayTimeline parse(byte[] source) throws IOException;
+  }
+}
@@ -0,0 +1,189 @@
+package com.chengtao.pianoview.view;
+
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.os.Build;
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.entity.PianoKey;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
+
+/**
+ * 钢琴的显示列表
+ * <p>
+ * 未按下的钢琴按组(八度)录制成{@link Picture},每帧只回放与可见区域相交的组,
+ * 滚动时只是平移画布,不需要重新录制。
+ * 被按下的钢琴键使用各自的小显示列表覆盖在上面,按下或抬起时不会重新录制整组。
+ * 组的边界在B和C之间,不会切开黑键。
+ */
+final class KeyboardDisplayList {
+  //组数
+  private static final int GROUPS = 9;
+  //每组未按下的钢琴
+  private final Picture[] groupPictures = new Picture[GROUPS];
+  //每组的左右边界
+  private final int[] groupLefts = new int[GROUPS];
+  private final int[] groupRights = new int[GROUPS];
+  //每个钢琴键未按下和按下的显示列表,用到时才录制
+  private final Picture[] keyPictures = new Picture[Piano.PIANO_NUMS];
+  private final Picture[] pressedKeyPictures = new Picture[Piano.PIANO_NUMS];
+  //画布的可见区域
+  private final Rect clipRect = new Rect();
+  //是否需要重新录制
+  private boolean isDirty = true;
+
+  /**
+   * 钢琴键的绘制方式
+   */
+  interface KeyPainter {
+    /**
+     * 在钢琴的坐标系中绘制钢琴键
+     *
+     * @param canvas 画布
+     * @param key 钢琴键
+     * @param pressed 是否绘制为按下的状态
+     */
+    void drawKey(Canvas canvas, PianoKey key, boolean pressed);
+  }
+
+  /**
+   * 当前画布是否可以回放显示列表,硬件加速在API 23之前不支持drawPicture
+   *
+   * @param canvas 画布
+   * @return 是否可以回放
+   */
+  static boolean isSupported(Canvas canvas) {
+    return !canvas.isHardwareAccelerated() || Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+  }
+
+  /**
+   * 钢琴键位置或图案改变后调用,下次绘制时重新录制
+   */
+  void invalidate() {
+    isDirty = true;
+  }
+
+  /**
+   * 绘制钢琴
+   *
+   * @param canvas 画布
+   * @param piano 钢琴
+   * @param pressedKeys 被按下的钢琴键
+   * @param painter 钢琴键的绘制方式
+   */
+  void draw(Canvas canvas, Piano piano, PressedKeyTable pressedKeys, KeyPainter painter) {
+    PianoKeyIndex keyIndex = piano.getKeyIndex();
+    if (keyIndex == null) {
+      return;
+    }
+    if (isDirty) {
+      record(piano, keyIndex, painter);
+      isDirty = false;
+    }
+    canvas.getClipBounds(clipRect);
+    for (int group = 0; group < GROUPS; group++) {
+      //范围之外的组左右边界相同
+      if (groupLefts[group] < groupRights[group]
+          && groupLefts[group] < clipRect.right && groupRights[group] > clipRect.left) {
+        drawPicture(canvas, groupPictures[group], groupLefts[group]);
+      }
+    }
+    //白键会覆盖相邻的黑键,先绘制所有被按下的白键,再重新绘制相邻的黑键
+    for (int i = 0; i < pressedKeys.size(); i++) {
+      PianoKey key = piano.getPianoKey(pressedKeys.keyAt(i));
+      if (key.getType() == Piano.PianoKeyType.WHITE) {
+        drawKey(canvas, piano, key.getIndex(), painter);
+        drawBlackKey(canvas, piano, key.getIndex() - 1, painter);
+        drawBlackKey(canvas, piano, key.getIndex() + 1, painter);
+      }
+    }
+    for (int i = 0; i < pressedKeys.size(); i++) {
+      PianoKey key = piano.getPianoKey(pressedKeys.keyAt(i));
+      if (key.getType() == Piano.PianoKeyType.BLACK) {
+        drawKey(canvas, piano, key.getIndex(), painter);
+      }
+    }
+  }
+
+  /**
+   * 录制每组未按下的钢琴,并清除钢琴键的显示列表
+   */
+  private void record(Piano piano, PianoKeyIndex keyIndex, KeyPainter painter) {
+    int height = piano.getWhiteKeyHeight();
+    for (int group = 0; group < GROUPS; group++) {
+      int first = Math.max(keyIndex.getStartKey(), PianoKeyIndex.getWhiteKeyIndex(group, 0));
+      int end = Math.min(keyIndex.getEndKey() + 1, group == GROUPS - 1 ? Piano.PIANO_NUMS
+          : PianoKeyIndex.getWhiteKeyIndex(group + 1, 0));
+      if (first >= end) {
+        groupLefts[group] = 0;
+        groupRights[group] = 0;
+        continue;
+      }
+      int left = keyIndex.getKeyLeft(first);
+      int right = keyIndex.getKeyRight(end - 1);
+      groupLefts[group] = left;
+      groupRights[group] = right;
+      Picture picture = groupPictures[group];
+      if (picture == null) {
+        picture = new Picture();
+        groupPictures[group] = picture;
+      }
+      Canvas canvas = picture.beginRecording(right - left, height);
+      canvas.translate(-left, 0);
+      for (int index = first; index < end; index++) {
+        if (!PianoKeyIndex.isBlackKey(index)) {
+          painter.drawKey(canvas, piano.getPianoKey(index), false);
+        }
+      }
+      for (int index = first; index < end; index++) {
+        if (PianoKeyIndex.isBlackKey(index)) {
+          painter.drawKey(canvas, piano.getPianoKey(index), false);
+        }
+      }
+      picture.endRecording();
+    }
+    for (int index = 0; index < Piano.PIANO_NUMS; index++) {
+      keyPictures[index] = null;
+      pressedKeyPictures[index] = null;
+    }
+  }
+
+  /**
+   * 绘制黑键
+   *
+   * @param keyIndex 钢琴键下标,不是黑键或者不在范围内时不绘制
+   */
+  private void drawBlackKey(Canvas canvas, Piano piano, int keyIndex, KeyPainter painter) {
+    if (piano.getKeyIndex().isInRange(keyIndex) && PianoKeyIndex.isBlackKey(keyIndex)) {
+      drawKey(canvas, piano, keyIndex, painter);
+    }
+  }
+
+  /**
+   * 回放钢琴键当前状态的显示列表,第一次用到时录制
+   */
+  private void drawKey(Canvas canvas, Piano piano, int index, KeyPainter painter) {
+    PianoKey key = piano.getPianoKey(index);
+    Picture[] pictures = key.isPressed() ? pressedKeyPictures : keyPictures;
+    PianoKeyIndex keyIndex = piano.getKeyIndex();
+    int left = keyIndex.getKeyLeft(index);
+    Picture picture = pictures[index];
+    if (picture == null) {
+      picture = new Picture();
+      Canvas recordingCanvas =
+          picture.beginRecording(keyIndex.getKeyRight(index) - left, keyIndex.getKeyBottom(index));
+      recordingCanvas.translate(-left, 0);
+      painter.drawKey(recordingCanvas, key, key.isPressed());
+      picture.endRecording();
+      pictures[index] = picture;
+    }
+    drawPicture(canvas, picture, left);
+  }
+
+  private static void drawPicture(Canvas canvas, Picture picture, int left) {
+    canvas.save();
+    canvas.translate(left, 0);
+    canvas.drawPicture(picture);
+    canvas.restore();
+  }
+}
@@ -1,6 +1,8 @@
 package com.chengtao.pianoview.view;
 
 import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -11,6 +13,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.support.v4.content.ContextCompat;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
@@ -18,16 +21,25 @@ import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import com.chengtao.pianoview.R;
+import com.chengtao.pianoview.audio.AudioEngine;
 import com.chengtao.pianoview.entity.AutoPlayEntity;
+import com.chengtao.pianoview.entity.KeyLabelLayout;
 import com.chengtao.pianoview.entity.Piano;
 import com.chengtao.pianoview.entity.PianoKey;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
 import com.chengtao.pianoview.listener.OnLoadAudioListener;
 import com.chengtao.pianoview.listener.OnPianoAutoPlayListener;
 import com.chengtao.pianoview.listener.OnPianoListener;
+import com.chengtao.pianoview.play.AutoPlayController;
+import com.chengtao.pianoview.play.AutoPlayScheduler;
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import com.chengtao.pianoview.play.SessionRecorder;
+import com.chengtao.pianoview.play.StreamingAutoPlayer;
 import com.chengtao.pianoview.utils.AudioUtils;
+import com.chengtao.pianoview.utils.AutoPlayUtils;
+import com.chengtao.pianoview.utils.MidiUtils;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created by ChengTao on 2016-11-25.
@@ -40,15 +52,38 @@ public class PianoView extends View {
   private ArrayList<PianoKey[]> whitePianoKeys;
   private ArrayList<PianoKey[]> blackPianoKeys;
   //被点击过的钢琴键
-  private CopyOnWriteArrayList<PianoKey> pressedKeys = new CopyOnWriteArrayList<>();
+  private PressedKeyTable pressedKeys = new PressedKeyTable();
   //画笔
   private Paint paint;
-  //定义标识音名的正方形
-  private RectF square;
+  //用于计算音名基线的字体度量
+  private Paint.FontMetricsInt fontMetrics = new Paint.FontMetricsInt();
+  //是否使用离屏缓存绘制
+  private boolean isRenderCacheEnabled = false;
+  //未按下状态的钢琴离屏缓存
+  private Bitmap keyboardCache;
+  //离屏缓存是否需要重新绘制
+  private boolean isKeyboardCacheDirty = true;
+  //离屏缓存在钢琴中的左边界,缓存只覆盖钢琴的一段
+  private int cacheLeft = 0;
+  //离屏缓存的拷贝区域,分别为缓存中和画布中的位置
+  private Rect cacheSrcRect = new Rect();
+  private Rect cacheRect = new Rect();
+  //是否使用显示列表绘制
+  private boolean isDisplayListEnabled = false;
+  //按组录制的钢琴显示列表
+  private KeyboardDisplayList displayList = new KeyboardDisplayList();
+  //显示列表中钢琴键的绘制方式
+  private KeyboardDisplayList.KeyPainter keyPainter = this::drawKey;
+  //画布的可见区域,以及可见区域内的黑白键
+  private Rect clipRect = new Rect();
+  private int[] visibleWhiteKeys = new int[PianoKeyIndex.WHITE_KEY_NUMS];
+  private int[] visibleBlackKeys = new int[PianoKeyIndex.BLACK_KEY_NUMS];
+  //钢琴键位置,用于局部刷新和布局音名
+  private Rect keyRect = new Rect();
   //正方形背景颜色
-  private String pianoColors[] = {
-      "#C0C0C0", "#A52A2A", "#FF8C00", "#FFFF00", "#00FA9A", "#00CED1", "#4169E1", "#FFB6C1",
-      "#FFEBCD"
+  private int pianoColors[] = {
+      0xFFC0C0C0, 0xFFA52A2A, 0xFFFF8C00, 0xFFFFFF00, 0xFF00FA9A, 0xFF00CED1, 0xFF4169E1,
+      0xFFFFB6C1, 0xFFFFEBCD
   };
   //播放器工具
   private AudioUtils utils = null;
@@ -70,12 +105,25 @@ public class PianoView extends View {
   private boolean canPress = true;
   //是否正在自动播放
   private boolean isAutoPlaying = false;
+  //自动播放调度器,没有自动播放时为null
+  private AutoPlayController autoPlayScheduler;
+  //演奏录制,没有录制时为null
+  private SessionRecorder recorder;
   //初始化结束
   private boolean isInitFinish = false;
   private int minRange = 0;
   private int maxRange = 0;
   //
   private int maxStream;
+  //自定义音频引擎
+  private AudioEngine audioEngine;
+  //常驻的最大音频数目,0为全部常驻
+  private int sampleBudget = 0;
+  //音量
+  private float volume = 1f;
+  //钢琴键范围,包含两端,两端都是白键,自动播放线程也会读取
+  private volatile int startKey = 0;
+  private volatile int endKey = Piano.PIANO_NUMS - 1;
   //自动播放Handler
   private Handler autoPlayHandler = new Handler(Looper.myLooper()) {
     @Override public void handleMessage(Message msg) {
@@ -85,9 +133,13 @@ public class PianoView extends View {
   //消息ID
   private static final int HANDLE_AUTO_PLAY_START = 0;
   private static final int HANDLE_AUTO_PLAY_END = 1;
-  private static final int HANDLE_AUTO_PLAY_BLACK_DOWN = 2;
-  private static final int HANDLE_AUTO_PLAY_WHITE_DOWN = 3;
-  private static final int HANDLE_AUTO_PLAY_KEY_UP = 4;
+  private static final int HANDLE_AUTO_PLAY_KEY_DOWN = 2;
+  private static final int HANDLE_AUTO_PLAY_KEY_UP = 3;
+  //自动播放时提前投递消息的时间
+  private static final long AUTO_PLAY_LOOKAHEAD = 50;
+  //边解析边播放时缓冲的音符数目,以及开始播放之前需要缓冲的音符数目
+  private static final int AUTO_PLAY_BUFFER_SIZE = 256;
+  private static final int AUTO_PLAY_PREBUFFER = 8;
 
   //构造函数
   public PianoView(Context context) {
@@ -101,12 +153,17 @@ public class PianoView extends View {
   public PianoView(Context context, AttributeSet attrs, int defStyleAttr) {
     super(context, attrs, defStyleAttr);
     this.context = context;
+    TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.PianoView, defStyleAttr, 0);
+    int start = PianoKeyIndex.getWhiteKeyIndex(a.getString(R.styleable.PianoView_startKey));
+    int end = PianoKeyIndex.getWhiteKeyIndex(a.getString(R.styleable.PianoView_endKey));
+    a.recycle();
+    setKeyRange(start == PianoKeyIndex.NO_KEY ? 0 : start,
+        end == PianoKeyIndex.NO_KEY ? Piano.PIANO_NUMS - 1 : end);
     paint = new Paint();
     paint.setAntiAlias(true);
     //初始化画笔
     paint.setStyle(Paint.Style.FILL);
-    //初始化正方形
-    square = new RectF();
+    paint.setTextAlign(Paint.Align.CENTER);
   }
 
   @Override protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
@@ -130,78 +187,304 @@ public class PianoView extends View {
         break;
     }
     //设置缩放比例
-    scale = (float) (height - getPaddingTop() - getPaddingBottom()) / (float) (whiteKeyHeight);
+    float scale = (float) (height - getPaddingTop() - getPaddingBottom()) / (float) (whiteKeyHeight);
+    boolean isScaleChanged = scale != this.scale;
+    if (isScaleChanged) {
+      this.scale = scale;
+      isKeyboardCacheDirty = true;
+      displayList.invalidate();
+    }
     layoutWidth = width - getPaddingLeft() - getPaddingRight();
+    //只改变内边距时尺寸不变,不会回调onSizeChanged,在这里重新计算位置
+    if (isScaleChanged && piano != null) {
+      relayoutPiano();
+    }
     //设置布局高度和宽度
     setMeasuredDimension(width, height);
   }
 
-  @Override protected void onDraw(Canvas canvas) {
-    //初始化钢琴
+  @Override protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+    super.onSizeChanged(w, h, oldw, oldh);
     if (piano == null) {
-      minRange = 0;
-      maxRange = layoutWidth;
-      piano = new Piano(context, scale);
-      //获取白键
-      whitePianoKeys = piano.getWhitePianoKeys();
-      //获取黑键
-      blackPianoKeys = piano.getBlackPianoKeys();
-      //初始化播放器
-      if (utils == null) {
-        if (maxStream > 0) {
-          utils = AudioUtils.getInstance(getContext(), loadAudioListener, maxStream);
+      //高度为0时等到有效的尺寸再初始化
+      if (scale > 0) {
+        initPiano();
+      }
+      return;
+    }
+    relayoutPiano();
+  }
+
+  /**
+   * 按当前缩放比例重新计算钢琴键的位置
+   * <p>
+   * 旋转或分屏时只重新计算位置,钢琴键和已经加载的声音保持不变
+   */
+  private void relayoutPiano() {
+    if (piano.relayout(scale)) {
+      layoutKeyLabels();
+      isKeyboardCacheDirty = true;
+      displayList.invalidate();
+    }
+    //布局宽度改变后更新可见范围
+    scroll(progress);
+  }
+
+  /**
+   * 初始化钢琴和播放器
+   */
+  private void initPiano() {
+    minRange = 0;
+    maxRange = layoutWidth;
+    piano = new Piano(context, scale, startKey, endKey);
+    //获取白键
+    whitePianoKeys = piano.getWhitePianoKeys();
+    //获取黑键
+    blackPianoKeys = piano.getBlackPianoKeys();
+    layoutKeyLabels();
+    //初始化播放器
+    if (utils == null) {
+      if (audioEngine != null) {
+        utils = AudioUtils.getInstance(getContext(), loadAudioListener, audioEngine);
+      } else if (maxStream > 0) {
+        utils = AudioUtils.getInstance(getContext(), loadAudioListener, maxStream);
+      } else {
+        utils = AudioUtils.getInstance(getContext(), loadAudioListener);
+      }
+      utils.setVolume(volume);
+      utils.setSampleBudget(sampleBudget);
+      try {
+        //优先加载可见范围内的钢琴键
+        int count = piano.getKeyIndex().getVisibleWhiteKeys(minRange, maxRange, visibleWhiteKeys);
+        if (count > 0) {
+          utils.loadMusic(piano, visibleWhiteKeys[0] - 1, visibleWhiteKeys[count - 1] + 1);
         } else {
-          utils = AudioUtils.getInstance(getContext(), loadAudioListener);
-        }
-        try {
           utils.loadMusic(piano);
-        } catch (Exception e) {
-          Log.e(TAG, e.getMessage());
         }
+      } catch (Exception e) {
+        Log.e(TAG, e.getMessage());
       }
     }
-    //初始化白键
-    if (whitePianoKeys != null) {
-      for (int i = 0; i < whitePianoKeys.size(); i++) {
-        for (PianoKey key : whitePianoKeys.get(i)) {
-          paint.setColor(Color.parseColor(pianoColors[i]));
-          key.getKeyDrawable().draw(canvas);
-          //初始化音名区域
-          Rect r = key.getKeyDrawable().getBounds();
-          int sideLength = (r.right - r.left) / 2;
-          int left = r.left + sideLength / 2;
-          int top = r.bottom - sideLength - sideLength / 3;
-          int right = r.right - sideLength / 2;
-          int bottom = r.bottom - sideLength / 3;
-          square.set(left, top, right, bottom);
-          canvas.drawRoundRect(square, 6f, 6f, paint);
-          paint.setColor(Color.BLACK);
-          paint.setTextSize(sideLength / 1.8f);
-          Paint.FontMetricsInt fontMetrics = paint.getFontMetricsInt();
-          int baseline =
-              (int) ((square.bottom + square.top - fontMetrics.bottom - fontMetrics.top) / 2);
-          paint.setTextAlign(Paint.Align.CENTER);
-          canvas.drawText(key.getLetterName(), square.centerX(), baseline, paint);
+  }
+
+  @Override protected void onDraw(Canvas canvas) {
+    if (piano == null) {
+      return;
+    }
+    if (isDisplayListEnabled && KeyboardDisplayList.isSupported(canvas)) {
+      displayList.draw(canvas, piano, pressedKeys, keyPainter);
+    } else if (!isRenderCacheEnabled || !drawKeyboardCache(canvas)) {
+      drawKeyboard(canvas, true);
+    }
+    if (!isInitFinish && pianoListener != null) {
+      isInitFinish = true;
+      pianoListener.onPianoInitFinish();
+    }
+  }
+
+  /**
+   * 绘制整个钢琴
+   *
+   * @param canvas 画布
+   * @param showPressed 是否绘制钢琴键按下的状态
+   */
+  private void drawKeyboard(Canvas canvas, boolean showPressed) {
+    PianoKeyIndex keyIndex = piano.getKeyIndex();
+    if (keyIndex == null) {
+      return;
+    }
+    //只绘制与画布可见区域相交的钢琴键
+    canvas.getClipBounds(clipRect);
+    int whiteCount = keyIndex.getVisibleWhiteKeys(clipRect.left, clipRect.right, visibleWhiteKeys);
+    for (int i = 0; i < whiteCount; i++) {
+      PianoKey key = piano.getPianoKey(visibleWhiteKeys[i]);
+      drawWhiteKey(canvas, key, showPressed && key.isPressed());
+    }
+    int blackCount = keyIndex.getVisibleBlackKeys(clipRect.left, clipRect.right, visibleBlackKeys);
+    for (int i = 0; i < blackCount; i++) {
+      PianoKey key = piano.getPianoKey(visibleBlackKeys[i]);
+      piano.drawKey(canvas, key, showPressed && key.isPressed());
+    }
+  }
+
+  /**
+   * 绘制钢琴键,白键同时绘制音名
+   *
+   * @param canvas 画布
+   * @param key 钢琴键
+   * @param pressed 是否绘制为按下的状态
+   */
+  private void drawKey(Canvas canvas, PianoKey key, boolean pressed) {
+    if (key.getType() == Piano.PianoKeyType.WHITE) {
+      drawWhiteKey(canvas, key, pressed);
+    } else {
+      piano.drawKey(canvas, key, pressed);
+    }
+  }
+
+  /**
+   * 绘制白键及其音名
+   *
+   * @param canvas 画布
+   * @param key 白键
+   * @param pressed 是否绘制为按下的状态
+   */
+  private void drawWhiteKey(Canvas canvas, PianoKey key, boolean pressed) {
+    piano.drawKey(canvas, key, pressed);
+    KeyLabelLayout label = key.getLabelLayout();
+    if (label != null) {
+      paint.setColor(label.getColor());
+      canvas.drawRoundRect(label.getSquare(), 6f, 6f, paint);
+      paint.setColor(Color.BLACK);
+      paint.setTextSize(label.getTextSize());
+      canvas.drawText(key.getLetterName(), label.getTextX(), label.getBaseline(), paint);
+    }
+  }
+
+  /**
+   * 计算白键音名的布局,钢琴键位置或颜色改变后调用
+   */
+  private void layoutKeyLabels() {
+    if (whitePianoKeys == null) {
+      return;
+    }
+    for (int i = 0; i < whitePianoKeys.size(); i++) {
+      for (PianoKey key : whitePianoKeys.get(i)) {
+        KeyLabelLayout label = key.getLabelLayout();
+        if (label == null) {
+          label = new KeyLabelLayout();
+          key.setLabelLayout(label);
         }
+        //初始化音名区域
+        Rect r = keyRect;
+        key.getBounds(r);
+        int sideLength = (r.right - r.left) / 2;
+        int left = r.left + sideLength / 2;
+        int top = r.bottom - sideLength - sideLength / 3;
+        int right = r.right - sideLength / 2;
+        int bottom = r.bottom - sideLength / 3;
+        RectF square = label.getSquare();
+        square.set(left, top, right, bottom);
+        label.setColor(pianoColors[key.getGroup()]);
+        label.setTextSize(sideLength / 1.8f);
+        label.setTextX(square.centerX());
+        paint.setTextSize(label.getTextSize());
+        paint.getFontMetricsInt(fontMetrics);
+        label.setBaseline(
+            (int) ((square.bottom + square.top - fontMetrics.bottom - fontMetrics.top) / 2));
       }
     }
-    //初始化黑键
-    if (blackPianoKeys != null) {
-      for (int i = 0; i < blackPianoKeys.size(); i++) {
-        for (PianoKey key : blackPianoKeys.get(i)) {
-          key.getKeyDrawable().draw(canvas);
-        }
+  }
+
+  /**
+   * 使用离屏缓存绘制钢琴:只拷贝可见区域的缓存,再绘制被按下的钢琴键
+   * <p>
+   * 整个钢琴的位图可能超过GPU的最大纹理尺寸,缓存只覆盖可见区域附近两屏宽的一段,
+   * 滚动超出这一段时以可见区域为中心重新绘制
+   *
+   * @param canvas 画布
+   * @return 是否绘制成功,缓存创建失败时返回false
+   */
+  private boolean drawKeyboardCache(Canvas canvas) {
+    int pianoWidth = piano.getPianoWith();
+    int height = piano.getWhiteKeyHeight();
+    int width = Math.min(pianoWidth,
+        Math.min(getLayoutWidth() * 2, canvas.getMaximumBitmapWidth()));
+    canvas.getClipBounds(cacheRect);
+    if (width <= 0 || height <= 0 || height > canvas.getMaximumBitmapHeight()
+        || !cacheRect.intersect(0, 0, pianoWidth, height) || cacheRect.width() > width) {
+      return false;
+    }
+    if (keyboardCache == null
+        || keyboardCache.getWidth() != width
+        || keyboardCache.getHeight() != height) {
+      releaseKeyboardCache();
+      try {
+        keyboardCache = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      } catch (OutOfMemoryError e) {
+        Log.e(TAG, "create keyboard cache failed:" + e.getMessage());
+        isRenderCacheEnabled = false;
+        return false;
       }
+      isKeyboardCacheDirty = true;
     }
-    if (!isInitFinish && piano != null && pianoListener != null) {
-      isInitFinish = true;
-      pianoListener.onPianoInitFinish();
+    if (cacheRect.left < cacheLeft || cacheRect.right > cacheLeft + width) {
+      cacheLeft = cacheRect.left - (width - cacheRect.width()) / 2;
+      cacheLeft = Math.max(0, Math.min(cacheLeft, pianoWidth - width));
+      isKeyboardCacheDirty = true;
+    }
+    if (isKeyboardCacheDirty) {
+      //缓存中的钢琴键都是未按下的状态
+      keyboardCache.eraseColor(Color.TRANSPARENT);
+      Canvas cacheCanvas = new Canvas(keyboardCache);
+      cacheCanvas.translate(-cacheLeft, 0);
+      drawKeyboard(cacheCanvas, false);
+      isKeyboardCacheDirty = false;
+    }
+    cacheSrcRect.set(cacheRect);
+    cacheSrcRect.offset(-cacheLeft, 0);
+    canvas.drawBitmap(keyboardCache, cacheSrcRect, cacheRect, null);
+    drawPressedKeys(canvas);
+    return true;
+  }
+
+  /**
+   * 在缓存之上绘制被按下的钢琴键
+   *
+   * @param canvas 画布
+   */
+  private void drawPressedKeys(Canvas canvas) {
+    for (int i = 0; i < pressedKeys.size(); i++) {
+      PianoKey key = piano.getPianoKey(pressedKeys.keyAt(i));
+      if (key.getType() == Piano.PianoKeyType.WHITE) {
+        drawWhiteKey(canvas, key, true);
+        //白键会覆盖相邻的黑键,需要重新绘制
+        drawBlackKey(canvas, key.getIndex() - 1);
+        drawBlackKey(canvas, key.getIndex() + 1);
+      }
+    }
+    for (int i = 0; i < pressedKeys.size(); i++) {
+      PianoKey key = piano.getPianoKey(pressedKeys.keyAt(i));
+      if (key.getType() == Piano.PianoKeyType.BLACK) {
+        piano.drawKey(canvas, key, true);
+      }
     }
   }
 
+  /**
+   * 绘制黑键
+   *
+   * @param canvas 画布
+   * @param keyIndex 钢琴键下标,不是黑键或者不在范围内时不绘制
+   */
+  private void drawBlackKey(Canvas canvas, int keyIndex) {
+    if (keyIndex >= startKey && keyIndex <= endKey && PianoKeyIndex.isBlackKey(keyIndex)) {
+      PianoKey key = piano.getPianoKey(keyIndex);
+      piano.drawKey(canvas, key, key.isPressed());
+    }
+  }
+
+  /**
+   * 释放离屏缓存
+   */
+  private void releaseKeyboardCache() {
+    if (keyboardCache != null) {
+      keyboardCache.recycle();
+      keyboardCache = null;
+    }
+    isKeyboardCacheDirty = true;
+  }
+
+  @Override protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    //离开界面时结束计时线程
+    stopAutoPlay();
+    releaseKeyboardCache();
+  }
+
   @Override public boolean onTouchEvent(MotionEvent event) {
     int action = event.getActionMasked();
-    if (!canPress) {
+    if (!canPress || piano == null) {
       return false;
     }
     switch (action) {
@@ -244,40 +527,39 @@ public class PianoView extends View {
   private void handleDown(int which, MotionEvent event) {
     int x = (int) event.getX(which) + this.getScrollX();
     int y = (int) event.getY(which);
-    //检查白键
-    for (int i = 0; i < whitePianoKeys.size(); i++) {
-      for (PianoKey key : whitePianoKeys.get(i)) {
-        if (!key.isPressed() && key.contains(x, y)) {
-          handleWhiteKeyDown(which, event, key);
-        }
-      }
-    }
-    //检查黑键
-    for (int i = 0; i < blackPianoKeys.size(); i++) {
-      for (PianoKey key : blackPianoKeys.get(i)) {
-        if (!key.isPressed() && key.contains(x, y)) {
-          handleBlackKeyDown(which, event, key);
-        }
-      }
+    PianoKey key = piano.findPianoKey(x, y);
+    if (key != null && !key.isPressed()) {
+      handleKeyDown(which, event, key, 1f);
     }
   }
 
   /**
-   * 处理白键点击
+   * 处理钢琴键点击
    *
    * @param which 那个触摸点
    * @param event 事件
    * @param key 钢琴按键
+   * @param velocity 力度,[0,1]
    */
-  private void handleWhiteKeyDown(int which, MotionEvent event, PianoKey key) {
-    key.getKeyDrawable().setState(new int[] { android.R.attr.state_pressed });
+  private void handleKeyDown(int which, MotionEvent event, PianoKey key, float velocity) {
+    int pointerId = PressedKeyTable.NO_POINTER;
+    if (event != null) {
+      pointerId = event.getPointerId(which);
+    }
+    if (!pressedKeys.press(key.getIndex(), pointerId)) {
+      return;
+    }
     key.setPressed(true);
     if (event != null) {
-      key.setFingerID(event.getPointerId(which));
+      key.setFingerID(pointerId);
+    }
+    key.getBounds(keyRect);
+    invalidate(keyRect);
+    utils.playMusic(key, velocity);
+    if (recorder != null) {
+      recorder.onKeyDown(key.getIndex(), Math.round(velocity * AutoPlayTimeline.MAX_VELOCITY),
+          SystemClock.uptimeMillis());
     }
-    pressedKeys.add(key);
-    invalidate(key.getKeyDrawable().getBounds());
-    utils.playMusic(key);
     if (pianoListener != null) {
       pianoListener.onPianoClick(key.getType(), key.getVoice(), key.getGroup(),
           key.getPositionOfGroup());
@@ -285,24 +567,29 @@ public class PianoView extends View {
   }
 
   /**
-   * 处理黑键点击
+   * 处理钢琴键抬起
    *
-   * @param which 那个触摸点
-   * @param event 事件
-   * @param key 钢琴按键
+   * @param keyIndex 钢琴键下标
    */
-  private void handleBlackKeyDown(int which, MotionEvent event, PianoKey key) {
-    key.getKeyDrawable().setState(new int[] { android.R.attr.state_pressed });
-    key.setPressed(true);
-    if (event != null) {
-      key.setFingerID(event.getPointerId(which));
+  private void handleKeyUp(int keyIndex) {
+    if (pressedKeys.release(keyIndex)) {
+      onKeyReleased(keyIndex);
     }
-    pressedKeys.add(key);
-    invalidate(key.getKeyDrawable().getBounds());
-    utils.playMusic(key);
-    if (pianoListener != null) {
-      pianoListener.onPianoClick(key.getType(), key.getVoice(), key.getGroup(),
-          key.getPositionOfGroup());
+  }
+
+  /**
+   * 钢琴键已经从按下的钢琴键表中移除,更新状态并重绘
+   *
+   * @param keyIndex 钢琴键下标
+   */
+  private void onKeyReleased(int keyIndex) {
+    PianoKey key = piano.getPianoKey(keyIndex);
+    key.setPressed(false);
+    key.resetFingerID();
+    key.getBounds(keyRect);
+    invalidate(keyRect);
+    if (recorder != null) {
+      recorder.onKeyUp(keyIndex, SystemClock.uptimeMillis());
     }
   }
 
@@ -313,17 +600,13 @@ public class PianoView extends View {
    * @param event 事件对象
    */
   private void handleMove(int which, MotionEvent event) {
-    int x = (int) event.getX(which) + this.getScrollX();
-    int y = (int) event.getY(which);
-    for (PianoKey key : pressedKeys) {
-      if (key.getFingerID() == event.getPointerId(which)) {
-        if (!key.contains(x, y)) {
-          key.getKeyDrawable().setState(new int[] { -android.R.attr.state_pressed });
-          invalidate(key.getKeyDrawable().getBounds());
-          key.setPressed(false);
-          key.resetFingerID();
-          pressedKeys.remove(key);
-        }
+    int pointerId = event.getPointerId(which);
+    if (pressedKeys.getKeyOfPointer(pointerId) != PianoKeyIndex.NO_KEY) {
+      int x = (int) event.getX(which) + this.getScrollX();
+      int y = (int) event.getY(which);
+      int keyIndex = pressedKeys.move(pointerId, piano.getKeyIndex().find(x, y));
+      if (keyIndex != PianoKeyIndex.NO_KEY) {
+        onKeyReleased(keyIndex);
       }
     }
   }
@@ -334,15 +617,9 @@ public class PianoView extends View {
    * @param pointerId 触摸点ID
    */
   private void handlePointerUp(int pointerId) {
-    for (PianoKey key : pressedKeys) {
-      if (key.getFingerID() == pointerId) {
-        key.setPressed(false);
-        key.resetFingerID();
-        key.getKeyDrawable().setState(new int[] { -android.R.attr.state_pressed });
-        invalidate(key.getKeyDrawable().getBounds());
-        pressedKeys.remove(key);
-        break;
-      }
+    int keyIndex = pressedKeys.getKeyOfPointer(pointerId);
+    if (keyIndex != PianoKeyIndex.NO_KEY) {
+      handleKeyUp(keyIndex);
     }
   }
 
@@ -350,13 +627,8 @@ public class PianoView extends View {
    * 处理最后一个手指抬起事件
    */
   private void handleUp() {
-    if (pressedKeys.size() > 0) {
-      for (PianoKey key : pressedKeys) {
-        key.getKeyDrawable().setState(new int[] { -android.R.attr.state_pressed });
-        key.setPressed(false);
-        invalidate(key.getKeyDrawable().getBounds());
-      }
-      pressedKeys.clear();
+    for (int i = pressedKeys.size() - 1; i >= 0; i--) {
+      handleKeyUp(pressedKeys.keyAt(i));
     }
   }
 
@@ -371,93 +643,180 @@ public class PianoView extends View {
     if (isAutoPlaying) {
       return;
     }
+    autoPlay(AutoPlayTimeline.compile(autoPlayEntities));
+  }
+
+  /**
+   * 自动播放编译好的时间线
+   *
+   * @param timeline 自动播放时间线
+   */
+  public void autoPlay(AutoPlayTimeline timeline) {
+    if (isAutoPlaying) {
+      return;
+    }
+    AutoPlayTarget target = new AutoPlayTarget();
+    AutoPlayScheduler scheduler = new AutoPlayScheduler(timeline, AutoPlayScheduler.UPTIME_CLOCK,
+        AUTO_PLAY_LOOKAHEAD, target);
+    startAutoPlay(scheduler, scheduler, target);
+  }
+
+  /**
+   * 边解析边自动播放,缓冲了少量音符之后即开始播放,不需要等待整首乐曲解析完成
+   *
+   * @param source 音符来源,例如{@link AutoPlayUtils#getScoreSourceByCustomConfig}
+   */
+  public void autoPlay(StreamingAutoPlayer.ScoreSource source) {
+    if (isAutoPlaying) {
+      return;
+    }
+    AutoPlayTarget target = new AutoPlayTarget();
+    StreamingAutoPlayer player = new StreamingAutoPlayer(source, AUTO_PLAY_BUFFER_SIZE,
+        AUTO_PLAY_PREBUFFER, AutoPlayScheduler.UPTIME_CLOCK, AUTO_PLAY_LOOKAHEAD, target);
+    startAutoPlay(player, player, target);
+  }
+
+  private void startAutoPlay(AutoPlayController controller, Runnable runnable,
+      AutoPlayTarget target) {
     isAutoPlaying = true;
     setCanPress(false);
-    new Thread() {
-      @Override public void run() {
-        //开始
-        if (autoPlayHandler != null) {
-          autoPlayHandler.sendEmptyMessage(HANDLE_AUTO_PLAY_START);
-        }
-        //播放
-        try {
-          if (autoPlayEntities != null) {
-            for (AutoPlayEntity entity : autoPlayEntities) {
-              if (entity != null) {
-                if (entity.getType() != null) {
-                  switch (entity.getType()) {
-                    case BLACK://黑键
-                      PianoKey blackKey = null;
-                      if (entity.getGroup() == 0) {
-                        if (entity.getPosition() == 0) {
-                          blackKey = blackPianoKeys.get(0)[0];
-                        }
-                      } else if (entity.getGroup() > 0 && entity.getGroup() <= 7) {
-                        if (entity.getPosition() >= 0 && entity.getPosition() <= 4) {
-                          blackKey = blackPianoKeys.get(entity.getGroup())[entity.getPosition()];
-                        }
-                      }
-                      if (blackKey != null) {
-                        Message msg = Message.obtain();
-                        msg.what = HANDLE_AUTO_PLAY_BLACK_DOWN;
-                        msg.obj = blackKey;
-                        autoPlayHandler.sendMessage(msg);
-                      }
-                      break;
-                    case WHITE://白键
-                      PianoKey whiteKey = null;
-                      if (entity.getGroup() == 0) {
-                        if (entity.getPosition() == 0) {
-                          whiteKey = whitePianoKeys.get(0)[0];
-                        } else if (entity.getPosition() == 1) {
-                          whiteKey = whitePianoKeys.get(0)[1];
-                        }
-                      } else if (entity.getGroup() >= 0 && entity.getGroup() <= 7) {
-                        if (entity.getPosition() >= 0 && entity.getPosition() <= 6) {
-                          whiteKey = whitePianoKeys.get(entity.getGroup())[entity.getPosition()];
-                        }
-                      } else if (entity.getGroup() == 8) {
-                        if (entity.getPosition() == 0) {
-                          whiteKey = whitePianoKeys.get(8)[0];
-                        }
-                      }
-                      if (whiteKey != null) {
-                        Message msg = Message.obtain();
-                        msg.what = HANDLE_AUTO_PLAY_WHITE_DOWN;
-                        msg.obj = whiteKey;
-                        autoPlayHandler.sendMessage(msg);
-                      }
-                      break;
-                    default:
-                      break;
-                  }
-                }
-                Thread.sleep(entity.getCurrentBreakTime() / 2);
-                autoPlayHandler.sendEmptyMessage(HANDLE_AUTO_PLAY_KEY_UP);
-                Thread.sleep(entity.getCurrentBreakTime() / 2);
-              }
-            }
-          }
-        } catch (InterruptedException e) {
-          e.printStackTrace();
-        }
-        //结束
-        if (autoPlayHandler != null) {
-          autoPlayHandler.sendEmptyMessage(HANDLE_AUTO_PLAY_END);
-        }
-      }
-    }.start();
+    target.controller = controller;
+    autoPlayScheduler = controller;
+    new Thread(runnable, "PianoAutoPlay").start();
+  }
+
+  /**
+   * 开始录制演奏,包括自动播放,结束后可以用{@link MidiUtils#write}保存
+   */
+  public void startRecord() {
+    recorder = new SessionRecorder(SystemClock.uptimeMillis());
   }
 
   /**
-   * 释放自动播放
+   * 结束录制
+   *
+   * @return 录制的时间线,没有开始录制时返回null
+   */
+  public AutoPlayTimeline stopRecord() {
+    if (recorder == null) {
+      return null;
+    }
+    AutoPlayTimeline timeline = recorder.stop(SystemClock.uptimeMillis());
+    recorder = null;
+    return timeline;
+  }
+
+  /**
+   * 暂停自动播放,已经按下的钢琴键会抬起
+   */
+  public void pauseAutoPlay() {
+    if (autoPlayScheduler != null) {
+      autoPlayScheduler.pause();
+      cancelAutoPlayKeys();
+    }
+  }
+
+  /**
+   * 继续自动播放
+   */
+  public void resumeAutoPlay() {
+    if (autoPlayScheduler != null) {
+      autoPlayScheduler.resume();
+    }
+  }
+
+  /**
+   * 停止自动播放,结束计时线程,不释放音频
+   */
+  public void stopAutoPlay() {
+    if (autoPlayScheduler != null) {
+      autoPlayScheduler.stop();
+      cancelAutoPlayKeys();
+      finishAutoPlay();
+    }
+  }
+
+  /**
+   * 自动播放跳转到指定时间
+   *
+   * @param time 相对于乐曲开始的时间,毫秒
+   */
+  public void seekAutoPlay(long time) {
+    if (autoPlayScheduler != null) {
+      autoPlayScheduler.seekTo(time);
+      cancelAutoPlayKeys();
+    }
+  }
+
+  /**
+   * 自动播放跳转到第几个音符
+   *
+   * @param note 音符下标,从0开始
+   */
+  public void seekAutoPlayToNote(int note) {
+    if (autoPlayScheduler != null) {
+      autoPlayScheduler.seekToNote(note);
+      cancelAutoPlayKeys();
+    }
+  }
+
+  /**
+   * 设置自动播放的速度,立即生效
+   *
+   * @param tempo 速度倍数,1为原速
+   */
+  public void setAutoPlayTempo(float tempo) {
+    if (autoPlayScheduler != null) {
+      autoPlayScheduler.setTempo(tempo);
+    }
+  }
+
+  /**
+   * 获取自动播放的位置
+   *
+   * @return 相对于乐曲开始的时间,毫秒,没有自动播放时为0
+   */
+  public long getAutoPlayPosition() {
+    return autoPlayScheduler == null ? 0 : autoPlayScheduler.getPosition();
+  }
+
+  public boolean isAutoPlayPaused() {
+    return autoPlayScheduler != null && autoPlayScheduler.isPaused();
+  }
+
+  /**
+   * 释放自动播放,停止自动播放并释放音频
    */
   public void releaseAutoPlay() {
+    stopAutoPlay();
     if (utils != null) {
       utils.stop();
     }
   }
 
+  /**
+   * 取消已经投递但还没有发生的按键消息,并抬起所有钢琴键
+   */
+  private void cancelAutoPlayKeys() {
+    autoPlayHandler.removeMessages(HANDLE_AUTO_PLAY_KEY_DOWN);
+    autoPlayHandler.removeMessages(HANDLE_AUTO_PLAY_KEY_UP);
+    if (piano != null) {
+      handleUp();
+    }
+  }
+
+  /**
+   * 自动播放结束
+   */
+  private void finishAutoPlay() {
+    autoPlayScheduler = null;
+    isAutoPlaying = false;
+    setCanPress(true);
+    if (autoPlayListener != null) {
+      autoPlayListener.onPianoAutoPlayEnd();
+    }
+  }
+
   /**
    * 获取钢琴控件的总长度
    *
@@ -487,7 +846,59 @@ public class PianoView extends View {
    */
   public void setPianoColors(String[] pianoColors) {
     if (pianoColors.length == 9) {
-      this.pianoColors = pianoColors;
+      int[] colors = new int[pianoColors.length];
+      for (int i = 0; i < pianoColors.length; i++) {
+        colors[i] = Color.parseColor(pianoColors[i]);
+      }
+      setPianoColors(colors);
+    }
+  }
+
+  /**
+   * 设置显示音名的矩形的颜色<br>
+   * <b>注:一共9中颜色</b>
+   *
+   * @param pianoColors 颜色数组(ARGB),长度为9
+   */
+  public void setPianoColors(int[] pianoColors) {
+    if (pianoColors.length == 9) {
+      this.pianoColors = pianoColors.clone();
+      layoutKeyLabels();
+      isKeyboardCacheDirty = true;
+      displayList.invalidate();
+      invalidate();
+    }
+  }
+
+  /**
+   * 设置是否使用离屏缓存绘制<br>
+   * 开启后未按下的钢琴绘制到离屏Bitmap中,每帧只拷贝可见区域并绘制被按下的钢琴键,
+   * 缓存最多两屏宽,滚动超出缓存时重新绘制,会占用(2 x 布局宽度 x 钢琴高度)大小的内存
+   *
+   * @param enabled 是否使用离屏缓存
+   */
+  public void setRenderCacheEnabled(boolean enabled) {
+    if (isRenderCacheEnabled != enabled) {
+      isRenderCacheEnabled = enabled;
+      if (!enabled) {
+        releaseKeyboardCache();
+      }
+      invalidate();
+    }
+  }
+
+  /**
+   * 设置是否使用显示列表绘制<br>
+   * 开启后未按下的钢琴按组录制成显示列表,每帧只回放可见的组,被按下的钢琴键使用各自的显示列表,
+   * 按下和滚动都不需要重新录制。优先于离屏缓存,硬件加速在API 23以下不支持,此时不生效
+   *
+   * @param enabled 是否使用显示列表
+   */
+  public void setDisplayListEnabled(boolean enabled) {
+    if (isDisplayListEnabled != enabled) {
+      isDisplayListEnabled = enabled;
+      displayList.invalidate();
+      invalidate();
     }
   }
 
@@ -522,6 +933,24 @@ public class PianoView extends View {
     maxRange = x + getLayoutWidth();
     this.scrollTo(x, 0);
     this.progress = progress;
+    if (utils != null && piano != null) {
+      int count = piano.getKeyIndex().getVisibleWhiteKeys(minRange, maxRange, visibleWhiteKeys);
+      if (count > 0) {
+        utils.setVisibleRange(visibleWhiteKeys[0] - 1, visibleWhiteKeys[count - 1] + 1);
+      }
+    }
+  }
+
+  /**
+   * 设置音量
+   *
+   * @param volume 音量,[0,1]
+   */
+  public void setVolume(float volume) {
+    this.volume = volume;
+    if (utils != null) {
+      utils.setVolume(volume);
+    }
   }
 
   /**
@@ -533,6 +962,48 @@ public class PianoView extends View {
     this.maxStream = maxStream;
   }
 
+  /**
+   * 设置音频引擎,需要在钢琴初始化之前调用,默认使用SoundPool<br>
+   * 例如使用{@link com.chengtao.pianoview.audio.MixerAudioEngine}获得更低的延时和更多的声部
+   *
+   * @param audioEngine 音频引擎
+   */
+  public void setAudioEngine(AudioEngine audioEngine) {
+    this.audioEngine = audioEngine;
+  }
+
+  /**
+   * 设置钢琴键范围,需要在钢琴初始化之前调用,默认为全部88个钢琴键<br>
+   * 只创建和加载范围内的钢琴键,例如61键为C2到C7,76键为E1到G7。
+   * 范围的两端是黑键时扩展到相邻的白键,范围之外的自动播放音符会被忽略
+   *
+   * @param startKey 第一个钢琴键下标,A0为0
+   * @param endKey 最后一个钢琴键下标,C8为87
+   * @throws IllegalStateException 钢琴已经初始化
+   */
+  public void setKeyRange(int startKey, int endKey) {
+    if (piano != null) {
+      throw new IllegalStateException("key range must be set before the piano is initialized");
+    }
+    int start = PianoKeyIndex.getRangeStart(startKey);
+    int end = PianoKeyIndex.getRangeEnd(endKey);
+    if (end < start) {
+      throw new IllegalArgumentException("key range wrong:" + startKey + "-" + endKey);
+    }
+    this.startKey = start;
+    this.endKey = end;
+  }
+
+  /**
+   * 设置常驻的最大音频数目(内存预算模式),需要在钢琴初始化之前调用<br>
+   * 可见范围内以及最近播放的钢琴键会常驻,其余按需加载,适用于内存较小的设备
+   *
+   * @param maxResidentSamples 常驻的最大音频数目,0为全部常驻
+   */
+  public void setSampleBudget(int maxResidentSamples) {
+    this.sampleBudget = maxResidentSamples;
+  }
+
   //接口
 
   /**
@@ -575,6 +1046,41 @@ public class PianoView extends View {
     return Math.round(dp * (displayMetrics.xdpi / DisplayMetrics.DENSITY_DEFAULT));
   }
 
+  /**
+   * 在计时线程中按绝对时间投递消息,避免误差累积
+   */
+  private class AutoPlayTarget implements AutoPlayScheduler.Target {
+    //开始和结束消息带上所属的播放,用于忽略已经停止的播放
+    private AutoPlayController controller;
+
+    @Override public void onStart(long when) {
+      autoPlayHandler.sendMessageAtTime(
+          Message.obtain(autoPlayHandler, HANDLE_AUTO_PLAY_START, controller), when);
+    }
+
+    @Override public void onKeyDown(int keyIndex, int velocity, long when) {
+      //范围之外的音符不播放
+      if (keyIndex < startKey || keyIndex > endKey) {
+        return;
+      }
+      autoPlayHandler.sendMessageAtTime(
+          Message.obtain(autoPlayHandler, HANDLE_AUTO_PLAY_KEY_DOWN, keyIndex, velocity), when);
+    }
+
+    @Override public void onKeyUp(int keyIndex, long when) {
+      if (keyIndex < startKey || keyIndex > endKey) {
+        return;
+      }
+      autoPlayHandler.sendMessageAtTime(
+          Message.obtain(autoPlayHandler, HANDLE_AUTO_PLAY_KEY_UP, keyIndex, 0), when);
+    }
+
+    @Override public void onEnd(long when) {
+      autoPlayHandler.sendMessageAtTime(
+          Message.obtain(autoPlayHandler, HANDLE_AUTO_PLAY_END, controller), when);
+    }
+  }
+
   /**
    * 处理自动播放
    *
@@ -582,41 +1088,26 @@ public class PianoView extends View {
    */
   private void handleAutoPlay(Message msg) {
     switch (msg.what) {
-      case HANDLE_AUTO_PLAY_BLACK_DOWN://播放黑键
-        if (msg.obj != null) {
-          try {
-            PianoKey key = (PianoKey) msg.obj;
-            autoScroll(key);
-            handleBlackKeyDown(-1, null, key);
-          } catch (Exception e) {
-            Log.e("TAG", "黑键对象有问题:" + e.getMessage());
-          }
+      case HANDLE_AUTO_PLAY_KEY_DOWN://播放钢琴键
+        if (piano != null) {
+          PianoKey key = piano.getPianoKey(msg.arg1);
+          autoScroll(key);
+          handleKeyDown(-1, null, key, (float) msg.arg2 / AutoPlayTimeline.MAX_VELOCITY);
         }
         break;
-      case HANDLE_AUTO_PLAY_WHITE_DOWN://播放白键
-        if (msg.obj != null) {
-          try {
-            PianoKey key = (PianoKey) msg.obj;
-            autoScroll(key);
-            handleWhiteKeyDown(-1, null, key);
-          } catch (Exception e) {
-            Log.e("TAG", "白键对象有问题:" + e.getMessage());
-          }
+      case HANDLE_AUTO_PLAY_KEY_UP://只抬起对应的钢琴键
+        if (piano != null) {
+          handleKeyUp(msg.arg1);
         }
         break;
-      case HANDLE_AUTO_PLAY_KEY_UP:
-        handleUp();
-        break;
-      case HANDLE_AUTO_PLAY_START://开始
-        if (autoPlayListener != null) {
+      case HANDLE_AUTO_PLAY_START://开始,已经停止的自动播放不再处理
+        if (msg.obj != null && msg.obj == autoPlayScheduler && autoPlayListener != null) {
           autoPlayListener.onPianoAutoPlayStart();
         }
         break;
-      case HANDLE_AUTO_PLAY_END://结束
-        isAutoPlaying = false;
-        setCanPress(true);
-        if (autoPlayListener != null) {
-          autoPlayListener.onPianoAutoPlayEnd();
+      case HANDLE_AUTO_PLAY_END://结束,已经停止的自动播放不再处理
+        if (msg.obj != null && msg.obj == autoPlayScheduler) {
+          finishAutoPlay();
         }
         break;
     }
@@ -630,19 +1121,10 @@ public class PianoView extends View {
   private void autoScroll(PianoKey key) {
     if (isAutoPlaying) {//正在自动播放
       if (key != null) {
-        Rect[] areas = key.getAreaOfKey();
-        if (areas != null && areas.length > 0 && areas[0] != null) {
-          int left = areas[0].left, right = key.getAreaOfKey()[0].right;
-          for (int i = 1; i < areas.length; i++) {
-            if (areas[i] != null) {
-              if (areas[i].left < left) {
-                left = areas[i].left;
-              }
-              if (areas[i].right > right) {
-                right = areas[i].right;
-              }
-            }
-          }
+        PianoKeyIndex keyIndex = piano.getKeyIndex();
+        if (keyIndex != null) {
+          int left = keyIndex.getKeyLeft(key.getIndex());
+          int right = keyIndex.getKeyRight(key.getIndex());
           if (left < minRange || right > maxRange) {//不在当前可见区域的范围之类
             int progress = (int) ((float) left * 100 / (float) getPianoWidth());
             scroll(progress);
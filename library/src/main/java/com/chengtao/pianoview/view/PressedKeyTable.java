@@ -0,0 +1,128 @@
+package com.chengtao.pianoview.view;
+
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
+import java.util.Arrays;
+
+/**
+ * 被按下的钢琴键表
+ * <p>
+ * 用固定大小的数组记录每个触摸点按下的钢琴键以及所有被按下的钢琴键,
+ * 按下和抬起都是O(1)操作,并且不会分配任何对象。
+ */
+final class PressedKeyTable {
+  //没有触摸点(例如自动播放)
+  static final int NO_POINTER = -1;
+  //支持的最大触摸点ID
+  static final int MAX_POINTERS = 32;
+  //触摸点ID -> 钢琴键下标
+  private final int[] pointerKeys = new int[MAX_POINTERS];
+  //钢琴键下标 -> 触摸点ID
+  private final int[] keyPointers = new int[Piano.PIANO_NUMS];
+  //钢琴键下标 -> 在pressedKeys中的位置
+  private final int[] keyPositions = new int[Piano.PIANO_NUMS];
+  //被按下的钢琴键下标
+  private final int[] pressedKeys = new int[Piano.PIANO_NUMS];
+  private int size = 0;
+
+  PressedKeyTable() {
+    Arrays.fill(pointerKeys, PianoKeyIndex.NO_KEY);
+    Arrays.fill(keyPointers, NO_POINTER);
+    Arrays.fill(keyPositions, -1);
+  }
+
+  /**
+   * 按下钢琴键
+   *
+   * @param keyIndex 钢琴键下标
+   * @param pointerId 触摸点ID,没有则为{@link #NO_POINTER}
+   * @return 是否是新按下的钢琴键
+   */
+  boolean press(int keyIndex, int pointerId) {
+    if (keyPositions[keyIndex] >= 0) {
+      return false;
+    }
+    keyPositions[keyIndex] = size;
+    pressedKeys[size++] = keyIndex;
+    if (pointerId >= 0 && pointerId < MAX_POINTERS) {
+      //同一个触摸点只记录最后按下的钢琴键,之前的钢琴键不再属于这个触摸点
+      int oldKey = pointerKeys[pointerId];
+      if (oldKey != PianoKeyIndex.NO_KEY) {
+        keyPointers[oldKey] = NO_POINTER;
+      }
+      pointerKeys[pointerId] = keyIndex;
+      keyPointers[keyIndex] = pointerId;
+    }
+    return true;
+  }
+
+  /**
+   * 抬起钢琴键
+   *
+   * @param keyIndex 钢琴键下标
+   * @return 钢琴键之前是否被按下
+   */
+  boolean release(int keyIndex) {
+    int position = keyPositions[keyIndex];
+    if (position < 0) {
+      return false;
+    }
+    int last = pressedKeys[--size];
+    pressedKeys[position] = last;
+    keyPositions[last] = position;
+    keyPositions[keyIndex] = -1;
+    int pointerId = keyPointers[keyIndex];
+    if (pointerId != NO_POINTER) {
+      pointerKeys[pointerId] = PianoKeyIndex.NO_KEY;
+      keyPointers[keyIndex] = NO_POINTER;
+    }
+    return true;
+  }
+
+  /**
+   * 触摸点移动后,离开了原来按下的钢琴键时抬起它
+   *
+   * @param pointerId 触摸点ID
+   * @param keyIndex 触摸点当前所在的钢琴键下标,没有则为{@link PianoKeyIndex#NO_KEY}
+   * @return 被抬起的钢琴键下标,没有则返回{@link PianoKeyIndex#NO_KEY}
+   */
+  int move(int pointerId, int keyIndex) {
+    int pressedKey = getKeyOfPointer(pointerId);
+    if (pressedKey == PianoKeyIndex.NO_KEY || pressedKey == keyIndex) {
+      return PianoKeyIndex.NO_KEY;
+    }
+    release(pressedKey);
+    return pressedKey;
+  }
+
+  /**
+   * 获取触摸点按下的钢琴键
+   *
+   * @param pointerId 触摸点ID
+   * @return 钢琴键下标,没有则返回{@link PianoKeyIndex#NO_KEY}
+   */
+  int getKeyOfPointer(int pointerId) {
+    if (pointerId < 0 || pointerId >= MAX_POINTERS) {
+      return PianoKeyIndex.NO_KEY;
+    }
+    return pointerKeys[pointerId];
+  }
+
+  boolean isPressed(int keyIndex) {
+    return keyPositions[keyIndex] >= 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * 获取第position个被按下的钢琴键,抬起钢琴键后位置会变化,倒序遍历时可以边遍历边抬起
+   *
+   * @param position 位置
+   * @return 钢琴键下标
+   */
+  int keyAt(int position) {
+    return pressedKeys[position];
+  }
+}
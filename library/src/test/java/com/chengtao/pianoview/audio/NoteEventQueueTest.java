@@ -0,0 +1,58 @@
+package com.chengtao.pianoview.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 音符事件队列测试
+ */
+public class NoteEventQueueTest {
+  @Test public void offerAndPoll() {
+    NoteEventQueue queue = new NoteEventQueue(4);
+    assertEquals(NoteEventQueue.EMPTY, queue.poll());
+    assertTrue(queue.offer(87, 0.5f));
+    assertTrue(queue.offer(0, 1f));
+    assertTrue(queue.offer(39, 0f));
+    assertTrue(queue.offer(1, 0.25f));
+    assertFalse(queue.offer(2, 1f));
+    long event = queue.poll();
+    assertEquals(87, NoteEventQueue.getKeyIndex(event));
+    assertEquals(0.5f, NoteEventQueue.getGain(event), 0f);
+    assertEquals(0, NoteEventQueue.getKeyIndex(queue.poll()));
+    assertTrue(queue.offer(2, 1f));
+    queue.clear();
+    assertEquals(NoteEventQueue.EMPTY, queue.poll());
+  }
+
+  @Test public void preservesOrderAcrossThreads() throws Exception {
+    final NoteEventQueue queue = new NoteEventQueue(64);
+    final int events = 200000;
+    final int[] received = new int[1];
+    final boolean[] ordered = { true };
+    Thread consumer = new Thread(() -> {
+      int expected = 0;
+      while (expected < events) {
+        long event = queue.poll();
+        if (event != NoteEventQueue.EMPTY) {
+          if (NoteEventQueue.getKeyIndex(event) != expected % 88) {
+            ordered[0] = false;
+          }
+          expected++;
+        }
+      }
+      received[0] = expected;
+    });
+    consumer.start();
+    for (int i = 0; i < events; i++) {
+      while (!queue.offer(i % 88, 1f)) {
+        Thread.yield();
+      }
+    }
+    consumer.join(10000);
+    assertEquals(events, received[0]);
+    assertTrue(ordered[0]);
+  }
+}
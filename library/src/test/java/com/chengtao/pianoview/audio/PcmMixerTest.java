@@ -0,0 +1,58 @@
+package com.chengtao.pianoview.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 软件混音器测试
+ */
+public class PcmMixerTest {
+  @Test public void mixesVoicesAndEndsThem() {
+    PcmMixer mixer = new PcmMixer(4, 1, 4);
+    mixer.noteOn(new short[] { 100, 200, 300 }, 1f);
+    mixer.noteOn(new short[] { 10, 20, 30, 40, 50 }, 1f);
+    short[] out = new short[4];
+    mixer.mix(out, 4);
+    assertArrayEquals(new short[] { 110, 220, 330, 40 }, out);
+    assertEquals(1, mixer.getActiveVoiceCount());
+    mixer.mix(out, 4);
+    assertArrayEquals(new short[] { 50, 0, 0, 0 }, out);
+    assertEquals(0, mixer.getActiveVoiceCount());
+  }
+
+  @Test public void appliesGainAndClamps() {
+    PcmMixer mixer = new PcmMixer(4, 2, 2);
+    mixer.noteOn(new short[] { 1000, -1000, 2000, -2000 }, 0.5f);
+    short[] out = new short[4];
+    mixer.mix(out, 2);
+    assertArrayEquals(new short[] { 500, -500, 1000, -1000 }, out);
+    mixer.noteOn(new short[] { 30000, -30000 }, 1f);
+    mixer.noteOn(new short[] { 30000, -30000 }, 1f);
+    mixer.mix(out, 1);
+    assertEquals(Short.MAX_VALUE, out[0]);
+    assertEquals(Short.MIN_VALUE, out[1]);
+  }
+
+  @Test public void stealsOldestVoice() {
+    PcmMixer mixer = new PcmMixer(2, 1, 1);
+    mixer.noteOn(new short[] { 1, 1, 1 }, 1f);
+    mixer.noteOn(new short[] { 10, 10, 10 }, 1f);
+    mixer.noteOn(new short[] { 100, 100, 100 }, 1f);
+    short[] out = new short[1];
+    mixer.mix(out, 1);
+    assertEquals(110, out[0]);
+    assertEquals(2, mixer.getActiveVoiceCount());
+  }
+
+  @Test public void convertsChannelsAndSampleRate() {
+    short[] mono = { 0, 100, 200, 300 };
+    assertArrayEquals(new short[] { 0, 0, 100, 100, 200, 200, 300, 300 },
+        PcmMixer.convert(mono, 1, 44100, 2, 44100));
+    short[] stereo = { 100, 300, -100, -300 };
+    assertArrayEquals(new short[] { 200, -200 }, PcmMixer.convert(stereo, 2, 44100, 1, 44100));
+    short[] upsampled = PcmMixer.convert(mono, 1, 100, 1, 200);
+    assertArrayEquals(new short[] { 0, 50, 100, 150, 200, 250, 300, 300 }, upsampled);
+  }
+}
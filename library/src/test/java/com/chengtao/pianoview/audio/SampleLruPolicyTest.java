@@ -0,0 +1,108 @@
+package com.chengtao.pianoview.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 音频常驻策略测试
+ */
+public class SampleLruPolicyTest {
+  private static final int KEYS = 88;
+
+  @Test public void evictsLeastRecentlyUsed() {
+    SampleLruPolicy policy = new SampleLruPolicy(KEYS, 3, 0);
+    policy.add(10);
+    policy.add(11);
+    policy.add(12);
+    assertEquals(SampleLruPolicy.NO_KEY, policy.evict());
+    assertTrue(policy.touch(10));
+    policy.add(13);
+    assertEquals(11, policy.evict());
+    assertEquals(SampleLruPolicy.NO_KEY, policy.evict());
+    assertFalse(policy.isResident(11));
+    assertFalse(policy.touch(11));
+    assertEquals(3, policy.size());
+    assertEquals(1, policy.getHitCount());
+    assertEquals(1, policy.getMissCount());
+    assertEquals(1, policy.getEvictionCount());
+  }
+
+  @Test public void keepsPinnedRange() {
+    SampleLruPolicy policy = new SampleLruPolicy(KEYS, 2, 0);
+    policy.setPinnedRange(0, 1);
+    policy.add(0);
+    policy.add(1);
+    policy.add(50);
+    //可见范围内的都不能淘汰,只能淘汰新添加的
+    assertEquals(50, policy.evict());
+    policy.setPinnedRange(0, 2);
+    policy.add(2);
+    assertEquals(SampleLruPolicy.NO_KEY, policy.evict());
+    assertEquals(3, policy.size());
+    policy.setPinnedRange(1, 2);
+    assertEquals(0, policy.evict());
+    assertEquals(2, policy.size());
+  }
+
+  @Test public void keepsRecentlyPlayed() {
+    SampleLruPolicy policy = new SampleLruPolicy(KEYS, 3, 2);
+    policy.add(20);
+    policy.add(21);
+    policy.add(22);
+    policy.add(23);
+    assertEquals(20, policy.evict());
+    policy.setPinnedRange(21, 21);
+    policy.add(24);
+    //21在可见范围内,23和24是最近播放的
+    assertEquals(22, policy.evict());
+    policy.add(25);
+    assertEquals(23, policy.evict());
+    //只剩下可见范围内的和最近播放的,暂时超出容量
+    policy.setPinnedRange(21, 24);
+    policy.add(22);
+    assertEquals(SampleLruPolicy.NO_KEY, policy.evict());
+    assertEquals(4, policy.size());
+  }
+
+  @Test public void removeDoesNotCountAsEviction() {
+    SampleLruPolicy policy = new SampleLruPolicy(KEYS, 2, 0);
+    policy.add(5);
+    policy.add(6);
+    policy.remove(5);
+    policy.add(7);
+    assertEquals(SampleLruPolicy.NO_KEY, policy.evict());
+    assertEquals(0, policy.getEvictionCount());
+    assertFalse(policy.add(7));
+    policy.add(8);
+    assertEquals(6, policy.evict());
+  }
+
+  @Test public void residentSetStaysWithinBudget() {
+    int budget = 24;
+    SampleLruPolicy policy = new SampleLruPolicy(KEYS, budget, 4);
+    policy.setPinnedRange(39, 50);
+    for (int i = 39; i <= 50; i++) {
+      policy.add(i);
+    }
+    int seed = 7;
+    for (int i = 0; i < 10000; i++) {
+      seed = seed * 1103515245 + 12345;
+      int key = ((seed >>> 16) & 0x7fff) % KEYS;
+      if (!policy.touch(key)) {
+        policy.add(key);
+        int victim;
+        while ((victim = policy.evict()) != SampleLruPolicy.NO_KEY) {
+          assertFalse(policy.isPinned(victim));
+        }
+      }
+      assertTrue(policy.size() <= budget);
+      for (int pinned = 39; pinned <= 50; pinned++) {
+        assertTrue(policy.isResident(pinned));
+      }
+    }
+    assertEquals(10000, policy.getHitCount() + policy.getMissCount());
+  }
+}
@@ -0,0 +1,303 @@
+package com.chengtao.pianoview.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 校验{@link PianoKeyIndex}与逐个钢琴键区域扫描的结果一致
+ */
+public class PianoKeyIndexTest {
+  //白键组内黑键的位置:0-右侧,1-左右两侧,2-左侧,-1-没有黑键
+  private static final int RIGHT = 0;
+  private static final int LEFT_RIGHT = 1;
+  private static final int LEFT = 2;
+  private static final int NONE = -1;
+
+  @Test public void keyNumbering() {
+    assertEquals(0, PianoKeyIndex.getWhiteKeyIndex(0, 0));
+    assertEquals(1, PianoKeyIndex.getBlackKeyIndex(0, 0));
+    assertEquals(2, PianoKeyIndex.getWhiteKeyIndex(0, 1));
+    assertEquals(3, PianoKeyIndex.getWhiteKeyIndex(1, 0));
+    assertEquals(4, PianoKeyIndex.getBlackKeyIndex(1, 0));
+    assertEquals(39, PianoKeyIndex.getWhiteKeyIndex(4, 0));
+    assertEquals(86, PianoKeyIndex.getWhiteKeyIndex(7, 6));
+    assertEquals(87, PianoKeyIndex.getWhiteKeyIndex(8, 0));
+    int blackKeys = 0;
+    for (int i = 0; i < Piano.PIANO_NUMS; i++) {
+      if (PianoKeyIndex.isBlackKey(i)) {
+        blackKeys++;
+      }
+    }
+    assertEquals(36, blackKeys);
+    assertFalse(PianoKeyIndex.isBlackKey(0));
+    assertTrue(PianoKeyIndex.isBlackKey(1));
+  }
+
+  @Test public void findMatchesAreaScan() {
+    assertFindMatchesAreaScan(88, 420, 54, 270);
+    assertFindMatchesAreaScan(61, 300, 37, 190);
+    assertFindMatchesAreaScan(10, 40, 7, 25);
+  }
+
+  @Test public void keyBoundsMatchAreas() {
+    int whiteKeyWidth = 88;
+    int blackKeyWidth = 54;
+    PianoKeyIndex index = new PianoKeyIndex(whiteKeyWidth, 420, blackKeyWidth, 270);
+    assertEquals(PianoKeyIndex.WHITE_KEY_NUMS * whiteKeyWidth, index.getPianoWidth());
+    for (KeyArea area : buildAreas(whiteKeyWidth, 420, blackKeyWidth, 270)) {
+      //点击区域的并集就是图案的位置
+      int left = Integer.MAX_VALUE;
+      int right = Integer.MIN_VALUE;
+      int bottom = Integer.MIN_VALUE;
+      for (int[] r : area.rects) {
+        left = Math.min(left, r[0]);
+        right = Math.max(right, r[2]);
+        bottom = Math.max(bottom, r[3]);
+      }
+      assertEquals("left " + area.index, left, index.getKeyLeft(area.index));
+      assertEquals("right " + area.index, right, index.getKeyRight(area.index));
+      assertEquals("bottom " + area.index, bottom, index.getKeyBottom(area.index));
+    }
+  }
+
+  @Test public void letterNames() {
+    assertEquals(0, PianoKeyIndex.getWhiteKeyIndex("A0"));
+    assertEquals(2, PianoKeyIndex.getWhiteKeyIndex("B0"));
+    assertEquals(15, PianoKeyIndex.getWhiteKeyIndex("C2"));
+    assertEquals(39, PianoKeyIndex.getWhiteKeyIndex("c4"));
+    assertEquals(75, PianoKeyIndex.getWhiteKeyIndex("C7"));
+    assertEquals(87, PianoKeyIndex.getWhiteKeyIndex("C8"));
+    for (String name : new String[] { null, "", "C0", "D8", "H3", "C9", "C#4", "C" }) {
+      assertEquals(name, PianoKeyIndex.NO_KEY, PianoKeyIndex.getWhiteKeyIndex(name));
+    }
+    for (int column = 0; column < PianoKeyIndex.WHITE_KEY_NUMS; column++) {
+      assertEquals(column,
+          PianoKeyIndex.getColumnOfWhiteKey(PianoKeyIndex.getWhiteKeyIndexOfColumn(column)));
+    }
+  }
+
+  @Test public void keyRangeMatchesFullKeyboard() {
+    //61键、76键和黑键结尾的范围
+    int[][] ranges = { { 15, 75, 15, 75 }, { 7, 82, 7, 82 }, { 1, 13, 0, 14 }, { 39, 39, 39, 39 } };
+    int whiteKeyWidth = 88;
+    PianoKeyIndex full = new PianoKeyIndex(whiteKeyWidth, 420, 54, 270);
+    for (int[] range : ranges) {
+      PianoKeyIndex index = new PianoKeyIndex(range[0], range[1], whiteKeyWidth, 420, 54, 270);
+      assertEquals(range[2], index.getStartKey());
+      assertEquals(range[3], index.getEndKey());
+      int offset = full.getKeyLeft(range[2]);
+      assertEquals(full.getKeyRight(range[3]) - offset, index.getPianoWidth());
+      for (int i = range[2]; i <= range[3]; i++) {
+        assertEquals(full.getKeyLeft(i) - offset, index.getKeyLeft(i));
+        assertEquals(full.getKeyRight(i) - offset, index.getKeyRight(i));
+      }
+      for (int x = -3; x < index.getPianoWidth() + 3; x++) {
+        for (int y = -3; y < 423; y += 7) {
+          int expected = x < 0 ? PianoKeyIndex.NO_KEY : full.find(x + offset, y);
+          if (!index.isInRange(expected)) {
+            expected = PianoKeyIndex.NO_KEY;
+          }
+          //范围两端的白键不会被范围外的黑键遮挡
+          if (expected == PianoKeyIndex.NO_KEY && y >= 0 && y < 420 && x >= 0
+              && x < index.getPianoWidth()) {
+            expected = x < whiteKeyWidth ? range[2] : range[3];
+          }
+          assertEquals("x=" + x + ",y=" + y, expected, index.find(x, y));
+        }
+      }
+      int[] whiteKeys = new int[PianoKeyIndex.WHITE_KEY_NUMS];
+      int[] blackKeys = new int[PianoKeyIndex.BLACK_KEY_NUMS];
+      int whiteCount = index.getVisibleWhiteKeys(-100, 100000, whiteKeys);
+      int blackCount = index.getVisibleBlackKeys(-100, 100000, blackKeys);
+      assertEquals(index.getWhiteKeyCount(), whiteCount);
+      assertEquals(range[3] - range[2] + 1, whiteCount + blackCount);
+      for (int i = 0; i < blackCount; i++) {
+        assertTrue(index.isInRange(blackKeys[i]));
+      }
+    }
+  }
+
+  @Test public void relayoutMatchesNewIndex() {
+    PianoKeyIndex index = new PianoKeyIndex(88, 420, 54, 270);
+    index.setKeySize(88, 210, 54, 135);
+    PianoKeyIndex expected = new PianoKeyIndex(88, 210, 54, 135);
+    for (int i = 0; i < Piano.PIANO_NUMS; i++) {
+      assertEquals(expected.getKeyLeft(i), index.getKeyLeft(i));
+      assertEquals(expected.getKeyRight(i), index.getKeyRight(i));
+      assertEquals(expected.getKeyBottom(i), index.getKeyBottom(i));
+    }
+    for (int x = 0; x < expected.getPianoWidth(); x += 5) {
+      for (int y = -1; y <= 211; y += 3) {
+        assertEquals(expected.find(x, y), index.find(x, y));
+      }
+    }
+  }
+
+  @Test public void visibleKeysMatchBoundsScan() {
+    int whiteKeyWidth = 88;
+    int blackKeyWidth = 54;
+    PianoKeyIndex index = new PianoKeyIndex(whiteKeyWidth, 420, blackKeyWidth, 270);
+    int[] whiteKeys = new int[PianoKeyIndex.WHITE_KEY_NUMS];
+    int[] blackKeys = new int[PianoKeyIndex.BLACK_KEY_NUMS];
+    int pianoWidth = PianoKeyIndex.WHITE_KEY_NUMS * whiteKeyWidth;
+    for (int left = -100; left < pianoWidth + 100; left += 7) {
+      for (int width : new int[] { 1, 40, whiteKeyWidth, 1320 }) {
+        int right = left + width;
+        int expectedWhite = 0;
+        int expectedBlack = 0;
+        for (KeyArea area : buildAreas(whiteKeyWidth, 420, blackKeyWidth, 270)) {
+          if (area.intersects(left, right)) {
+            if (PianoKeyIndex.isBlackKey(area.index)) {
+              expectedBlack++;
+            } else {
+              expectedWhite++;
+            }
+          }
+        }
+        int whiteCount = index.getVisibleWhiteKeys(left, right, whiteKeys);
+        int blackCount = index.getVisibleBlackKeys(left, right, blackKeys);
+        assertEquals("white left=" + left + ",right=" + right, expectedWhite, whiteCount);
+        assertEquals("black left=" + left + ",right=" + right, expectedBlack, blackCount);
+        for (int i = 0; i < blackCount; i++) {
+          assertTrue(PianoKeyIndex.isBlackKey(blackKeys[i]));
+        }
+      }
+    }
+  }
+
+  @Test public void visibleKeysDrawFractionOfKeyboard() {
+    int whiteKeyWidth = 88;
+    PianoKeyIndex index = new PianoKeyIndex(whiteKeyWidth, 420, 54, 270);
+    int[] whiteKeys = new int[PianoKeyIndex.WHITE_KEY_NUMS];
+    int[] blackKeys = new int[PianoKeyIndex.BLACK_KEY_NUMS];
+    //手机横屏大约显示15个白键
+    int layoutWidth = 15 * whiteKeyWidth;
+    int maxScroll = PianoKeyIndex.WHITE_KEY_NUMS * whiteKeyWidth - layoutWidth;
+    for (int progress = 0; progress <= 100; progress++) {
+      int left = progress * maxScroll / 100;
+      int draws = index.getVisibleWhiteKeys(left, left + layoutWidth, whiteKeys)
+          + index.getVisibleBlackKeys(left, left + layoutWidth, blackKeys);
+      assertTrue("draws=" + draws, draws * 3 <= Piano.PIANO_NUMS);
+    }
+  }
+
+  private static void assertFindMatchesAreaScan(int whiteKeyWidth, int whiteKeyHeight,
+      int blackKeyWidth, int blackKeyHeight) {
+    List<KeyArea> areas = buildAreas(whiteKeyWidth, whiteKeyHeight, blackKeyWidth, blackKeyHeight);
+    PianoKeyIndex index =
+        new PianoKeyIndex(whiteKeyWidth, whiteKeyHeight, blackKeyWidth, blackKeyHeight);
+    int pianoWidth = PianoKeyIndex.WHITE_KEY_NUMS * whiteKeyWidth;
+    for (int x = -3; x < pianoWidth + 3; x++) {
+      for (int y = -3; y < whiteKeyHeight + 3; y++) {
+        int expected = PianoKeyIndex.NO_KEY;
+        for (KeyArea area : areas) {
+          if (area.contains(x, y)) {
+            expected = area.index;
+            break;
+          }
+        }
+        assertEquals("x=" + x + ",y=" + y, expected, index.find(x, y));
+      }
+    }
+  }
+
+  /**
+   * 按照{@link Piano}中的方式计算每个钢琴键的点击区域
+   */
+  private static List<KeyArea> buildAreas(int whiteKeyWidth, int whiteKeyHeight,
+      int blackKeyWidth, int blackKeyHeight) {
+    List<KeyArea> areas = new ArrayList<>();
+    for (int group = 0; group < 8; group++) {
+      int keys = group == 0 ? 1 : 5;
+      for (int position = 0; position < keys; position++) {
+        int whiteOffset = group == 0 ? 5 : 0;
+        int blackOffset = position >= 2 ? 1 : 0;
+        int center = (7 * group - 4 + whiteOffset + blackOffset + position) * whiteKeyWidth;
+        areas.add(new KeyArea(PianoKeyIndex.getBlackKeyIndex(group, position), new int[][] {
+            { center - blackKeyWidth / 2, 0, center + blackKeyWidth / 2, blackKeyHeight }
+        }));
+      }
+    }
+    int[] octave = { RIGHT, LEFT_RIGHT, LEFT, RIGHT, LEFT_RIGHT, LEFT_RIGHT, LEFT };
+    for (int group = 0; group < 9; group++) {
+      int keys = group == 0 ? 2 : group == 8 ? 1 : 7;
+      for (int position = 0; position < keys; position++) {
+        int type;
+        if (group == 0) {
+          type = position == 0 ? RIGHT : LEFT;
+        } else if (group == 8) {
+          type = NONE;
+        } else {
+          type = octave[position];
+        }
+        int offset = group == 0 ? 5 : 0;
+        int left = (7 * group - 5 + offset + position) * whiteKeyWidth;
+        int right = (7 * group - 4 + offset + position) * whiteKeyWidth;
+        int half = blackKeyWidth / 2;
+        int[][] rects;
+        switch (type) {
+          case LEFT:
+            rects = new int[][] {
+                { left, blackKeyHeight, left + half, whiteKeyHeight },
+                { left + half, 0, right, whiteKeyHeight }
+            };
+            break;
+          case LEFT_RIGHT:
+            rects = new int[][] {
+                { left, blackKeyHeight, left + half, whiteKeyHeight },
+                { left + half, 0, right - half, whiteKeyHeight },
+                { right - half, blackKeyHeight, right, whiteKeyHeight }
+            };
+            break;
+          case RIGHT:
+            rects = new int[][] {
+                { left, 0, right - half, whiteKeyHeight },
+                { right - half, blackKeyHeight, right, whiteKeyHeight }
+            };
+            break;
+          default:
+            rects = new int[][] { { left, 0, right, whiteKeyHeight } };
+            break;
+        }
+        areas.add(new KeyArea(PianoKeyIndex.getWhiteKeyIndex(group, position), rects));
+      }
+    }
+    return areas;
+  }
+
+  /**
+   * 钢琴键区域,判断方式与android.graphics.Rect#contains相同
+   */
+  private static final class KeyArea {
+    private final int index;
+    private final int[][] rects;
+
+    KeyArea(int index, int[][] rects) {
+      this.index = index;
+      this.rects = rects;
+    }
+
+    boolean intersects(int left, int right) {
+      for (int[] r : rects) {
+        if (r[0] < r[2] && r[1] < r[3] && r[0] < right && r[2] > left) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    boolean contains(int x, int y) {
+      for (int[] r : rects) {
+        if (r[0] < r[2] && r[1] < r[3] && x >= r[0] && x < r[2] && y >= r[1] && y < r[3]) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
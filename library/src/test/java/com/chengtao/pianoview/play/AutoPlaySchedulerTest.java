@@ -0,0 +1,349 @@
+package com.chengtao.pianoview.play;
+
+import com.chengtao.pianoview.entity.AutoPlayEntity;
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 自动播放调度器测试,使用每次sleep都会超时的假时钟
+ */
+public class AutoPlaySchedulerTest {
+  //时钟精度,毫秒
+  private static final long TICK = 1;
+  private static final long LOOKAHEAD = 50;
+  private static final int NOTES = 10000;
+  //JVM的单调时钟,单元测试中没有SystemClock
+  static final AutoPlayScheduler.Clock NANO_CLOCK = new AutoPlayScheduler.Clock() {
+    @Override public long uptimeMillis() {
+      return System.nanoTime() / 1000000;
+    }
+
+    @Override public void await(Object lock, long millis) throws InterruptedException {
+      lock.wait(millis);
+    }
+  };
+
+  @Test public void noDriftOverTenThousandNotes() {
+    List<AutoPlayEntity> entities = new ArrayList<>();
+    Random random = new Random(11);
+    long totalTime = 0;
+    for (int i = 0; i < NOTES; i++) {
+      long breakTime = 40 + random.nextInt(400);
+      entities.add(new AutoPlayEntity(Piano.PianoKeyType.WHITE, 1 + random.nextInt(7),
+          random.nextInt(7), breakTime));
+      totalTime += breakTime;
+    }
+    FakeClock clock = new FakeClock(1000, 20);
+    RecordingTarget target = new RecordingTarget(clock);
+    new AutoPlayScheduler(AutoPlayTimeline.compile(entities), clock, LOOKAHEAD, target).run();
+
+    assertEquals(NOTES, target.downTimes.size());
+    long startTime = target.startTime;
+    long expected = startTime;
+    for (int i = 0; i < NOTES; i++) {
+      assertEquals(expected, (long) target.downTimes.get(i));
+      expected += entities.get(i).getCurrentBreakTime();
+    }
+    //总漂移小于一个时钟精度
+    assertTrue(Math.abs(target.endTime - (startTime + totalTime)) < TICK);
+    //每个事件都在应该发生之前交出,超时只在lookahead之内消化
+    assertTrue("late handoff " + target.maxLateness, target.maxLateness <= 0);
+  }
+
+  @Test public void skipsInvalidKeys() {
+    List<AutoPlayEntity> entities = new ArrayList<>();
+    entities.add(new AutoPlayEntity(Piano.PianoKeyType.WHITE, 0, 5, 100));
+    entities.add(new AutoPlayEntity(Piano.PianoKeyType.BLACK, 4, 0, 100));
+    entities.add(null);
+    FakeClock clock = new FakeClock(0, 0);
+    RecordingTarget target = new RecordingTarget(clock);
+    new AutoPlayScheduler(AutoPlayTimeline.compile(entities), clock, LOOKAHEAD, target).run();
+    assertEquals(1, target.downTimes.size());
+    assertEquals(target.startTime + 100, (long) target.downTimes.get(0));
+    assertEquals(1, target.upCount);
+    assertEquals(target.startTime + 200, target.endTime);
+  }
+
+  @Test public void releasesEachNoteOfChord() {
+    AutoPlayTimeline timeline = new AutoPlayTimeline.Builder()
+        .addNote(39, 0, 300)
+        .addNote(43, 0, 100)
+        .addNote(46, 0, 200)
+        .addNote(43, 100, 0)
+        .build();
+    FakeClock clock = new FakeClock(0, 0);
+    final StringBuilder events = new StringBuilder();
+    new AutoPlayScheduler(timeline, clock, 0, new AutoPlayScheduler.Target() {
+      @Override public void onStart(long when) {
+      }
+
+      @Override public void onKeyDown(int keyIndex, int velocity, long when) {
+        events.append('+').append(keyIndex).append('@').append(when).append(' ');
+      }
+
+      @Override public void onKeyUp(int keyIndex, long when) {
+        events.append('-').append(keyIndex).append('@').append(when).append(' ');
+      }
+
+      @Override public void onEnd(long when) {
+      }
+    }).run();
+    assertEquals("+39@0 +43@0 +46@0 -43@100 +43@100 -43@100 -46@200 -39@300 ",
+        events.toString());
+  }
+
+  @Test public void passesVelocity() {
+    AutoPlayTimeline timeline = new AutoPlayTimeline.Builder()
+        .addNote(39, 0, 100, 30)
+        .addNote(43, 0, 100)
+        .addNote(46, 50, 100, 127)
+        .build();
+    final StringBuilder velocities = new StringBuilder();
+    new AutoPlayScheduler(timeline, new FakeClock(0, 0), 0, new EventLog() {
+      @Override public void onKeyDown(int keyIndex, int velocity, long when) {
+        velocities.append(keyIndex).append(':').append(velocity).append(' ');
+      }
+    }).run();
+    assertEquals("39:30 43:" + AutoPlayTimeline.DEFAULT_VELOCITY + " 46:127 ",
+        velocities.toString());
+  }
+
+  @Test public void schedulesDenseScores() {
+    //10万个和弦,每个和弦4个音,前后重叠
+    AutoPlayTimeline.Builder builder = new AutoPlayTimeline.Builder();
+    Random random = new Random(5);
+    for (int chord = 0; chord < 100000; chord++) {
+      for (int note = 0; note < 4; note++) {
+        builder.addNote(random.nextInt(Piano.PIANO_NUMS), chord * 10L, 5 + random.nextInt(60));
+      }
+    }
+    AutoPlayTimeline timeline = builder.build();
+    FakeClock clock = new FakeClock(0, 3);
+    final int[] pressed = new int[Piano.PIANO_NUMS];
+    final long[] counts = new long[2];
+    new AutoPlayScheduler(timeline, clock, LOOKAHEAD, new AutoPlayScheduler.Target() {
+      private long lastWhen = Long.MIN_VALUE;
+
+      @Override public void onStart(long when) {
+      }
+
+      @Override public void onKeyDown(int keyIndex, int velocity, long when) {
+        assertTrue(when >= lastWhen);
+        lastWhen = when;
+        pressed[keyIndex]++;
+        counts[0]++;
+      }
+
+      @Override public void onKeyUp(int keyIndex, long when) {
+        assertTrue(when >= lastWhen);
+        lastWhen = when;
+        pressed[keyIndex]--;
+        assertTrue(pressed[keyIndex] >= 0);
+        counts[1]++;
+      }
+
+      @Override public void onEnd(long when) {
+      }
+    }).run();
+    assertEquals(timeline.size(), counts[0]);
+    assertEquals(timeline.size(), counts[1]);
+    for (int keyIndex = 0; keyIndex < Piano.PIANO_NUMS; keyIndex++) {
+      assertEquals(0, pressed[keyIndex]);
+    }
+  }
+
+  @Test public void pausesAndResumes() {
+    AutoPlayTimeline timeline = scale(10, 100);
+    final FakeClock clock = new FakeClock(0, 0);
+    final EventLog log = new EventLog();
+    final AutoPlayScheduler[] scheduler = new AutoPlayScheduler[1];
+    scheduler[0] = new AutoPlayScheduler(timeline, clock, 0, new EventLog() {
+      @Override public void onKeyDown(int keyIndex, int velocity, long when) {
+        log.onKeyDown(keyIndex, velocity, when);
+        if (keyIndex == 42) {
+          //第4个音符按下后50毫秒暂停,暂停1秒后继续
+          clock.now += 50;
+          scheduler[0].pause();
+          assertEquals(350, scheduler[0].getPosition());
+          clock.idleAction = () -> scheduler[0].resume();
+        }
+      }
+
+      @Override public void onKeyUp(int keyIndex, long when) {
+        log.onKeyUp(keyIndex, when);
+      }
+    });
+    scheduler[0].run();
+    //暂停时第4个音符已经按下,不再抬起,从第5个音符继续,中间间隔1050毫秒
+    assertEquals("+39@0 -39@50 +40@100 -40@150 +41@200 -41@250 +42@300 "
+        + "+43@1400 -43@1450 +44@1500 ", log.head(10));
+    assertEquals(10 - 1, log.ups);
+    assertEquals(10, log.downs);
+  }
+
+  @Test public void seeksAndChangesTempo() {
+    AutoPlayTimeline timeline = scale(20, 100);
+    final FakeClock clock = new FakeClock(0, 0);
+    final EventLog log = new EventLog();
+    final AutoPlayScheduler[] scheduler = new AutoPlayScheduler[1];
+    scheduler[0] = new AutoPlayScheduler(timeline, clock, 0, new EventLog() {
+      @Override public void onKeyDown(int keyIndex, int velocity, long when) {
+        log.onKeyDown(keyIndex, velocity, when);
+        if (keyIndex == 40) {
+          scheduler[0].seekToNote(10);
+          scheduler[0].setTempo(2f);
+        } else if (keyIndex == 51) {
+          scheduler[0].seekTo(1850);
+          scheduler[0].setTempo(0.5f);
+        }
+      }
+
+      @Override public void onKeyUp(int keyIndex, long when) {
+        log.onKeyUp(keyIndex, when);
+      }
+    });
+    scheduler[0].run();
+    //从第10个音符开始两倍速,然后跳到1850毫秒(第19个音符的中间)半速
+    assertEquals("+39@0 -39@50 +40@100 +49@100 -49@125 +50@150 -50@175 +51@200 "
+        + "+58@300 -58@400 ", log.head(11));
+    assertTrue(scheduler[0].isStopped());
+  }
+
+  @Test public void stopEndsWorkerThread() throws InterruptedException {
+    AutoPlayTimeline timeline = scale(1000, 1000);
+    final EventLog log = new EventLog();
+    AutoPlayScheduler scheduler =
+        new AutoPlayScheduler(timeline, NANO_CLOCK, 10, log);
+    Thread thread = new Thread(scheduler);
+    thread.start();
+    Thread.sleep(50);
+    scheduler.pause();
+    Thread.sleep(20);
+    scheduler.stop();
+    thread.join(1000);
+    assertTrue(!thread.isAlive());
+    assertTrue(scheduler.isStopped());
+    assertEquals(1, log.ends);
+  }
+
+  /**
+   * 按顺序依次按下的音符,每个音符持续一半的间隔时间
+   */
+  private static AutoPlayTimeline scale(int notes, long breakTime) {
+    AutoPlayTimeline.Builder builder = new AutoPlayTimeline.Builder();
+    for (int i = 0; i < notes; i++) {
+      builder.addNote(39 + i, i * breakTime, breakTime / 2);
+    }
+    return builder.setDuration(notes * breakTime).build();
+  }
+
+  private static class EventLog implements AutoPlayScheduler.Target {
+    private final StringBuilder events = new StringBuilder();
+    private int downs;
+    private int ups;
+    private int ends;
+
+    @Override public void onStart(long when) {
+    }
+
+    @Override public void onKeyDown(int keyIndex, int velocity, long when) {
+      downs++;
+      append('+', keyIndex, when);
+    }
+
+    @Override public void onKeyUp(int keyIndex, long when) {
+      ups++;
+      append('-', keyIndex, when);
+    }
+
+    @Override public void onEnd(long when) {
+      ends++;
+    }
+
+    private void append(char type, int keyIndex, long when) {
+      events.append(type).append(keyIndex).append('@').append(when).append(' ');
+    }
+
+    String head(int events) {
+      String[] parts = this.events.toString().split(" ");
+      StringBuilder head = new StringBuilder();
+      for (int i = 0; i < events && i < parts.length; i++) {
+        head.append(parts[i]).append(' ');
+      }
+      return head.toString();
+    }
+  }
+
+  /**
+   * 假时钟,等待会随机超时
+   */
+  private static final class FakeClock implements AutoPlayScheduler.Clock {
+    private final Random random = new Random(3);
+    private final int maxOvershoot;
+    private long now;
+    //一直等待时执行,模拟其他线程的操作
+    private Runnable idleAction;
+
+    FakeClock(long now, int maxOvershoot) {
+      this.now = now;
+      this.maxOvershoot = maxOvershoot;
+    }
+
+    @Override public long uptimeMillis() {
+      return now;
+    }
+
+    @Override public void await(Object lock, long millis) throws InterruptedException {
+      if (millis <= 0) {
+        Runnable action = idleAction;
+        idleAction = null;
+        if (action == null) {
+          throw new AssertionError("waiting forever");
+        }
+        now += 1000;
+        action.run();
+        return;
+      }
+      now += millis + (maxOvershoot > 0 ? random.nextInt(maxOvershoot + 1) : 0);
+    }
+  }
+
+  private static final class RecordingTarget implements AutoPlayScheduler.Target {
+    private final FakeClock clock;
+    private final List<Long> downTimes = new ArrayList<>();
+    private long startTime;
+    private long endTime;
+    private long maxLateness = Long.MIN_VALUE;
+    private int upCount;
+
+    RecordingTarget(FakeClock clock) {
+      this.clock = clock;
+    }
+
+    @Override public void onStart(long when) {
+      startTime = when;
+    }
+
+    @Override public void onKeyDown(int keyIndex, int velocity, long when) {
+      assertTrue(keyIndex != PianoKeyIndex.NO_KEY);
+      downTimes.add(when);
+      maxLateness = Math.max(maxLateness, clock.uptimeMillis() - when);
+    }
+
+    @Override public void onKeyUp(int keyIndex, long when) {
+      upCount++;
+      maxLateness = Math.max(maxLateness, clock.uptimeMillis() - when);
+    }
+
+    @Override public void onEnd(long when) {
+      endTime = when;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.chengtao.pianoview.play;
+
+import com.chengtao.pianoview.entity.AutoPlayEntity;
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 自动播放时间线测试
+ */
+public class AutoPlayTimelineTest {
+
+  @Test public void compilesKeysAndTimes() {
+    List<AutoPlayEntity> entities = new ArrayList<>();
+    entities.add(new AutoPlayEntity(Piano.PianoKeyType.WHITE, 4, 0, 200));
+    entities.add(new AutoPlayEntity(Piano.PianoKeyType.BLACK, 4, 1, 101));
+    //不存在的钢琴键,跳过但占用时间
+    entities.add(new AutoPlayEntity(Piano.PianoKeyType.BLACK, 0, 3, 50));
+    entities.add(null);
+    entities.add(new AutoPlayEntity(Piano.PianoKeyType.WHITE, 8, 0, 300));
+    AutoPlayTimeline timeline = AutoPlayTimeline.compile(entities);
+    assertEquals(3, timeline.size());
+    assertEquals(PianoKeyIndex.getWhiteKeyIndex(4, 0), timeline.getKeyIndex(0));
+    assertEquals(PianoKeyIndex.getBlackKeyIndex(4, 1), timeline.getKeyIndex(1));
+    assertEquals(87, timeline.getKeyIndex(2));
+    assertEquals(0, timeline.getOnTime(0));
+    assertEquals(100, timeline.getOffTime(0));
+    assertEquals(200, timeline.getOnTime(1));
+    assertEquals(250, timeline.getOffTime(1));
+    assertEquals(351, timeline.getOnTime(2));
+    assertEquals(501, timeline.getOffTime(2));
+    assertEquals(651, timeline.getDuration());
+  }
+
+  @Test public void seeksByTime() {
+    List<AutoPlayEntity> entities = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      entities.add(new AutoPlayEntity(Piano.PianoKeyType.WHITE, 4, i % 7, 10));
+    }
+    AutoPlayTimeline timeline = AutoPlayTimeline.compile(entities);
+    assertEquals(0, timeline.seek(-5));
+    assertEquals(0, timeline.seek(0));
+    assertEquals(1, timeline.seek(1));
+    assertEquals(500, timeline.seek(5000));
+    assertEquals(501, timeline.seek(5001));
+    assertEquals(1000, timeline.seek(100000));
+    assertEquals(0, AutoPlayTimeline.compile(null).seek(0));
+  }
+
+  @Test public void buildsOverlappingNotes() {
+    //C大三和弦,然后一个跨越和弦的长音
+    AutoPlayTimeline timeline = new AutoPlayTimeline.Builder()
+        .addNote(50, 500, 100)
+        .addNote(39, 0, 1000)
+        .addNote(43, 0, 400)
+        .addNote(46, 0, 400)
+        .build();
+    assertEquals(4, timeline.size());
+    assertEquals(39, timeline.getKeyIndex(0));
+    assertEquals(43, timeline.getKeyIndex(1));
+    assertEquals(46, timeline.getKeyIndex(2));
+    assertEquals(50, timeline.getKeyIndex(3));
+    //按抬起时间排序
+    assertEquals(1, timeline.getNoteOfOff(0));
+    assertEquals(2, timeline.getNoteOfOff(1));
+    assertEquals(3, timeline.getNoteOfOff(2));
+    assertEquals(0, timeline.getNoteOfOff(3));
+    assertEquals(1000, timeline.getDuration());
+    assertEquals(2, timeline.seekOff(600));
+  }
+
+  @Test public void clipsOverlappingNotesOfSameKey() {
+    AutoPlayTimeline timeline = new AutoPlayTimeline.Builder()
+        .addNote(40, 0, 500)
+        .addNote(40, 200, 100)
+        .addNote(200, 0, 100)
+        .build();
+    assertEquals(2, timeline.size());
+    assertEquals(200, timeline.getOffTime(0));
+    assertEquals(300, timeline.getOffTime(1));
+  }
+}
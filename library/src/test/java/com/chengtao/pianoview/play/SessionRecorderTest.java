@@ -0,0 +1,36 @@
+package com.chengtao.pianoview.play;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 演奏录制测试
+ */
+public class SessionRecorderTest {
+  @Test public void recordsKeys() {
+    SessionRecorder recorder = new SessionRecorder(1000);
+    recorder.onKeyDown(39, 1100);
+    recorder.onKeyDown(43, 30, 1150);
+    recorder.onKeyUp(39, 1300);
+    //重复按下时前一个音符抬起
+    recorder.onKeyDown(43, 1400);
+    //没有按下的抬起被忽略
+    recorder.onKeyUp(50, 1450);
+    AutoPlayTimeline timeline = recorder.stop(1600);
+    assertEquals(3, timeline.size());
+    assertEquals(600, timeline.getDuration());
+    assertEquals(39, timeline.getKeyIndex(0));
+    assertEquals(100, timeline.getOnTime(0));
+    assertEquals(300, timeline.getOffTime(0));
+    assertEquals(43, timeline.getKeyIndex(1));
+    assertEquals(150, timeline.getOnTime(1));
+    assertEquals(400, timeline.getOffTime(1));
+    assertEquals(400, timeline.getOnTime(2));
+    assertEquals(600, timeline.getOffTime(2));
+    //触摸按下的钢琴键以最大力度录制
+    assertEquals(AutoPlayTimeline.MAX_VELOCITY, timeline.getVelocity(0));
+    assertEquals(30, timeline.getVelocity(1));
+    assertEquals(AutoPlayTimeline.MAX_VELOCITY, timeline.getVelocity(2));
+  }
+}
@@ -0,0 +1,218 @@
+package com.chengtao.pianoview.play;
+
+import com.chengtao.pianoview.utils.AutoPlayUtils;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 边解析边播放测试
+ */
+public class StreamingAutoPlayerTest {
+  private static final int CAPACITY = 64;
+
+  @Test public void matchesCompiledTimeline() {
+    String config = randomConfig(2000);
+    EventLog streamed = new EventLog();
+    new StreamingAutoPlayer(AutoPlayUtils.getScoreSourceByCustomConfig(new StringReader(config)),
+        CAPACITY, 8, new FakeClock(), 50, streamed).run();
+    EventLog compiled = new EventLog();
+    new AutoPlayScheduler(AutoPlayTimeline.compile(
+        AutoPlayUtils.getAutoPlayEntityListByCustomConfigString(config)), new FakeClock(), 50,
+        compiled).run();
+    assertTrue(compiled.downs > 1500);
+    assertEquals(compiled.events.toString(), streamed.events.toString());
+    assertEquals(compiled.startTime, streamed.startTime);
+    assertEquals(compiled.endTime, streamed.endTime);
+  }
+
+  @Test public void playsOverlappingNotes() {
+    //和弦、连奏以及同一个钢琴键重叠的音符
+    Random random = new Random(3);
+    final int notes = 5000;
+    final int[] keys = new int[notes];
+    final long[] onTimes = new long[notes];
+    final long[] durations = new long[notes];
+    final int[] velocities = new int[notes];
+    AutoPlayTimeline.Builder builder = new AutoPlayTimeline.Builder();
+    long time = 0;
+    for (int i = 0; i < notes; i++) {
+      time += random.nextInt(4) == 0 ? 0 : random.nextInt(120);
+      keys[i] = 30 + random.nextInt(12);
+      onTimes[i] = time;
+      durations[i] = random.nextInt(600);
+      velocities[i] = 1 + random.nextInt(AutoPlayTimeline.MAX_VELOCITY);
+      builder.addNote(keys[i], onTimes[i], durations[i], velocities[i]);
+    }
+    EventLog streamed = new EventLog();
+    new StreamingAutoPlayer(new StreamingAutoPlayer.ScoreSource() {
+      @Override public long read(ScoreBuffer buffer) throws Exception {
+        for (int i = 0; i < notes; i++) {
+          if (!buffer.put(keys[i], onTimes[i], onTimes[i] + durations[i], velocities[i])) {
+            break;
+          }
+        }
+        return -1;
+      }
+    }, CAPACITY, 8, new FakeClock(), 50, streamed).run();
+    EventLog compiled = new EventLog();
+    new AutoPlayScheduler(builder.build(), new FakeClock(), 50, compiled).run();
+    assertEquals(notes, streamed.downs);
+    assertEquals(notes, streamed.ups);
+    assertEquals(compiled.events.toString(), streamed.events.toString());
+    assertEquals(compiled.velocities.toString(), streamed.velocities.toString());
+    assertEquals(compiled.endTime - compiled.startTime, streamed.endTime - streamed.startTime);
+  }
+
+  @Test public void bufferIsBounded() {
+    final int notes = 100000;
+    EventLog log = new EventLog();
+    StreamingAutoPlayer player = new StreamingAutoPlayer(new StreamingAutoPlayer.ScoreSource() {
+      @Override public long read(ScoreBuffer buffer) throws Exception {
+        for (int i = 0; i < notes; i++) {
+          if (!buffer.put(i % 88, i * 10L, i * 10L + 5)) {
+            break;
+          }
+        }
+        return notes * 10L;
+      }
+    }, CAPACITY, 8, new FakeClock(), 50, log);
+    player.run();
+    assertEquals(notes, log.downs);
+    assertEquals(notes, log.ups);
+    assertTrue(player.getBuffer().getMaxSize() <= CAPACITY);
+    assertEquals(log.startTime + notes * 10L, log.endTime);
+  }
+
+  @Test public void seeksForward() {
+    final EventLog log = new EventLog();
+    final StreamingAutoPlayer[] player = new StreamingAutoPlayer[1];
+    player[0] = new StreamingAutoPlayer(scale(20), CAPACITY, 1, new FakeClock(), 0, new EventLog() {
+      @Override public void onStart(long when) {
+        log.onStart(when);
+      }
+
+      @Override public void onKeyDown(int keyIndex, int velocity, long when) {
+        log.onKeyDown(keyIndex, velocity, when);
+        if (keyIndex == 1) {
+          player[0].seekToNote(10);
+        } else if (keyIndex == 10) {
+          //向后跳转到第13个音符的中间,第14个音符开始播放
+          player[0].seekTo(1250);
+          //不能向前跳转
+          player[0].seekTo(0);
+        }
+      }
+
+      @Override public void onKeyUp(int keyIndex, long when) {
+        log.onKeyUp(keyIndex, when);
+      }
+    });
+    player[0].run();
+    //跳转之后已经按下的音符由调用方抬起,不再交出
+    assertTrue(log.events.toString(), log.events.toString()
+        .startsWith("+0@0 -0@50 +1@100 +10@100 +13@150 -13@200 +14@250 "));
+  }
+
+  @Test public void stopEndsBothThreads() throws InterruptedException {
+    final CountDownLatch readEnded = new CountDownLatch(1);
+    EventLog log = new EventLog();
+    StreamingAutoPlayer player = new StreamingAutoPlayer(new StreamingAutoPlayer.ScoreSource() {
+      @Override public long read(ScoreBuffer buffer) throws Exception {
+        //无限长的乐曲
+        try {
+          for (long i = 0; buffer.put((int) (i % 88), i * 100, i * 100 + 50); i++) {
+          }
+        } finally {
+          readEnded.countDown();
+        }
+        return -1;
+      }
+    }, CAPACITY, 8, AutoPlaySchedulerTest.NANO_CLOCK, 10, log);
+    Thread thread = new Thread(player);
+    thread.start();
+    Thread.sleep(150);
+    player.pause();
+    Thread.sleep(20);
+    player.stop();
+    thread.join(1000);
+    assertTrue(!thread.isAlive());
+    assertTrue(readEnded.await(1, TimeUnit.SECONDS));
+    assertTrue(player.isStopped());
+    assertEquals(1, log.ends);
+  }
+
+  private static StreamingAutoPlayer.ScoreSource scale(final int notes) {
+    return new StreamingAutoPlayer.ScoreSource() {
+      @Override public long read(ScoreBuffer buffer) throws Exception {
+        for (int i = 0; i < notes && buffer.put(i, i * 100L, i * 100L + 50); i++) {
+        }
+        return notes * 100L;
+      }
+    };
+  }
+
+  private static String randomConfig(int notes) {
+    String[] tokens = { "1", "H2", "L3", "H4", "L5", "HO1", "LO7", "M6", "0", "5*2", "3*0.5" };
+    Random random = new Random(7);
+    StringBuilder config = new StringBuilder("{tune:D;frequency:240;name:\"test\";}");
+    for (int i = 0; i < notes; i++) {
+      config.append(tokens[random.nextInt(tokens.length)]);
+      config.append(i % 4 == 3 ? '|' : ',');
+    }
+    return config.toString();
+  }
+
+  private static class EventLog implements AutoPlayScheduler.Target {
+    private final StringBuilder events = new StringBuilder();
+    private final StringBuilder velocities = new StringBuilder();
+    private long startTime;
+    private long endTime;
+    private int downs;
+    private int ups;
+    private int ends;
+
+    @Override public void onStart(long when) {
+      startTime = when;
+    }
+
+    @Override public void onKeyDown(int keyIndex, int velocity, long when) {
+      downs++;
+      velocities.append(velocity).append(' ');
+      events.append('+').append(keyIndex).append('@').append(when - startTime).append(' ');
+    }
+
+    @Override public void onKeyUp(int keyIndex, long when) {
+      ups++;
+      events.append('-').append(keyIndex).append('@').append(when - startTime).append(' ');
+    }
+
+    @Override public void onEnd(long when) {
+      ends++;
+      endTime = when;
+    }
+  }
+
+  /**
+   * 假时钟,等待立即返回并且时间前进
+   */
+  private static final class FakeClock implements AutoPlayScheduler.Clock {
+    private long now = 1000;
+
+    @Override public long uptimeMillis() {
+      return now;
+    }
+
+    @Override public void await(Object lock, long millis) {
+      if (millis <= 0) {
+        throw new AssertionError("waiting forever");
+      }
+      now += millis;
+    }
+  }
+}
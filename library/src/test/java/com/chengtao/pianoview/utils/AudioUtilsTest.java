@@ -0,0 +1,56 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.entity.Piano;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 音频加载顺序测试
+ */
+public class AudioUtilsTest {
+
+  @Test public void visibleKeysLoadFirst() {
+    int[] order = AudioUtils.getLoadOrder(39, 50);
+    for (int i = 0; i < 12; i++) {
+      assertEquals(39 + i, order[i]);
+    }
+    //然后由近及远交替加载两侧
+    assertEquals(51, order[12]);
+    assertEquals(38, order[13]);
+    assertEquals(52, order[14]);
+    assertEquals(37, order[15]);
+  }
+
+  @Test public void everyKeyLoadedOnce() {
+    int[][] ranges = { { 0, 87 }, { 0, 10 }, { 80, 87 }, { 40, 40 }, { -5, 200 }, { 60, 20 } };
+    for (int[] range : ranges) {
+      int[] order = AudioUtils.getLoadOrder(range[0], range[1]);
+      assertEquals(Piano.PIANO_NUMS, order.length);
+      boolean[] loaded = new boolean[Piano.PIANO_NUMS];
+      for (int keyIndex : order) {
+        assertTrue(!loaded[keyIndex]);
+        loaded[keyIndex] = true;
+      }
+    }
+  }
+
+  @Test public void onlyKeysInRangeLoaded() {
+    //61键,C2到C7
+    int startKey = 15;
+    int endKey = 75;
+    int[][] ranges = { { 15, 75 }, { 0, 20 }, { 70, 87 }, { 40, 50 } };
+    for (int[] range : ranges) {
+      int[] order = AudioUtils.getLoadOrder(range[0], range[1], startKey, endKey);
+      assertEquals(61, order.length);
+      boolean[] loaded = new boolean[Piano.PIANO_NUMS];
+      for (int keyIndex : order) {
+        assertTrue(keyIndex >= startKey && keyIndex <= endKey);
+        assertTrue(!loaded[keyIndex]);
+        loaded[keyIndex] = true;
+      }
+    }
+    assertEquals(40, AudioUtils.getLoadOrder(40, 50, startKey, endKey)[0]);
+  }
+}
@@ -0,0 +1,80 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.entity.AutoPlayEntity;
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 自动播放实体Json读写测试,与Gson反射的结果比较
+ */
+public class AutoPlayEntityAdapterTest {
+  private static final Type LIST_TYPE = new TypeToken<List<AutoPlayEntity>>() {
+  }.getType();
+
+  @Test public void matchesReflectiveGson() {
+    String json = "[{\"type\":1,\"group\":4,\"position\":0,\"break\":500},"
+        + "{\"type\":\"0\",\"group\":\"3\",\"position\":2,\"break\":250,\"unknown\":[1,{}]},"
+        + "null,"
+        + "{\"type\":null,\"group\":null,\"break\":100},"
+        + "{\"type\":\"WHITE\",\"group\":2,\"position\":1,\"break\":100,\"break\":300},"
+        + "{position:6,type:'1',group:7}]";
+    List<AutoPlayEntity> expected = new Gson().fromJson(json, LIST_TYPE);
+    List<AutoPlayEntity> actual = AutoPlayUtils.getAutoPlayEntityListByJsonString(json);
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEntityEquals(expected.get(i), actual.get(i));
+    }
+    assertTimelineEquals(AutoPlayTimeline.compile(expected),
+        AutoPlayUtils.getAutoPlayTimelineByJson(new StringReader(json)));
+    assertNull(AutoPlayUtils.getAutoPlayTimelineByJson(new StringReader("[{\"group\":\"x\"}]")));
+  }
+
+  @Test public void writesLikeReflectiveGson() {
+    List<AutoPlayEntity> entities = generate(100);
+    entities.get(3).setType(null);
+    assertEquals(new Gson().toJson(entities), AutoPlayUtils.gson.toJson(entities));
+  }
+
+  private static List<AutoPlayEntity> generate(int notes) {
+    AutoPlayEntity[] entities = new AutoPlayEntity[notes];
+    Random random = new Random(37);
+    for (int i = 0; i < notes; i++) {
+      boolean white = random.nextInt(3) > 0;
+      entities[i] = new AutoPlayEntity(white ? Piano.PianoKeyType.WHITE : Piano.PianoKeyType.BLACK,
+          random.nextInt(8), random.nextInt(white ? 7 : 5), random.nextInt(1000));
+    }
+    return Arrays.asList(entities);
+  }
+
+  private static void assertEntityEquals(AutoPlayEntity expected, AutoPlayEntity actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    assertEquals(expected.getType(), actual.getType());
+    assertEquals(expected.getGroup(), actual.getGroup());
+    assertEquals(expected.getPosition(), actual.getPosition());
+    assertEquals(expected.getCurrentBreakTime(), actual.getCurrentBreakTime());
+  }
+
+  private static void assertTimelineEquals(AutoPlayTimeline expected, AutoPlayTimeline actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.getDuration(), actual.getDuration());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.getKeyIndex(i), actual.getKeyIndex(i));
+      assertEquals(expected.getOnTime(i), actual.getOnTime(i));
+      assertEquals(expected.getOffTime(i), actual.getOffTime(i));
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.entity.AutoPlayEntity;
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 二进制乐谱测试
+ */
+public class BinaryScoreUtilsTest {
+  @Test public void roundTrips() throws IOException {
+    AutoPlayTimeline.Builder builder = new AutoPlayTimeline.Builder();
+    Random random = new Random(17);
+    for (int i = 0; i < 5000; i++) {
+      builder.addNote(random.nextInt(Piano.PIANO_NUMS), random.nextInt(100000),
+          random.nextInt(3000), random.nextInt(128));
+    }
+    AutoPlayTimeline timeline = builder.setDuration(200000).build();
+    byte[] score = BinaryScoreUtils.toByteArray(timeline);
+    assertTimelineEquals(timeline, BinaryScoreUtils.read(ByteBuffer.wrap(score)));
+    assertTimelineEquals(timeline, BinaryScoreUtils.read(new ByteArrayInputStream(score)));
+  }
+
+  @Test public void convertsExistingFormats() throws IOException {
+    String config = "{tune:C;frequency:480;name:\"小星星\";}1,1,5,5|6,6,5*2|H4,0,HO1,LO5*0.5";
+    AutoPlayTimeline expected = AutoPlayTimeline.compile(
+        AutoPlayUtils.getAutoPlayEntityListByCustomConfigString(config));
+    assertEquals(10, expected.size());
+    byte[] score = AutoPlayUtils.convertCustomConfigToBinaryScore(new StringReader(config));
+    assertTimelineEquals(expected, BinaryScoreUtils.read(ByteBuffer.wrap(score)));
+
+    List<AutoPlayEntity> entities = randomEntities(1000);
+    expected = AutoPlayTimeline.compile(entities);
+    score = AutoPlayUtils.convertJsonToBinaryScore(AutoPlayUtils.gson.toJson(entities));
+    assertTimelineEquals(expected, BinaryScoreUtils.read(ByteBuffer.wrap(score)));
+  }
+
+  @Test public void rejectsWrongScore() {
+    byte[] score = BinaryScoreUtils.toByteArray(
+        new AutoPlayTimeline.Builder().addNote(39, 0, 100).addNote(40, 100, 100).build());
+    assertError(BinaryScoreUtils.Error.NOT_BINARY_SCORE, "{tune:C;}".getBytes());
+    byte[] wrong = score.clone();
+    wrong[4] = (byte) (BinaryScoreUtils.VERSION + 1);
+    assertError(BinaryScoreUtils.Error.UNSUPPORTED_VERSION + ":" + (BinaryScoreUtils.VERSION + 1),
+        wrong);
+    assertError(BinaryScoreUtils.Error.SCORE_TRUNCATED, Arrays.copyOf(score, score.length - 1));
+    wrong = score.clone();
+    wrong[18] = (byte) Piano.PIANO_NUMS;
+    assertError(BinaryScoreUtils.Error.KEY_INDEX_WRONG + ":" + Piano.PIANO_NUMS, wrong);
+  }
+
+  @Test public void readsMappedFile() throws IOException {
+    AutoPlayTimeline timeline = AutoPlayTimeline.compile(randomEntities(20000));
+    File file = File.createTempFile("score", ".pvsc");
+    file.deleteOnExit();
+    FileOutputStream fos = new FileOutputStream(file);
+    try {
+      BinaryScoreUtils.write(timeline, fos);
+    } finally {
+      fos.close();
+    }
+    assertTimelineEquals(timeline, BinaryScoreUtils.read(file));
+  }
+
+  private static List<AutoPlayEntity> randomEntities(int notes) {
+    List<AutoPlayEntity> entities = new ArrayList<>();
+    Random random = new Random(23);
+    for (int i = 0; i < notes; i++) {
+      boolean white = random.nextInt(3) > 0;
+      entities.add(new AutoPlayEntity(white ? Piano.PianoKeyType.WHITE : Piano.PianoKeyType.BLACK,
+          1 + random.nextInt(6), random.nextInt(white ? 7 : 5), 60 + random.nextInt(500)));
+    }
+    return entities;
+  }
+
+  private static void assertError(String message, byte[] score) {
+    try {
+      BinaryScoreUtils.read(ByteBuffer.wrap(score));
+      fail("no exception");
+    } catch (IOException e) {
+      assertEquals(message, e.getMessage());
+    }
+  }
+
+  private static void assertTimelineEquals(AutoPlayTimeline expected, AutoPlayTimeline actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.getDuration(), actual.getDuration());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.getKeyIndex(i), actual.getKeyIndex(i));
+      assertEquals(expected.getOnTime(i), actual.getOnTime(i));
+      assertEquals(expected.getOffTime(i), actual.getOffTime(i));
+      assertEquals(expected.getVelocity(i), actual.getVelocity(i));
+      assertEquals(expected.getNoteOfOff(i), actual.getNoteOfOff(i));
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 标准MIDI文件测试
+ */
+public class MidiUtilsTest {
+  @Test public void roundTrips() throws IOException {
+    AutoPlayTimeline.Builder builder = new AutoPlayTimeline.Builder();
+    Random random = new Random(29);
+    for (int i = 0; i < 3000; i++) {
+      builder.addNote(random.nextInt(Piano.PIANO_NUMS), random.nextInt(60000),
+          random.nextInt(2000), 1 + random.nextInt(127));
+    }
+    AutoPlayTimeline timeline = builder.setDuration(70000).build();
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    MidiUtils.write(timeline, os);
+    AutoPlayTimeline read = MidiUtils.read(new ByteArrayInputStream(os.toByteArray()));
+    assertEquals(timeline.size(), read.size());
+    assertEquals(timeline.getDuration(), read.getDuration());
+    for (int i = 0; i < timeline.size(); i++) {
+      assertEquals(timeline.getOnTime(i), read.getOnTime(i));
+      assertEquals(timeline.getKeyIndex(i), read.getKeyIndex(i));
+      assertEquals(timeline.getOffTime(i), read.getOffTime(i));
+      assertEquals(timeline.getVelocity(i), read.getVelocity(i));
+    }
+  }
+
+  @Test public void readsMultiTrackFile() throws IOException {
+    byte[] tempoTrack = {
+        //120BPM,192 tick之后240BPM
+        0, (byte) 0xFF, 0x51, 3, 0x07, (byte) 0xA1, 0x20,
+        (byte) 0x81, 0x40, (byte) 0xFF, 0x51, 3, 0x03, (byte) 0xD0, (byte) 0x90,
+        0, (byte) 0xFF, 0x2F, 0
+    };
+    byte[] noteTrack = {
+        0, (byte) 0xFF, 0x03, 4, 'P', 'i', 'a', 'n',
+        0, (byte) 0x90, 60, 100,
+        //running status
+        0x60, 64, 80,
+        0, (byte) 0xC0, 5,
+        0, (byte) 0xF0, 2, 0x7E, (byte) 0xF7,
+        0x60, (byte) 0x90, 60, 0,
+        0, 64, 0,
+        //A0以下和C8以上的音符被忽略
+        0x60, 108, 90,
+        0, 20, 90,
+        0, 109, 90,
+        //没有抬起的音符在音轨结束时抬起
+        0x60, (byte) 0xFF, 0x2F, 0
+    };
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    os.write(new byte[] { 'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 1, 0, 2, 0, 96 });
+    writeTrack(os, tempoTrack);
+    //未知的块被跳过
+    os.write(new byte[] { 'X', 'Y', 'Z', 'W', 0, 0, 0, 2, 1, 2 });
+    writeTrack(os, noteTrack);
+    AutoPlayTimeline timeline = MidiUtils.read(new ByteArrayInputStream(os.toByteArray()));
+    assertEquals(3, timeline.size());
+    assertNote(timeline, 0, 39, 0, 1000, 100);
+    assertNote(timeline, 1, 43, 500, 1000, 80);
+    assertNote(timeline, 2, 87, 1250, 1500, 90);
+    assertEquals(1500, timeline.getDuration());
+  }
+
+  @Test public void rejectsWrongFile() throws IOException {
+    try {
+      MidiUtils.read(new ByteArrayInputStream("RIFF....".getBytes()));
+      fail("no exception");
+    } catch (IOException e) {
+      assertEquals(MidiUtils.Error.NOT_MIDI_FILE, e.getMessage());
+    }
+    try {
+      MidiUtils.read(new ByteArrayInputStream(
+          new byte[] { 'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 2, 0, 1, 0, 96 }));
+      fail("no exception");
+    } catch (IOException e) {
+      assertEquals(MidiUtils.Error.UNSUPPORTED_FORMAT + ":2", e.getMessage());
+    }
+  }
+
+  @Test public void metaAndSysexCancelRunningStatus() throws IOException {
+    byte[][] tracks = {
+        { 0, (byte) 0x90, 60, 100, 0, (byte) 0xFF, 0x01, 1, 'x', 0x60, 60, 0 },
+        { 0, (byte) 0x90, 60, 100, 0, (byte) 0xF0, 1, (byte) 0xF7, 0x60, 60, 0 }
+    };
+    for (byte[] track : tracks) {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      os.write(new byte[] { 'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 0, 0, 1, 0, 96 });
+      writeTrack(os, track);
+      try {
+        MidiUtils.read(new ByteArrayInputStream(os.toByteArray()));
+        fail("no exception");
+      } catch (IOException e) {
+        assertEquals(MidiUtils.Error.TRACK_WRONG, e.getMessage());
+      }
+    }
+  }
+
+  @Test public void readsLargeFiles() throws IOException {
+    //4个音轨,每个音轨1.5万个音符,共12万个事件
+    int tracks = 4;
+    int notes = 15000;
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    os.write(new byte[] { 'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 1, 0, (byte) tracks, 1, (byte) 0xE0 });
+    Random random = new Random(31);
+    for (int track = 0; track < tracks; track++) {
+      ByteArrayOutputStream events = new ByteArrayOutputStream();
+      for (int i = 0; i < notes; i++) {
+        int note = 21 + random.nextInt(88);
+        events.write(new byte[] { 0x30, (byte) (0x90 | track), (byte) note, 100, 0x30, (byte) note, 0 });
+      }
+      events.write(new byte[] { 0, (byte) 0xFF, 0x2F, 0 });
+      writeTrack(os, events.toByteArray());
+    }
+    AutoPlayTimeline timeline = MidiUtils.read(new ByteArrayInputStream(os.toByteArray()));
+    assertEquals(tracks * notes, timeline.size());
+  }
+
+  private static void writeTrack(ByteArrayOutputStream os, byte[] events) throws IOException {
+    os.write(new byte[] {
+        'M', 'T', 'r', 'k', (byte) (events.length >> 24), (byte) (events.length >> 16),
+        (byte) (events.length >> 8), (byte) events.length
+    });
+    os.write(events);
+  }
+
+  private static void assertNote(AutoPlayTimeline timeline, int note, int keyIndex, long onTime,
+      long offTime, int velocity) {
+    assertEquals(keyIndex, timeline.getKeyIndex(note));
+    assertEquals(onTime, timeline.getOnTime(note));
+    assertEquals(offTime, timeline.getOffTime(note));
+    assertEquals(velocity, timeline.getVelocity(note));
+  }
+}
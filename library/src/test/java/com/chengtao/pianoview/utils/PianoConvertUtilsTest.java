@@ -0,0 +1,196 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 自定义配置解析测试
+ */
+@SuppressWarnings("unchecked") public class PianoConvertUtilsTest {
+  private static final String LITTLE_STAR = "{\n"
+      + "\ttune:C;\n"
+      + "\tfrequency:480;\n"
+      + "\tname:\"小 星星\";\n"
+      + "}\n"
+      + "1,1,5,5  | 6,6,5*2  |\n"
+      + "HO1,LO5*0.5,H4,4,M4|4,L3,0*8";
+
+  @Test public void parsesNotes() throws Throwable {
+    Object[] result = PianoConvertUtils.convertByConfigString(LITTLE_STAR);
+    assertEquals("\"小 星星\"", result[0]);
+    List<PianoConvertUtils.PianoKey> keys = (List<PianoConvertUtils.PianoKey>) result[2];
+    assertEquals(15, keys.size());
+    assertKey(keys.get(0), PianoConvertUtils.PianoKey.WHITE_KEY, 3, 0, 480);
+    assertKey(keys.get(2), PianoConvertUtils.PianoKey.WHITE_KEY, 3, 4, 480);
+    assertKey(keys.get(6), PianoConvertUtils.PianoKey.WHITE_KEY, 3, 4, 960);
+    assertKey(keys.get(7), PianoConvertUtils.PianoKey.WHITE_KEY, 4, 0, 480);
+    assertKey(keys.get(8), PianoConvertUtils.PianoKey.WHITE_KEY, 2, 4, 240);
+    //升4是黑键,同一小节之后的4也是升4,还原之后是白键
+    assertKey(keys.get(9), PianoConvertUtils.PianoKey.BLACK_KEY, 3, 2, 480);
+    assertKey(keys.get(10), PianoConvertUtils.PianoKey.BLACK_KEY, 3, 2, 480);
+    assertKey(keys.get(11), PianoConvertUtils.PianoKey.WHITE_KEY, 3, 3, 480);
+    //下一小节重新开始
+    assertKey(keys.get(12), PianoConvertUtils.PianoKey.WHITE_KEY, 3, 3, 480);
+    assertKey(keys.get(13), PianoConvertUtils.PianoKey.BLACK_KEY, 3, 1, 480);
+    assertEquals(PianoConvertUtils.PianoKey.NULL_KEY, keys.get(14).getType());
+    assertEquals(3840, keys.get(14).getFrequency());
+  }
+
+  @Test public void streamsNotesBeforeError() throws Exception {
+    final int[] count = new int[1];
+    try {
+      PianoConvertUtils.parse(new StringReader("{name:x;}1,2,3,HO5*8,4"),
+          new PianoConvertUtils.OnNoteListener() {
+            @Override public void onNote(PianoConvertUtils.PianoKey key) {
+              count[0]++;
+            }
+          });
+      throw new AssertionError("no exception");
+    } catch (Exception e) {
+      assertEquals(PianoConvertUtils.Error.MUSIC_NOTE_CONFIG_WRONG + ":HO5*8", e.getMessage());
+    }
+    assertEquals(3, count[0]);
+  }
+
+  @Test public void rejectsWrongConfig() {
+    assertError(PianoConvertUtils.Error.CONFIG_FILE_WRONG, " {name:x;}1");
+    assertError(PianoConvertUtils.Error.CONFIG_FILE_WRONG, "{name:x;");
+    assertError(PianoConvertUtils.Error.NO_MUSIC_NAME, "{tune:C;}1");
+    assertError(PianoConvertUtils.Error.TUNE_NOT_IN_RANGE, "{tune:H;name:x;}1");
+    assertError(PianoConvertUtils.Error.FREQUENCY_NOT_NUMBER, "{frequency:1a;name:x;}1");
+    assertError(PianoConvertUtils.Error.MUSIC_NOTE_CONFIG_WRONG + ":8", "{name:x;}8");
+    assertError(PianoConvertUtils.Error.MUSIC_NOTE_CONFIG_WRONG + ":1*3", "{name:x;}1*3");
+  }
+
+  @Test public void acceptsSameNotesAsRegex() throws Exception {
+    String score = generateScore(10000);
+    final int[] count = new int[1];
+    PianoConvertUtils.parse(new StringReader(score), new PianoConvertUtils.OnNoteListener() {
+      @Override public void onNote(PianoConvertUtils.PianoKey key) {
+        count[0]++;
+      }
+    });
+    assertEquals(regexTokenize(score), count[0]);
+  }
+
+  @Test public void parsesKeyIndexes() throws Exception {
+    String score = generateScore(5000);
+    final List<Integer> expected = new ArrayList<>();
+    PianoConvertUtils.parse(new StringReader(score), new PianoConvertUtils.OnNoteListener() {
+      @Override public void onNote(PianoConvertUtils.PianoKey key) {
+        Piano.PianoKeyType type = null;
+        if (key.getType() == PianoConvertUtils.PianoKey.WHITE_KEY) {
+          type = Piano.PianoKeyType.WHITE;
+        } else if (key.getType() == PianoConvertUtils.PianoKey.BLACK_KEY) {
+          type = Piano.PianoKeyType.BLACK;
+        }
+        expected.add(PianoKeyIndex.getKeyIndex(type, key.getGroup(), key.getPosition()));
+        expected.add((int) key.getFrequency());
+      }
+    });
+    final List<Integer> actual = new ArrayList<>();
+    PianoConvertUtils.parseKeys(new StringReader(score), new PianoConvertUtils.OnKeyListener() {
+      @Override public boolean onKey(int keyIndex, long duration) {
+        actual.add(keyIndex);
+        actual.add((int) duration);
+        return true;
+      }
+    });
+    assertEquals(expected, actual);
+  }
+
+  @Test public void stopsWhenKeyListenerDeclines() throws Exception {
+    final int[] count = new int[1];
+    String name = PianoConvertUtils.parseKeys(new StringReader("{name:x;}1,2,3,4,5,9"),
+        new PianoConvertUtils.OnKeyListener() {
+          @Override public boolean onKey(int keyIndex, long duration) {
+            return ++count[0] < 3;
+          }
+        });
+    //第三个音符之后不再解析,后面错误的音符不会报错
+    assertEquals(3, count[0]);
+    assertEquals("x", name);
+  }
+
+  @Test public void parsesKeysWithoutAllocation() throws Exception {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return;
+    }
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+    long threadId = Thread.currentThread().getId();
+    final long[] sum = new long[1];
+    PianoConvertUtils.OnKeyListener listener = new PianoConvertUtils.OnKeyListener() {
+      @Override public boolean onKey(int keyIndex, long duration) {
+        sum[0] += keyIndex + duration;
+        return true;
+      }
+    };
+    String score = generateScore(1000000);
+    //预热
+    PianoConvertUtils.parseKeys(new StringReader(score), listener);
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    PianoConvertUtils.parseKeys(new StringReader(score), listener);
+    long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+    //只有读取缓冲区和基本配置,与音符数目无关
+    assertTrue(allocated < 256 * 1024);
+  }
+
+  static String generateScore(int notes) {
+    String[] tokens = { "1", "2*2", "H4", "HO3", "LOL7*0.5", "5", "M4", "6*0.25", "0" };
+    StringBuilder builder = new StringBuilder("{\n  tune:D;\n  frequency:200;\n  name:bench;\n}\n");
+    for (int i = 0; i < notes; i++) {
+      builder.append(tokens[i % tokens.length]);
+      builder.append(i % 8 == 7 ? " |\n" : ",");
+    }
+    return builder.toString();
+  }
+
+  /**
+   * 原来的方式:拆分字符串并逐个匹配正则表达式(只统计音符,不计算钢琴键)
+   */
+  static int regexTokenize(String score) {
+    String notes = score.substring(score.indexOf('}') + 1).replaceAll("\\s", "");
+    int count = 0;
+    for (String part : notes.split("\\|")) {
+      for (String note : part.split(",")) {
+        if (!note.equals("")) {
+          if (note.matches("^[0-7](\\*(0\\.25|0\\.5|2|4|6|8))?$")
+              || note.matches("^[H,M,L][0-7](\\*(0\\.25|0\\.5|2|4|6|8))?$")
+              || note.matches("^HO[0-7](\\*(0\\.25|0\\.5|2|4))?$|^LO[0-7](\\*(0\\.25|0\\.5|2|4|6|8))?$")
+              || note.matches(
+              "^HO[H,M,L][0-7](\\*(0\\.25|0\\.5|2|4))?$|^LO[H,M,L][0-7](\\*(0\\.25|0\\.5|2|4|6|8))?$")) {
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  private static void assertKey(PianoConvertUtils.PianoKey key, int type, int group, int position,
+      long frequency) {
+    assertEquals(key.toString(), type, key.getType());
+    assertEquals(key.toString(), group, key.getGroup());
+    assertEquals(key.toString(), position, key.getPosition());
+    assertEquals(key.toString(), frequency, key.getFrequency());
+  }
+
+  private static void assertError(String message, String config) {
+    try {
+      PianoConvertUtils.convertByConfigString(config);
+    } catch (Throwable e) {
+      assertEquals(config, message, e.getMessage());
+      return;
+    }
+    throw new AssertionError("no exception: " + config);
+  }
+}
@@ -0,0 +1,135 @@
+package com.chengtao.pianoview.utils;
+
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 乐谱缓存测试
+ */
+public class ScoreCacheTest {
+  private static final String CONFIG = "{tune:C;frequency:480;name:\"小星星\";}1,1,5,5|6,6,5*2|"
+      + "4,4,3,3|2,2,1*2";
+  private File dir;
+
+  @Before public void setUp() throws IOException {
+    dir = File.createTempFile("scores", "");
+    dir.delete();
+    dir.mkdirs();
+  }
+
+  @After public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  @Test public void hitsAfterFirstLoad() throws IOException {
+    ScoreCache cache = new ScoreCache(dir, 1024 * 1024);
+    AutoPlayTimeline first = cache.load(CONFIG.getBytes("UTF-8"), ScoreCache.CUSTOM_CONFIG);
+    AutoPlayTimeline second = cache.load(CONFIG.getBytes("UTF-8"), ScoreCache.CUSTOM_CONFIG);
+    assertEquals(14, first.size());
+    assertEquals(first.size(), second.size());
+    for (int i = 0; i < first.size(); i++) {
+      assertEquals(first.getKeyIndex(i), second.getKeyIndex(i));
+      assertEquals(first.getOffTime(i), second.getOffTime(i));
+    }
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0.5f, cache.getHitRate(), 0);
+    //同样的内容使用不同的解析器不会命中
+    assertNull(cache.load(CONFIG.getBytes("UTF-8"), ScoreCache.JSON));
+    //解析失败时不写入缓存
+    assertNull(cache.load("{tune:C;}1,2".getBytes("UTF-8"), ScoreCache.CUSTOM_CONFIG));
+    assertEquals(3, cache.getMissCount());
+    //重新打开后仍然命中
+    ScoreCache reopened = new ScoreCache(dir, 1024 * 1024);
+    assertEquals(cache.size(), reopened.size());
+    reopened.load(CONFIG.getBytes("UTF-8"), ScoreCache.CUSTOM_CONFIG);
+    assertEquals(1, reopened.getHitCount());
+  }
+
+  @Test public void evictsLeastRecentlyUsed() throws IOException {
+    ScoreCache cache = new ScoreCache(dir, 1024 * 1024);
+    cache.load(score(0), ScoreCache.CUSTOM_CONFIG);
+    long entrySize = cache.size();
+    cache = new ScoreCache(dir, entrySize * 3);
+    cache.load(score(1), ScoreCache.CUSTOM_CONFIG);
+    cache.load(score(2), ScoreCache.CUSTOM_CONFIG);
+    //访问0之后,1是最久没有使用的
+    cache.load(score(0), ScoreCache.CUSTOM_CONFIG);
+    cache.load(score(3), ScoreCache.CUSTOM_CONFIG);
+    assertEquals(1, cache.getEvictionCount());
+    assertTrue(cache.size() <= entrySize * 3);
+    cache.load(score(0), ScoreCache.CUSTOM_CONFIG);
+    cache.load(score(2), ScoreCache.CUSTOM_CONFIG);
+    cache.load(score(3), ScoreCache.CUSTOM_CONFIG);
+    assertEquals(4, cache.getHitCount());
+    cache.load(score(1), ScoreCache.CUSTOM_CONFIG);
+    assertEquals(4, cache.getHitCount());
+  }
+
+  @Test public void reparsesDamagedFiles() throws IOException {
+    ScoreCache cache = new ScoreCache(dir, 1024 * 1024);
+    cache.load(score(0), ScoreCache.CUSTOM_CONFIG);
+    for (File file : dir.listFiles()) {
+      FileOutputStream fos = new FileOutputStream(file);
+      fos.write(new byte[] { 'P', 'V' });
+      fos.close();
+    }
+    assertEquals(14, cache.load(score(0), ScoreCache.CUSTOM_CONFIG).size());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(14, cache.load(score(0), ScoreCache.CUSTOM_CONFIG).size());
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test public void loadsConcurrently() throws Exception {
+    final ScoreCache cache = new ScoreCache(dir, 1024 * 1024);
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override public void run() {
+          try {
+            for (int i = 0; i < 200; i++) {
+              AutoPlayTimeline timeline = cache.load(score(i % 5), ScoreCache.CUSTOM_CONFIG);
+              if (timeline == null || timeline.size() != 14) {
+                failures.incrementAndGet();
+              }
+            }
+          } catch (IOException e) {
+            failures.incrementAndGet();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+    assertEquals(8 * 200, cache.getHitCount() + cache.getMissCount());
+    assertTrue(cache.getHitRate() > 0.9f);
+    assertEquals(5, dir.listFiles().length);
+  }
+
+  /**
+   * 只有名称不同的乐谱
+   */
+  private static byte[] score(int i) throws IOException {
+    return CONFIG.replace("小星星", "小星星" + i).getBytes("UTF-8");
+  }
+}
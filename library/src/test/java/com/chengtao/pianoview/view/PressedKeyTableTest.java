@@ -0,0 +1,152 @@
+package com.chengtao.pianoview.view;
+
+import com.chengtao.pianoview.entity.Piano;
+import com.chengtao.pianoview.entity.PianoKeyIndex;
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 被按下的钢琴键表测试
+ */
+public class PressedKeyTableTest {
+  @Test public void pressAndRelease() {
+    PressedKeyTable table = new PressedKeyTable();
+    assertTrue(table.press(39, 0));
+    assertFalse(table.press(39, 1));
+    assertTrue(table.press(40, PressedKeyTable.NO_POINTER));
+    assertTrue(table.press(41, 2));
+    assertEquals(3, table.size());
+    assertEquals(39, table.getKeyOfPointer(0));
+    assertEquals(PianoKeyIndex.NO_KEY, table.getKeyOfPointer(1));
+    assertTrue(table.release(39));
+    assertFalse(table.release(39));
+    assertFalse(table.isPressed(39));
+    assertEquals(PianoKeyIndex.NO_KEY, table.getKeyOfPointer(0));
+    assertEquals(41, table.getKeyOfPointer(2));
+    for (int i = table.size() - 1; i >= 0; i--) {
+      table.release(table.keyAt(i));
+    }
+    assertEquals(0, table.size());
+    assertEquals(PianoKeyIndex.NO_KEY, table.getKeyOfPointer(2));
+  }
+
+  @Test public void holdsEveryKey() {
+    PressedKeyTable table = new PressedKeyTable();
+    for (int key = 0; key < Piano.PIANO_NUMS; key++) {
+      assertTrue(table.press(key, key % PressedKeyTable.MAX_POINTERS));
+    }
+    assertEquals(Piano.PIANO_NUMS, table.size());
+    boolean[] seen = new boolean[Piano.PIANO_NUMS];
+    for (int i = 0; i < table.size(); i++) {
+      assertFalse(seen[table.keyAt(i)]);
+      seen[table.keyAt(i)] = true;
+    }
+    //倒序遍历时可以边遍历边抬起
+    for (int i = table.size() - 1; i >= 0; i--) {
+      assertTrue(table.release(table.keyAt(i)));
+    }
+    assertEquals(0, table.size());
+    for (int key = 0; key < Piano.PIANO_NUMS; key++) {
+      assertFalse(table.isPressed(key));
+    }
+  }
+
+  @Test public void pointerKeepsOnlyLastKey() {
+    PressedKeyTable table = new PressedKeyTable();
+    assertTrue(table.press(10, 0));
+    assertTrue(table.press(20, 0));
+    assertEquals(20, table.getKeyOfPointer(0));
+    //抬起之前的钢琴键不影响触摸点当前按下的钢琴键
+    assertTrue(table.release(10));
+    assertEquals(20, table.getKeyOfPointer(0));
+    assertTrue(table.release(20));
+    assertEquals(PianoKeyIndex.NO_KEY, table.getKeyOfPointer(0));
+  }
+
+  @Test public void moveReleasesKeyLeftBehind() {
+    PressedKeyTable table = new PressedKeyTable();
+    table.press(39, 0);
+    assertEquals(PianoKeyIndex.NO_KEY, table.move(0, 39));
+    assertEquals(PianoKeyIndex.NO_KEY, table.move(1, 40));
+    assertTrue(table.isPressed(39));
+    assertEquals(39, table.move(0, 40));
+    assertFalse(table.isPressed(39));
+    assertEquals(PianoKeyIndex.NO_KEY, table.getKeyOfPointer(0));
+    table.press(41, 2);
+    assertEquals(41, table.move(2, PianoKeyIndex.NO_KEY));
+    assertEquals(0, table.size());
+  }
+
+  @Test public void ignoresPointersOutOfRange() {
+    PressedKeyTable table = new PressedKeyTable();
+    assertTrue(table.press(10, PressedKeyTable.MAX_POINTERS));
+    assertTrue(table.isPressed(10));
+    assertEquals(PianoKeyIndex.NO_KEY, table.getKeyOfPointer(PressedKeyTable.MAX_POINTERS));
+    assertEquals(PianoKeyIndex.NO_KEY, table.getKeyOfPointer(PressedKeyTable.NO_POINTER));
+    assertTrue(table.release(10));
+    assertEquals(0, table.size());
+  }
+
+  @Test public void moveEventsDoNotAllocate() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return;
+    }
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+    if (!threadBean.isThreadAllocatedMemorySupported()) {
+      return;
+    }
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+    PressedKeyTable table = new PressedKeyTable();
+    PianoKeyIndex keyIndex = new PianoKeyIndex(88, 420, 54, 270);
+    //预热
+    for (int event = 0; event < 2000; event++) {
+      handleMoveEvent(table, keyIndex, event);
+    }
+    long threadId = Thread.currentThread().getId();
+    long overhead = measureOverhead(threadBean, threadId);
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    int events = 10000;
+    for (int event = 0; event < events; event++) {
+      handleMoveEvent(table, keyIndex, event);
+    }
+    long allocated = threadBean.getThreadAllocatedBytes(threadId) - before - overhead;
+    assertEquals("bytes allocated by " + events + " MOVE events", 0, Math.max(0, allocated));
+  }
+
+  private static long measureOverhead(com.sun.management.ThreadMXBean threadBean, long threadId) {
+    long overhead = Long.MAX_VALUE;
+    for (int i = 0; i < 10; i++) {
+      long start = threadBean.getThreadAllocatedBytes(threadId);
+      overhead = Math.min(overhead, threadBean.getThreadAllocatedBytes(threadId) - start);
+    }
+    return overhead;
+  }
+
+  /**
+   * 与PianoView处理ACTION_MOVE的步骤相同:十个手指在键盘上滑动,
+   * 先抬起手指离开的钢琴键,再按下手指所在的钢琴键
+   */
+  private static void handleMoveEvent(PressedKeyTable table, PianoKeyIndex keyIndex, int event) {
+    int pointers = 10;
+    for (int pointer = 0; pointer < pointers; pointer++) {
+      table.move(pointer, findKey(keyIndex, pointer, event));
+    }
+    for (int pointer = 0; pointer < pointers; pointer++) {
+      int key = findKey(keyIndex, pointer, event);
+      if (key != PianoKeyIndex.NO_KEY && !table.isPressed(key)) {
+        table.press(key, pointer);
+      }
+    }
+  }
+
+  private static int findKey(PianoKeyIndex keyIndex, int pointer, int event) {
+    int x = (pointer * 397 + event * 13) % (keyIndex.getPianoWidth() + 100);
+    int y = (pointer * 61 + event * 7) % 440;
+    return keyIndex.find(x, y);
+  }
+}
@@ -18,9 +18,12 @@ import com.chengtao.pianoview.entity.Piano;
 import com.chengtao.pianoview.listener.OnLoadAudioListener;
 import com.chengtao.pianoview.listener.OnPianoAutoPlayListener;
 import com.chengtao.pianoview.listener.OnPianoListener;
-import com.chengtao.pianoview.utils.AutoPlayUtils;
+import com.chengtao.pianoview.play.AutoPlayTimeline;
+import com.chengtao.pianoview.utils.ScoreCache;
 import com.chengtao.pianoview.view.PianoView;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 
 @SuppressWarnings("FieldCanBeLocal") public class MainActivity extends Activity
@@ -39,6 +42,9 @@ import java.util.ArrayList;
   //
   private boolean isPlay = false;
   private ArrayList<AutoPlayEntity> litterStarList = null;
+  private AutoPlayTimeline litterStarTimeline = null;
+  //编译后乐谱的缓存大小
+  private static final long SCORE_CACHE_SIZE = 4 * 1024 * 1024;
   private static final long LITTER_STAR_BREAK_SHORT_TIME = 500;
   private static final long LITTER_STAR_BREAK_LONG_TIME = 1000;
 
@@ -66,18 +72,42 @@ import java.util.ArrayList;
     btnMusic.setOnClickListener(this);
     //init
     if (USE_CONFIG_FILE) {
-      AssetManager assetManager = getAssets();
-      try {
-        litterStarList = AutoPlayUtils.getAutoPlayEntityListByCustomConfigInputStream(
-            assetManager.open(CONFIG_FILE_NAME));
-      } catch (IOException e) {
-        Log.e("TAG", e.getMessage());
-      }
+      loadConfigFile();
     } else {
       initLitterStarList();
+      litterStarTimeline = AutoPlayTimeline.compile(litterStarList);
     }
   }
 
+  /**
+   * 在后台线程中读取乐谱,再次打开相同的乐谱时直接读取编译后的结果
+   */
+  private void loadConfigFile() {
+    final AssetManager assetManager = getAssets();
+    final File cacheDir = new File(getCacheDir(), "scores");
+    new Thread(() -> {
+      AutoPlayTimeline timeline = null;
+      InputStream is = null;
+      try {
+        ScoreCache scoreCache = new ScoreCache(cacheDir, SCORE_CACHE_SIZE);
+        is = assetManager.open(CONFIG_FILE_NAME);
+        timeline = scoreCache.load(is, ScoreCache.CUSTOM_CONFIG);
+      } catch (IOException e) {
+        Log.e("TAG", "load score failed", e);
+      } finally {
+        if (is != null) {
+          try {
+            is.close();
+          } catch (IOException e) {
+            Log.e("TAG", "close score failed", e);
+          }
+        }
+      }
+      final AutoPlayTimeline result = timeline;
+      runOnUiThread(() -> litterStarTimeline = result);
+    }, "LoadScore").start();
+  }
+
   /**
    * 初始化小星星列表
    */
@@ -248,8 +278,8 @@ import java.util.ArrayList;
         seekBar.setProgress(progress);
         break;
       case R.id.iv_music:
-        if (!isPlay) {
-          pianoView.autoPlay(litterStarList);
+        if (!isPlay && litterStarTimeline != null) {
+          pianoView.autoPlay(litterStarTimeline);
         }
         break;
     }